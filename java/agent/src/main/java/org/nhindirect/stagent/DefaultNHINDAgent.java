@@ -54,14 +54,15 @@ import org.nhindirect.policy.PolicyFilter;
 import org.nhindirect.policy.PolicyFilterFactory;
 import org.nhindirect.policy.PolicyParseException;
 import org.nhindirect.policy.PolicyProcessException;
-import org.nhindirect.policy.PolicyRequiredException;
 import org.nhindirect.stagent.annotation.AgentDomains;
 import org.nhindirect.stagent.annotation.AgentPolicyFilter;
 import org.nhindirect.stagent.annotation.PrivateCerts;
 import org.nhindirect.stagent.annotation.PrivatePolicyResolver;
 import org.nhindirect.stagent.annotation.PublicCerts;
 import org.nhindirect.stagent.annotation.PublicPolicyResolver;
+import org.nhindirect.stagent.cert.AIACertificateCache;
 import org.nhindirect.stagent.cert.CertificateResolver;
+import org.nhindirect.stagent.cert.ConcurrentCertificateResolver;
 import org.nhindirect.stagent.cert.X509CertificateEx;
 import org.nhindirect.stagent.cryptography.Cryptographer;
 import org.nhindirect.stagent.cryptography.SMIMECryptographerImpl;
@@ -77,6 +78,7 @@ import org.nhindirect.stagent.options.OptionsManager;
 import org.nhindirect.stagent.options.OptionsParameter;
 import org.nhindirect.stagent.parser.EntitySerializer;
 import org.nhindirect.stagent.policy.PolicyResolver;
+import org.nhindirect.stagent.policy.PolicyVerdictCache;
 import org.nhindirect.stagent.trust.TrustAnchorResolver;
 import org.nhindirect.stagent.trust.TrustEnforcementStatus;
 import org.nhindirect.stagent.trust.TrustError;
@@ -97,6 +99,9 @@ public class DefaultNHINDAgent implements NHINDAgent, MutableAgent
 	
 	private static boolean initialConstruct = true;
 	
+	protected static final int DEFAULT_PUBLIC_CERT_RESOLVER_THREADS = 1; // resolve recipients one after another unless configured
+	protected static final int DEFAULT_PUBLIC_CERT_RESOLVER_DEADLINE = 60000; // 1 minute
+	
 	static MimeMultipart lastMMPart = null;
 
     protected final ReentrantReadWriteLock readWriteLock = new ReentrantReadWriteLock(true);
@@ -116,6 +121,14 @@ public class DefaultNHINDAgent implements NHINDAgent, MutableAgent
     
     protected PolicyFilter policyFilter;
     
+    protected PolicyVerdictCache policyVerdictCache = PolicyVerdictCache.getInstance();
+    
+    // verdicts depend on the policy filter, so cached verdicts are scoped to the agent's filter
+    protected volatile String policyVerdictScope = PolicyVerdictCache.createScope();
+    
+    protected ConcurrentCertificateResolver concurrentPublicCertResolver;
+    private boolean concurrentPublicCertResolverInitialized = false;
+    
     private boolean encryptionEnabled = true;
     private boolean wrappingEnabled = true;
     
@@ -215,7 +228,7 @@ public class DefaultNHINDAgent implements NHINDAgent, MutableAgent
         
         try
         {
-        	this.policyFilter = PolicyFilterFactory.getInstance();
+        	this.policyFilter = PolicyFilterFactory.getCompiledInstance();
         }
         catch (PolicyParseException e)
         {
@@ -633,6 +646,7 @@ public class DefaultNHINDAgent implements NHINDAgent, MutableAgent
     	lock.lock();
 
     	this.policyFilter = filter;
+    	policyVerdictScope = PolicyVerdictCache.createScope();
 
     	lock.unlock();
 	}
@@ -655,6 +669,27 @@ public class DefaultNHINDAgent implements NHINDAgent, MutableAgent
     	}	
 	}
 
+	/**
+	 * Gets the cache used to hold policy compliance verdicts of resolved certificates.  By default, the agent uses the shared 
+	 * {@link PolicyVerdictCache#getInstance() cache instance}.
+	 * @return The cache used to hold policy compliance verdicts.  Null if verdicts are not cached.
+	 * @since 2.3
+	 */
+	public PolicyVerdictCache getPolicyVerdictCache()
+	{
+		return policyVerdictCache;
+	}
+	
+	/**
+	 * Sets the cache used to hold policy compliance verdicts of resolved certificates.
+	 * @param policyVerdictCache The cache used to hold policy compliance verdicts.  A null value disables caching of verdicts.
+	 * @since 2.3
+	 */
+	public void setPolicyVerdictCache(PolicyVerdictCache policyVerdictCache)
+	{
+		this.policyVerdictCache = policyVerdictCache;
+	}
+
     /**
      * {@inheritDoc}
      */
@@ -686,6 +721,49 @@ public class DefaultNHINDAgent implements NHINDAgent, MutableAgent
     		lock.unlock();
     	}	
 	}
+	
+	/**
+	 * Sets the resolver used to look up the public certificates of outgoing message recipients concurrently.  If the resolver is null, 
+	 * recipients are resolved one after another on the message processing thread.
+	 * @param resolver The resolver used to look up the public certificates of outgoing message recipients concurrently.
+	 * @since 2.3
+	 */
+	public synchronized void setConcurrentPublicCertResolver(ConcurrentCertificateResolver resolver)
+	{
+		this.concurrentPublicCertResolver = resolver;
+		this.concurrentPublicCertResolverInitialized = true;
+	}
+	
+	/**
+	 * Gets the resolver used to look up the public certificates of outgoing message recipients concurrently.  If one has not been set,
+	 * it is created from the {@link OptionsParameter#PUBLIC_CERT_RESOLVER_THREADS}, {@link OptionsParameter#PUBLIC_CERT_RESOLVER_DEADLINE}, and
+	 * {@link OptionsParameter#PUBLIC_CERT_RESOLVER_RACE} options.
+	 * @return The resolver used to look up the public certificates of outgoing message recipients concurrently.  Null if recipients
+	 * are resolved one after another.
+	 * @since 2.3
+	 */
+	public synchronized ConcurrentCertificateResolver getConcurrentPublicCertResolver()
+	{
+		if (!concurrentPublicCertResolverInitialized)
+		{
+			OptionsParameter param = OptionsManager.getInstance().getParameter(OptionsParameter.PUBLIC_CERT_RESOLVER_THREADS);
+			final int threads = OptionsParameter.getParamValueAsInteger(param, DEFAULT_PUBLIC_CERT_RESOLVER_THREADS);
+			
+			param = OptionsManager.getInstance().getParameter(OptionsParameter.PUBLIC_CERT_RESOLVER_DEADLINE);
+			final int deadline = OptionsParameter.getParamValueAsInteger(param, DEFAULT_PUBLIC_CERT_RESOLVER_DEADLINE);
+			
+			param = OptionsManager.getInstance().getParameter(OptionsParameter.PUBLIC_CERT_RESOLVER_RACE);
+			final boolean race = OptionsParameter.getParamValueAsBoolean(param, false);
+			
+			if (threads > 1)
+				concurrentPublicCertResolver = new ConcurrentCertificateResolver(threads, 
+						deadline > 0 ? deadline : DEFAULT_PUBLIC_CERT_RESOLVER_DEADLINE, race);
+			
+			concurrentPublicCertResolverInitialized = true;
+		}
+		
+		return concurrentPublicCertResolver;
+	}
 
 	/**
 	 * Processes an incoming message represented by a raw string.  The message will be decrypted and validated that it meets trust assertions.
@@ -1357,9 +1435,16 @@ public class DefaultNHINDAgent implements NHINDAgent, MutableAgent
         //
         // Bind each recipient's certs
         //
-        for(NHINDAddress recipient : message.getRecipients())
+        final List<NHINDAddress> recipients = new ArrayList<NHINDAddress>(message.getRecipients());
+        final List<Collection<X509Certificate>> resolvedPublicCerts = this.resolvePublicCerts(recipients);
+        
+        // the recipient certs are chain validated when trust is enforced, so start loading their AIA intermediates now
+        prefetchIntermediates(resolvedPublicCerts);
+        
+        for (int i = 0; i < recipients.size(); ++i)
         {
-        	Collection<X509Certificate> publicCerts = this.resolvePublicCerts(recipient, false, false);
+        	final NHINDAddress recipient = recipients.get(i);
+        	Collection<X509Certificate> publicCerts = resolvedPublicCerts.get(i);
         	
         	// filter public certs based on policy if one exists
         	publicCerts = filterCertificatesByPolicy(message.getSender(), this.publicPolicyResolver, publicCerts, false);
@@ -1370,6 +1455,29 @@ public class DefaultNHINDAgent implements NHINDAgent, MutableAgent
         }
     }
 
+    /**
+     * Loads the intermediate certificates referenced by the AIA extensions of resolved public certificates in the background.  The 
+     * certificates are loaded into the AIA cache of the trust model's chain validator so building the certificates' trust chains 
+     * does not have to wait on the network.
+     * @param resolvedCerts The resolved public certificates of each address.  Null entries are ignored.
+     * @since 2.3
+     */
+    protected void prefetchIntermediates(Collection<Collection<X509Certificate>> resolvedCerts)
+    {
+    	final AIACertificateCache aiaCache = (trustModel == null || trustModel.getCertChainValidator() == null) ? null : 
+    		trustModel.getCertChainValidator().getAIACertificateCache();
+    	if (aiaCache == null)
+    		return;
+    	
+    	final Collection<X509Certificate> certs = new ArrayList<X509Certificate>();
+    	for (Collection<X509Certificate> resolved : resolvedCerts)
+    		if (resolved != null)
+    			certs.addAll(resolved);
+    	
+    	if (!certs.isEmpty())
+    		aiaCache.prefetch(certs);
+    }
+    
     /*
      * Wrap the message in an RFC 822 message.
      */
@@ -1569,24 +1677,7 @@ public class DefaultNHINDAgent implements NHINDAgent, MutableAgent
         try
         {
             // try each resolver until it's found
-        	for (CertificateResolver publicResolver : publicCertResolver)
-        	{
-        		try
-        		{
-        			certs = publicResolver.getCertificates(address);
-        		}
-        		catch (NHINDException e)
-        		{
-        			// if we found some certs, but they are invalid, we are not
-        			// suppose to move on
-        			if (e.getError().equals(AgentError.AllCertsInResolverInvalid))
-        				break;	
-        			else 
-        				throw e;
-        		}
-        		if (certs != null)
-        			break;
-        	}
+        	certs = ConcurrentCertificateResolver.resolveInOrder(publicCertResolver, address);
         	
             if (certs == null && required)
             {
@@ -1620,6 +1711,27 @@ public class DefaultNHINDAgent implements NHINDAgent, MutableAgent
         return certs;
     }
 
+
+    /*
+     * Get the public certificates for a list of recipient addresses.  If a concurrent resolver is configured and there is more than 
+     * one lookup to make, the lookups are fanned out across the resolver's threads.  The returned list is in the same order as the addresses.
+     */
+    private List<Collection<X509Certificate>> resolvePublicCerts(List<NHINDAddress> addresses) throws NHINDException
+    {
+    	final ConcurrentCertificateResolver concurrentResolver = getConcurrentPublicCertResolver();
+    	
+    	if (concurrentResolver == null || publicCertResolver == null || (addresses.size() < 2 && 
+    			(!concurrentResolver.isRaceResolvers() || publicCertResolver.size() < 2)))
+    	{
+    		final List<Collection<X509Certificate>> retVal = new ArrayList<Collection<X509Certificate>>(addresses.size());
+    		for (NHINDAddress address : addresses)
+    			retVal.add(this.resolvePublicCerts(address, false, false));
+    		
+    		return retVal;
+    	}
+    	
+    	return concurrentResolver.resolve(publicCertResolver, addresses);
+    }
     
     protected void checkEnvelopeAddresses(MessageEnvelope envelope)
     {
@@ -1656,33 +1768,23 @@ public class DefaultNHINDAgent implements NHINDAgent, MutableAgent
     		// get the incoming policy based on the sender
     		final Collection<PolicyExpression> expressions = (incoming) ? 
     				resolver.getIncomingPolicy(sender) : resolver.getOutgoingPolicy(sender);
-    		// loop through filters and certs
+    		final PolicyVerdictCache cache = policyVerdictCache;
+    		// loop through certs... previous verdicts for the same cert and policy are reused
     		for (X509Certificate cert : certsToFilter)
     		{
-    			boolean filterCert = false;
-	    		for (PolicyExpression expression : expressions)
-	    		{
-	    			try
-	    			{
-	    				// check for compliance
-		    			if (!policyFilter.isCompliant(cert, expression))
-		    			{
-		    				filterCert = true;
-		    				break;
-		    			}
-	    			}
-	    			catch (PolicyRequiredException requiredException)
-	    			{
-	    				filterCert = true;
-	    				break;
-	    			}
-	    			catch (PolicyProcessException processException)
-	    			{
-	    				throw new AgentException(AgentError.InvalidPolicy, processException);
-	    			}
-	    		}
-	    		if (!filterCert)
-	    			filteredCerts.add(cert);
+    			try
+    			{
+    				// check for compliance
+    				final boolean isCompliant = (cache != null) ? cache.isCompliant(policyVerdictScope, policyFilter, cert, expressions) :
+    					PolicyVerdictCache.isCompliant(policyFilter, cert, expressions);
+    				
+	    			if (isCompliant)
+	    				filteredCerts.add(cert);
+    			}
+    			catch (PolicyProcessException processException)
+    			{
+    				throw new AgentException(AgentError.InvalidPolicy, processException);
+    			}
     		}
     	}
     	else
@@ -23,13 +23,13 @@ THE POSSIBILITY OF SUCH DAMAGE.
 package org.nhindirect.stagent;
 
 import java.util.Collection;
-import java.util.Collections;
 
 import javax.mail.internet.AddressException;
 import javax.mail.internet.InternetAddress;
 
 import org.nhindirect.stagent.mail.MimeError;
 import org.nhindirect.stagent.mail.MimeException;
+import org.nhindirect.stagent.trust.TrustAnchorSet;
 import org.nhindirect.stagent.trust.TrustEnforcementStatus;
 
 import java.io.UnsupportedEncodingException;
@@ -48,7 +48,7 @@ public class NHINDAddress extends InternetAddress
 	private AddressSource source;
     private Collection<X509Certificate> certificates;
     private TrustEnforcementStatus m_trustStatus;
-    private Collection<X509Certificate> m_trustAnchors;
+    private TrustAnchorSet m_trustAnchors;
         
     /**
      * Constructs an address from a string representation.  The address must be parsable into an {@link InternetAddress}.
@@ -211,16 +211,17 @@ public class NHINDAddress extends InternetAddress
      */
     public Collection<X509Certificate> getTrustAnchors()
     {
-    	return Collections.unmodifiableCollection(this.m_trustAnchors);
+    	return this.m_trustAnchors;
     }            
     
     /**
-     * Sets all certificate anchors that this address trusts.
+     * Sets all certificate anchors that this address trusts.  The anchors are copied into a {@link TrustAnchorSet} so the fingerprint
+     * of the set is only computed once no matter how many certificates are validated against it.
      * @param certs A collection of certificate anchors that are trusted by this address.
      */    
     public void setTrustAnchors(Collection<X509Certificate> certs)
     {
-        this.m_trustAnchors = certs;
+        this.m_trustAnchors = (certs == null) ? null : new TrustAnchorSet(certs);
     }
     
     /**
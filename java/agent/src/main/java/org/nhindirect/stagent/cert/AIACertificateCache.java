@@ -0,0 +1,688 @@
+/*
+Copyright (c) 2010, NHIN Direct Project
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+
+Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer
+in the documentation and/or other materials provided with the distribution.  Neither the name of the The NHIN Direct Project (nhindirect.org).
+nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS
+BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF
+THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package org.nhindirect.stagent.cert;
+
+import java.io.File;
+import java.io.InputStream;
+import java.net.URL;
+import java.net.URLConnection;
+import java.security.MessageDigest;
+import java.security.cert.Certificate;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.jcs.JCS;
+import org.apache.jcs.access.exception.CacheException;
+import org.apache.jcs.engine.behavior.IElementAttributes;
+import org.nhindirect.policy.x509.AuthorityInfoAccessExtentionField;
+import org.nhindirect.policy.x509.AuthorityInfoAccessMethodIdentifier;
+import org.nhindirect.stagent.NHINDException;
+import org.nhindirect.stagent.options.OptionsManager;
+import org.nhindirect.stagent.options.OptionsParameter;
+
+/**
+ * Cache of certificates downloaded from the caIssuers URLs of authority information access (AIA) extensions.  Certificates are keyed by URL
+ * and held in memory until the configured TTL elapses.  Downloads that fail are remembered for a 
+ * short negative TTL so an unreachable URL is not retried for every message.
+ * <p>
+ * If the {@link OptionsParameter#AIA_CACHE_LOCATION} option is set, downloaded certificates are also written to disk.  Certificates on disk
+ * are used after a restart and are served past their TTL when the URL cannot be reached.  Concurrent requests for the same URL are coalesced 
+ * into a single download.
+ * <p>
+ * Intermediate certificates referenced by resolved end entity certificates can be {@link #prefetch(Collection) prefetched} in the background
+ * so building their trust chains does not wait on the network while processing a message.
+ * @author agent
+ * @since 2.3
+ */
+public class AIACertificateCache 
+{
+	private static final Log LOGGER = LogFactory.getFactory().getInstance(AIACertificateCache.class);
+	
+	private static final String CACHE_NAME = "AIA_CERT_CACHE";
+	
+	private static final String CA_ISSUER_CHECK_STRING = AuthorityInfoAccessMethodIdentifier.CA_ISSUERS.getName() + ":";
+	
+	private static final String CACHE_FILE_EXTENSION = ".p7c";
+	
+	protected static final int DEFAULT_URL_CONNECTION_TIMEOUT = 10000; // 10 seconds	
+	
+	protected static final int DEFAULT_URL_READ_TIMEOUT = 10000; // 10 seconds	
+	
+	protected static final int DEFAULT_MAX_CAHCE_ITEMS = 1000;
+	protected static final int DEFAULT_TTL = 86400; // 1 day
+	protected static final int DEFAULT_NEGATIVE_TTL = 60; // 1 minute
+	
+	protected static final int MAX_PREFETCH_DEPTH = 5;
+	
+	protected static AIACertificateCache INSTANCE;
+	
+	protected final JCS cache;
+	protected final int ttl;
+	protected final int negativeTTL;
+	protected final File cacheLocation;
+	
+	protected final ConcurrentMap<String, FutureTask<Collection<X509Certificate>>> inflightDownloads;
+	protected final ExecutorService prefetchExecutor;
+	
+	protected final CertificateDownloader urlDownloader = new CertificateDownloader()
+	{
+		public Collection<X509Certificate> download(String url) throws Exception
+		{
+			return AIACertificateCache.this.download(url);
+		}
+	};
+	
+	protected final AtomicLong hits = new AtomicLong();
+	protected final AtomicLong misses = new AtomicLong();
+	protected final AtomicLong downloads = new AtomicLong();
+	protected final AtomicLong coalesced = new AtomicLong();
+	
+	/**
+	 * Downloads the certificates referenced by an AIA URL.
+	 * @author agent
+	 * @since 2.3
+	 */
+	public static interface CertificateDownloader
+	{
+		/**
+		 * Downloads the certificates referenced by an AIA URL.
+		 * @param url The AIA URL.
+		 * @return The downloaded certificates.
+		 * @throws Exception Thrown if the certificates cannot be downloaded.
+		 */
+		public Collection<X509Certificate> download(String url) throws Exception;
+	}
+	
+	/**
+	 * Gets the shared instance of the cache.
+	 * @return The shared instance of the cache.  Null if the cache could not be created.
+	 */
+	public static synchronized AIACertificateCache getInstance()
+	{
+		if (INSTANCE == null)
+		{
+			try
+			{
+				final OptionsParameter negativeTTLParam = OptionsManager.getInstance().getParameter(OptionsParameter.AIA_CACHE_NEGATIVE_TTL);
+				final OptionsParameter locationParam = OptionsManager.getInstance().getParameter(OptionsParameter.AIA_CACHE_LOCATION);
+				final File location = (locationParam == null || locationParam.getParamValue() == null || locationParam.getParamValue().isEmpty()) ?
+						null : new File(locationParam.getParamValue());
+				
+				INSTANCE = new AIACertificateCache(new DefaultAIACachePolicy(), 
+						OptionsParameter.getParamValueAsInteger(negativeTTLParam, DEFAULT_NEGATIVE_TTL), location);
+			}
+			///CLOVER:OFF
+			catch (CacheException e)
+			{
+				LOGGER.warn("Could not create AIA certificate cache " + CACHE_NAME, e);
+			}
+			///CLOVER:ON
+		}
+		
+		return INSTANCE;
+	}
+	
+	/**
+	 * Constructor
+	 * @param policy The cache policy.  The subject TTL of the policy is the maximum amount of time downloaded certificates are held in memory.
+	 * @param negativeTTL The time in seconds that a failed download is remembered.
+	 * @param cacheLocation The directory where downloaded certificates are persisted.  If null, certificates are only held in memory.
+	 * @throws CacheException Thrown if the underlying cache cannot be created.
+	 */
+	public AIACertificateCache(CertStoreCachePolicy policy, int negativeTTL, File cacheLocation) throws CacheException
+	{
+		this.cache = CertCacheFactory.getInstance().getCertCache(CACHE_NAME, policy);
+		this.ttl = (policy != null) ? policy.getSubjectTTL() : DEFAULT_TTL;
+		this.negativeTTL = negativeTTL;
+		this.cacheLocation = initCacheLocation(cacheLocation);
+		
+		inflightDownloads = new ConcurrentHashMap<String, FutureTask<Collection<X509Certificate>>>();
+		prefetchExecutor = Executors.newSingleThreadExecutor(new PrefetchThreadFactory());
+	}
+	
+	/*
+	 * Creates the disk cache directory if needed.  Returns null if the location cannot be used.
+	 */
+	private static File initCacheLocation(File location)
+	{
+		if (location == null)
+			return null;
+		
+		if (location.exists() && !location.isDirectory())
+		{
+			LOGGER.warn("AIA cache location " + location.getAbsolutePath() + " is not a directory.  Downloaded certificates will not be persisted.");
+			return null;
+		}
+		
+		if (!location.exists() && !location.mkdirs())
+		{
+			LOGGER.warn("AIA cache location " + location.getAbsolutePath() + " could not be created.  Downloaded certificates will not be persisted.");
+			return null;
+		}
+		
+		return location;
+	}
+	
+	/**
+	 * Gets the caIssuers URLs of a certificate's authority information access extension.
+	 * @param certificate The certificate.
+	 * @return The caIssuers URLs.  Returns an empty collection if the certificate does not have an AIA extension with caIssuers entries.
+	 */
+	public static Collection<String> getCAIssuerURLs(X509Certificate certificate)
+	{
+		final Collection<String> retVal = new ArrayList<String>();
+		
+		final AuthorityInfoAccessExtentionField aiaField = new AuthorityInfoAccessExtentionField(false);
+		try
+		{
+			aiaField.injectReferenceValue(certificate);
+			
+			final Collection<String> urlPairs = aiaField.getPolicyValue().getPolicyValue();
+			if (urlPairs != null)
+			{
+				// the url pair is in the format of caIssuer:URL
+				for (String urlPair : urlPairs)
+					if (urlPair.startsWith(CA_ISSUER_CHECK_STRING))
+						retVal.add(urlPair.substring(CA_ISSUER_CHECK_STRING.length()));
+			}
+		}
+		catch (Exception e)
+		{
+			LOGGER.warn("Unable to read AIA extension from certificate " + certificate.getSubjectX500Principal(), e);
+		}
+		
+		return retVal;
+	}
+	
+	/**
+	 * Downloads the certificates referenced by an AIA URL.  The URL may reference a single certificate or a collection such as a P7b or P7c file.
+	 * @param url The AIA URL.
+	 * @return The downloaded certificates.
+	 * @throws NHINDException Thrown if the certificates cannot be downloaded.
+	 */
+	@SuppressWarnings("unchecked")
+	public static Collection<X509Certificate> downloadCertificates(String url) throws NHINDException
+	{
+		InputStream inputStream = null;
+		try
+		{
+			final URLConnection connection = new URL(url).openConnection();
+			
+			// the connection is not actually made until the input stream
+			// is open, so set the timeouts before getting the stream
+			connection.setConnectTimeout(DEFAULT_URL_CONNECTION_TIMEOUT);
+			connection.setReadTimeout(DEFAULT_URL_READ_TIMEOUT);
+			
+			inputStream = connection.getInputStream();
+			
+			return (Collection<X509Certificate>)CertificateFactory.getInstance("X.509").generateCertificates(inputStream);
+		}
+		catch (Exception e)
+		{
+			throw new NHINDException("Failed to download certificates from AIA extension (URL: " + url + ")", e);
+		}
+		finally
+		{
+			IOUtils.closeQuietly(inputStream);
+		}
+	}
+	
+	/**
+	 * Downloads the certificates referenced by an AIA URL on a cache miss when the caller does not provide a downloader.
+	 * @param url The AIA URL.
+	 * @return The downloaded certificates.
+	 * @throws Exception Thrown if the certificates cannot be downloaded.
+	 */
+	protected Collection<X509Certificate> download(String url) throws Exception
+	{
+		return downloadCertificates(url);
+	}
+	
+	/**
+	 * Gets the certificates referenced by an AIA URL downloading them with {@link #download(String)} if they are not cached.
+	 * @param url The AIA URL.
+	 * @return The certificates referenced by the URL.  Returns an empty collection if the certificates cannot be obtained.
+	 */
+	public Collection<X509Certificate> getCertificates(String url)
+	{
+		return getCertificates(url, urlDownloader);
+	}
+	
+	/**
+	 * Gets the certificates referenced by an AIA URL.  Certificates are served from memory, then from disk, and are only downloaded if 
+	 * neither tier holds them.  Concurrent requests for the same URL share a single download.
+	 * @param url The AIA URL.
+	 * @param downloader The downloader used if the certificates are not cached.
+	 * @return The certificates referenced by the URL.  Returns an empty collection if the certificates cannot be obtained.
+	 */
+	@SuppressWarnings("unchecked")
+	public Collection<X509Certificate> getCertificates(final String url, final CertificateDownloader downloader)
+	{
+		if (url == null || url.isEmpty())
+			return Collections.emptyList();
+		
+		final Collection<X509Certificate> cached = (Collection<X509Certificate>)cache.get(url);
+		if (cached != null)
+		{
+			hits.incrementAndGet();
+			return Collections.unmodifiableCollection(cached);
+		}
+		misses.incrementAndGet();
+		
+    	final FutureTask<Collection<X509Certificate>> loadTask = new FutureTask<Collection<X509Certificate>>(new Callable<Collection<X509Certificate>>()
+		{
+			public Collection<X509Certificate> call() throws Exception
+			{
+				return load(url, downloader);
+			}
+		});
+    	
+    	FutureTask<Collection<X509Certificate>> inflightTask = inflightDownloads.putIfAbsent(url, loadTask);
+    	if (inflightTask == null)
+    	{
+    		inflightTask = loadTask;
+    		try
+    		{
+    			loadTask.run();
+    		}
+    		finally
+    		{
+    			inflightDownloads.remove(url, loadTask);
+    		}
+    	}
+    	else
+    		coalesced.incrementAndGet();
+    	
+		try
+		{
+			return Collections.unmodifiableCollection(inflightTask.get());
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new NHINDException("Interrupted while waiting for AIA certificates from " + url, e);
+		}
+		catch (ExecutionException e)
+		{
+			if (e.getCause() instanceof RuntimeException)
+				throw (RuntimeException)e.getCause();
+			
+			throw new NHINDException("", e);
+		}
+	}
+	
+	/*
+	 * Loads certificates from disk or the network and caches them in memory
+	 */
+	private Collection<X509Certificate> load(String url, CertificateDownloader downloader)
+	{
+		final File cacheFile = getCacheFile(url);
+		
+		final Collection<X509Certificate> fromDisk = readCacheFile(cacheFile);
+		if (fromDisk != null && !isStale(cacheFile))
+		{
+			put(url, fromDisk);
+			return fromDisk;
+		}
+		
+		try
+		{
+			downloads.incrementAndGet();
+			final Collection<X509Certificate> downloaded = downloader.download(url);
+			if (downloaded != null && !downloaded.isEmpty())
+			{
+				final ArrayList<X509Certificate> retVal = new ArrayList<X509Certificate>(downloaded);
+				put(url, retVal);
+				writeCacheFile(cacheFile, retVal);
+				
+				return retVal;
+			}
+		}
+		catch (Exception e)
+		{
+			LOGGER.warn("Intermediate cert cannot be resolved from AIA extension (URL: " + url + ")", e);
+		}
+		
+		// fall back to what we have on disk even if it's stale
+		if (fromDisk != null)
+		{
+			LOGGER.info("Using persisted AIA certificates for URL " + url);
+			put(url, fromDisk);
+			return fromDisk;
+		}
+		
+		putNegative(url);
+		return new ArrayList<X509Certificate>();
+	}
+	
+	/*
+	 * Caches certificates for the default TTL.  Expired certificates are cached as well; they are what the URL serves and
+	 * are rejected by chain validation.
+	 */
+	private void put(String url, Collection<X509Certificate> certs)
+	{
+		try
+		{
+			cache.put(url, new ArrayList<X509Certificate>(certs));
+		}
+		catch (CacheException e)
+		{
+			LOGGER.warn("Failed to cache AIA certificates.", e);
+		}
+	}
+	
+	/*
+	 * Remembers a failed download for the negative TTL
+	 */
+	private void putNegative(String url)
+	{
+		if (negativeTTL <= 0)
+			return;
+		
+		try
+		{
+			final IElementAttributes eattributes = cache.getDefaultElementAttributes().copy();
+			eattributes.setMaxLifeSeconds(negativeTTL);
+			cache.put(url, new ArrayList<X509Certificate>(), eattributes);
+		}
+		catch (CacheException e)
+		{
+			LOGGER.warn("Failed to cache AIA download failure.", e);
+		}
+	}
+	
+	/**
+	 * Gets the disk cache file of an AIA URL.
+	 * @param url The AIA URL.
+	 * @return The disk cache file or null if certificates are not persisted.
+	 */
+	protected File getCacheFile(String url)
+	{
+		if (cacheLocation == null)
+			return null;
+		
+		try
+		{
+			final MessageDigest md = MessageDigest.getInstance("SHA-1");
+			return new File(cacheLocation, new String(Hex.encodeHex(md.digest(url.getBytes("UTF-8")))) + CACHE_FILE_EXTENSION);
+		}
+		///CLOVER:OFF
+		catch (Exception e)
+		{
+			LOGGER.warn("Failed to create AIA cache file name for URL " + url, e);
+			return null;
+		}
+		///CLOVER:ON
+	}
+	
+	/*
+	 * Indicates if persisted certificates are older than the TTL
+	 */
+	private boolean isStale(File cacheFile)
+	{
+		return System.currentTimeMillis() - cacheFile.lastModified() > ttl * 1000L;
+	}
+	
+	/*
+	 * Reads persisted certificates.  Returns null if the file does not exist or cannot be read.
+	 */
+	@SuppressWarnings("unchecked")
+	private Collection<X509Certificate> readCacheFile(File cacheFile)
+	{
+		if (cacheFile == null || !cacheFile.exists())
+			return null;
+		
+		InputStream inStream = null;
+		try
+		{
+			inStream = FileUtils.openInputStream(cacheFile);
+			final Collection<X509Certificate> retVal = 
+					new ArrayList<X509Certificate>((Collection<X509Certificate>)CertificateFactory.getInstance("X.509").generateCertificates(inStream));
+			
+			return retVal.isEmpty() ? null : retVal;
+		}
+		catch (Exception e)
+		{
+			LOGGER.warn("Failed to read AIA cache file " + cacheFile.getAbsolutePath(), e);
+			return null;
+		}
+		finally
+		{
+			IOUtils.closeQuietly(inStream);
+		}
+	}
+	
+	/*
+	 * Persists certificates as a PKCS7 collection.  The file is written to a temp file first so readers never see a partial file.
+	 */
+	private void writeCacheFile(File cacheFile, Collection<X509Certificate> certs)
+	{
+		if (cacheFile == null)
+			return;
+		
+		final File tempFile = new File(cacheFile.getAbsolutePath() + ".tmp");
+		try
+		{
+			final byte[] encoded = CertificateFactory.getInstance("X.509").generateCertPath(new ArrayList<Certificate>(certs)).getEncoded("PKCS7");
+			FileUtils.writeByteArrayToFile(tempFile, encoded);
+			
+			if (cacheFile.exists())
+				cacheFile.delete();
+			
+			if (!tempFile.renameTo(cacheFile))
+				LOGGER.warn("Failed to write AIA cache file " + cacheFile.getAbsolutePath());
+		}
+		catch (Exception e)
+		{
+			LOGGER.warn("Failed to write AIA cache file " + cacheFile.getAbsolutePath(), e);
+		}
+		finally
+		{
+			if (tempFile.exists())
+				tempFile.delete();
+		}
+	}
+	
+	/**
+	 * Loads the certificates referenced by the caIssuers URLs of a collection of certificates in the background.  Downloaded certificates
+	 * are followed up their own caIssuers URLs.
+	 * @param certificates The certificates whose AIA intermediates are loaded, generally resolved end entity certificates.  Self signed
+	 * certificates such as trust anchors have no issuers to load and are skipped.
+	 * @return A future that completes with the number of URLs that returned certificates.
+	 */
+	public Future<Integer> prefetch(final Collection<X509Certificate> certificates)
+	{
+		final Collection<X509Certificate> toPrefetch = (certificates == null) ? new ArrayList<X509Certificate>() : 
+			new ArrayList<X509Certificate>(certificates);
+		
+		return prefetchExecutor.submit(new Callable<Integer>()
+		{
+			public Integer call()
+			{
+				return prefetchCertificates(toPrefetch, new HashSet<String>(), 0);
+			}
+		});
+	}
+	
+	/*
+	 * Walks the caIssuers URLs of certificates loading each URL once
+	 */
+	private int prefetchCertificates(Collection<X509Certificate> certificates, Set<String> visited, int depth)
+	{
+		if (depth >= MAX_PREFETCH_DEPTH)
+			return 0;
+		
+		int retVal = 0;
+		for (X509Certificate certificate : certificates)
+		{
+			// self signed certs don't have issuers to fetch
+			if (certificate.getIssuerX500Principal().equals(certificate.getSubjectX500Principal()))
+				continue;
+			
+			for (String url : getCAIssuerURLs(certificate))
+			{
+				if (!visited.add(url))
+					continue;
+				
+				try
+				{
+					final Collection<X509Certificate> certs = getCertificates(url);
+					if (!certs.isEmpty())
+					{
+						++retVal;
+						retVal += prefetchCertificates(certs, visited, depth + 1);
+					}
+				}
+				catch (Exception e)
+				{
+					LOGGER.warn("Failed to prefetch AIA certificates from URL " + url, e);
+				}
+			}
+		}
+		
+		return retVal;
+	}
+	
+	/**
+	 * Removes all certificates from memory.  Persisted certificates are not removed.
+	 */
+	public void flush()
+	{
+		try
+		{
+			cache.clear();
+		}
+		///CLOVER:OFF
+		catch (CacheException e)
+		{
+			LOGGER.warn("Failed to flush AIA certificate cache.", e);
+		}
+		///CLOVER:ON
+	}
+	
+	/**
+	 * Stops background prefetching.
+	 */
+	public void shutdown()
+	{
+		prefetchExecutor.shutdownNow();
+	}
+	
+	/**
+	 * Gets the number of requests served from memory.
+	 * @return The number of requests served from memory.
+	 */
+	public long getHitCount()
+	{
+		return hits.get();
+	}
+	
+	/**
+	 * Gets the number of requests not found in memory.
+	 * @return The number of requests not found in memory.
+	 */
+	public long getMissCount()
+	{
+		return misses.get();
+	}
+	
+	/**
+	 * Gets the number of download attempts.
+	 * @return The number of download attempts.
+	 */
+	public long getDownloadCount()
+	{
+		return downloads.get();
+	}
+	
+	/**
+	 * Gets the number of requests that waited on a download already in progress.
+	 * @return The number of requests that waited on a download already in progress.
+	 */
+	public long getCoalescedCount()
+	{
+		return coalesced.get();
+	}
+	
+	/*
+	 * Creates daemon threads so prefetching never holds up shutdown
+	 */
+	private static class PrefetchThreadFactory implements ThreadFactory
+	{
+		private final AtomicInteger threadCount = new AtomicInteger();
+
+		public Thread newThread(Runnable r)
+		{
+			final Thread thread = new Thread(r, "AIAPrefetch-" + threadCount.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		}
+	}
+	
+	/**
+	 * Default cache policy for the AIA certificate cache.  Settings are read from the options manager.
+	 * @author agent
+	 * @since 2.3
+	 */
+	public static class DefaultAIACachePolicy implements CertStoreCachePolicy
+	{
+		protected final int maxItems;
+		protected final int subjectTTL;
+		
+		public DefaultAIACachePolicy()
+		{
+			OptionsParameter param = OptionsManager.getInstance().getParameter(OptionsParameter.AIA_CACHE_MAX_SIZE);
+			maxItems =  OptionsParameter.getParamValueAsInteger(param, DEFAULT_MAX_CAHCE_ITEMS); 
+			
+			param = OptionsManager.getInstance().getParameter(OptionsParameter.AIA_CACHE_TTL);
+			subjectTTL =  OptionsParameter.getParamValueAsInteger(param, DEFAULT_TTL); 
+		}
+		
+		public int getMaxItems() 
+		{
+			return maxItems;
+		}
+
+		public int getSubjectTTL() 
+		{
+			return subjectTTL;
+		}
+	}
+}
@@ -0,0 +1,166 @@
+/* 
+Copyright (c) 2010, NHIN Direct Project
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+
+Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer 
+in the documentation and/or other materials provided with the distribution.  Neither the name of the The NHIN Direct Project (nhindirect.org). 
+nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, 
+THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS 
+BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE 
+GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, 
+STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF 
+THE POSSIBILITY OF SUCH DAMAGE.
+*/
+package org.nhindirect.stagent.cert;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Lookup cache counters of a {@link CacheableCertStore} class.  One instance exists per certificate store class and is registered
+ * as an MBean when it is created, so the counters survive stores being rebuilt when the agent configuration is refreshed.
+ * @author agent
+ * @since 2.3
+ */
+public class CertStoreCacheStatistics implements CertStoreCacheStatisticsMBean
+{
+	private static final Log LOGGER = LogFactory.getFactory().getInstance(CertStoreCacheStatistics.class);
+	
+	private static final ConcurrentMap<Class<?>, CertStoreCacheStatistics> INSTANCES = new ConcurrentHashMap<Class<?>, CertStoreCacheStatistics>();
+	
+	protected final AtomicLong cacheHits = new AtomicLong();
+	protected final AtomicLong negativeCacheHits = new AtomicLong();
+	protected final AtomicLong cacheMisses = new AtomicLong();
+	protected final AtomicLong coalescedLookups = new AtomicLong();
+	
+	/**
+	 * Gets the shared statistics of a certificate store class.  The statistics are registered as an MBean when they are created.
+	 * @param storeClass The certificate store class.
+	 * @return The shared statistics of the certificate store class.
+	 */
+	public static CertStoreCacheStatistics getInstance(Class<?> storeClass)
+	{
+		CertStoreCacheStatistics retVal = INSTANCES.get(storeClass);
+		if (retVal == null)
+		{
+			final CertStoreCacheStatistics stats = new CertStoreCacheStatistics();
+			retVal = INSTANCES.putIfAbsent(storeClass, stats);
+			if (retVal == null)
+			{
+				retVal = stats;
+				retVal.registerMBean(storeClass);
+			}
+		}
+		
+		return retVal;
+	}
+	
+	/**
+	 * Constructor
+	 */
+	protected CertStoreCacheStatistics()
+	{
+		
+	}
+	
+	/**
+	 * Records a request that was answered from the cache.
+	 * @param negative Indicates if the cached answer was a negative result.
+	 */
+	public void recordHit(boolean negative)
+	{
+		cacheHits.incrementAndGet();
+		if (negative)
+			negativeCacheHits.incrementAndGet();
+	}
+	
+	/**
+	 * Records a request that was not found in the cache.
+	 */
+	public void recordMiss()
+	{
+		cacheMisses.incrementAndGet();
+	}
+	
+	/**
+	 * Records a cache miss that joined another thread's in flight lookup.
+	 */
+	public void recordCoalescedLookup()
+	{
+		coalescedLookups.incrementAndGet();
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public Long getCacheHitCount()
+	{
+		return cacheHits.get();
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public Long getNegativeCacheHitCount()
+	{
+		return negativeCacheHits.get();
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public Long getCacheMissCount()
+	{
+		return cacheMisses.get();
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public Long getCoalescedLookupCount()
+	{
+		return coalescedLookups.get();
+	}
+	
+	/*
+	 * Register the MBean
+	 */
+	private void registerMBean(Class<?> storeClass)
+	{
+		LOGGER.info("Registering CertStoreCacheStatistics MBean for " + storeClass.getSimpleName());
+		
+		final StringBuilder objectNameBuilder = new StringBuilder(getClass().getPackage().getName());
+		objectNameBuilder.append(":type=").append(getClass().getSimpleName());
+		objectNameBuilder.append(",name=").append(storeClass.getSimpleName());
+				
+		try
+		{			
+			final StandardMBean mbean = new StandardMBean(this, CertStoreCacheStatisticsMBean.class);
+		
+			final MBeanServer mbeanServer = ManagementFactory.getPlatformMBeanServer();
+			mbeanServer.registerMBean(mbean, new ObjectName(objectNameBuilder.toString()));
+		}
+		catch (JMException e)
+		{
+			LOGGER.error("Unable to register the CertStoreCacheStatistics MBean", e);
+		}		
+	}
+}
@@ -0,0 +1,51 @@
+/* 
+Copyright (c) 2010, NHIN Direct Project
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+
+Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer 
+in the documentation and/or other materials provided with the distribution.  Neither the name of the The NHIN Direct Project (nhindirect.org). 
+nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, 
+THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS 
+BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE 
+GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, 
+STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF 
+THE POSSIBILITY OF SUCH DAMAGE.
+*/
+package org.nhindirect.stagent.cert;
+
+/**
+ * MBean interface for monitoring the lookup caches of {@link CacheableCertStore} implementations.  Counters are aggregated 
+ * across all instances of a certificate store class.
+ * @author agent
+ * @since 2.3
+ */
+public interface CertStoreCacheStatisticsMBean 
+{
+	/**
+	 * Gets the number of certificate requests that were answered from the cache, including negative cache hits.
+	 * @return The number of cache hits.
+	 */
+	public Long getCacheHitCount();
+	
+	/**
+	 * Gets the number of certificate requests that were answered from a cached negative result.
+	 * @return The number of negative cache hits.
+	 */
+	public Long getNegativeCacheHitCount();
+	
+	/**
+	 * Gets the number of certificate requests that were not found in the cache.
+	 * @return The number of cache misses.
+	 */
+	public Long getCacheMissCount();
+	
+	/**
+	 * Gets the number of cache misses that were satisfied by joining another thread's in flight lookup for the same name.
+	 * @return The number of coalesced lookups.
+	 */
+	public Long getCoalescedLookupCount();
+}
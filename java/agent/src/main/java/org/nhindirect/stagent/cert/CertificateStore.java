@@ -36,7 +36,7 @@ import org.apache.commons.logging.LogFactory;
 import org.nhindirect.stagent.AgentError;
 import org.nhindirect.stagent.CryptoExtensions;
 import org.nhindirect.stagent.NHINDException;
-import org.nhindirect.stagent.cert.impl.CRLRevocationManager;
+import org.nhindirect.stagent.cert.RevocationManagerFactory;
 
 /**
  * Abstract base class for a certificate store implementation.  It does not implement any specific certificate storage functions
@@ -253,7 +253,7 @@ public abstract class CertificateStore implements X509Store, CertificateResolver
         		cert.checkValidity(new GregorianCalendar().getTime());
         		
         		// Search CRLs to determine if this certificate has been revoked
-        		final RevocationManager revocationManager = CRLRevocationManager.getInstance();
+        		final RevocationManager revocationManager = RevocationManagerFactory.getInstance();
         		if (!revocationManager.isRevoked(cert))
                     filteredCerts.add(cert);
         	} 
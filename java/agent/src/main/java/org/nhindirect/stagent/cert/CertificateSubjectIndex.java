@@ -0,0 +1,163 @@
+/*
+Copyright (c) 2010, NHIN Direct Project
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+
+Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer
+in the documentation and/or other materials provided with the distribution.  Neither the name of the The NHIN Direct Project (nhindirect.org).
+nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS
+BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF
+THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package org.nhindirect.stagent.cert;
+
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.nhindirect.stagent.CryptoExtensions;
+
+/**
+ * Index of certificates by subject address for in memory certificate stores.  Each certificate is indexed once by the case normalized address
+ * returned by {@link CryptoExtensions#getSubjectAddress(X509Certificate)}: the email address or domain name in the subject alternative names, or the 
+ * email address or common name of the subject DN.  Lookups return the same certificates as matching each certificate in a store with 
+ * {@link CryptoExtensions#certSubjectContainsName(X509Certificate, String)}, but do not parse any certificates.
+ * <p>
+ * Lookups do not take a lock and may run concurrently with modifications.
+ * @author agent
+ * @since 2.3
+ */
+public class CertificateSubjectIndex 
+{
+	private static final String EMAIL_ADDRESS_PREFIX = "emailaddress=";
+	
+	private static final X509Certificate[] EMPTY = new X509Certificate[0];
+	
+	protected final Map<String, X509Certificate[]> index = new ConcurrentHashMap<String, X509Certificate[]>();
+	
+	/**
+	 * Gets the index key of a certificate.
+	 * @param cert The certificate.
+	 * @return The case normalized subject address of the certificate.  Returns an empty string if the certificate does not have a subject address.
+	 */
+	public static String getSubjectKey(X509Certificate cert)
+	{
+		final String address = CryptoExtensions.getSubjectAddress(cert);
+		
+		return (address == null) ? "" : address.toLowerCase(Locale.getDefault());
+	}
+	
+	/**
+	 * Gets the index key of a subject name.
+	 * @param subjectName The subject name.  The name may be prefixed with "EMAILADDRESS=".
+	 * @return The case normalized subject name with the "EMAILADDRESS=" prefix removed.
+	 */
+	public static String getLookupKey(String subjectName)
+	{
+        if (subjectName == null || subjectName.length() == 0)
+            throw new IllegalArgumentException("Name cannot be null or empty.");
+        
+		final String retVal = subjectName.toLowerCase(Locale.getDefault());
+		
+		return retVal.startsWith(EMAIL_ADDRESS_PREFIX) ? retVal.substring(EMAIL_ADDRESS_PREFIX.length()) : retVal;
+	}
+	
+	/**
+	 * Adds a certificate to the index.  Adding a certificate that is already in the index has no effect.
+	 * @param cert The certificate to add.
+	 */
+	public synchronized void add(X509Certificate cert)
+	{
+		final String key = getSubjectKey(cert);
+		if (key.isEmpty())
+			return; // can never be matched
+		
+		final X509Certificate[] existing = index.get(key);
+		if (existing == null)
+		{
+			index.put(key, new X509Certificate[] {cert});
+			return;
+		}
+		
+		for (X509Certificate indexed : existing)
+			if (indexed.equals(cert))
+				return;
+		
+		final X509Certificate[] updated = Arrays.copyOf(existing, existing.length + 1);
+		updated[existing.length] = cert;
+		index.put(key, updated);
+	}
+	
+	/**
+	 * Adds a collection of certificates to the index.
+	 * @param certs The certificates to add.
+	 */
+	public synchronized void add(Collection<X509Certificate> certs)
+	{
+		for (X509Certificate cert : certs)
+			add(cert);
+	}
+	
+	/**
+	 * Removes a certificate from the index.
+	 * @param cert The certificate to remove.
+	 */
+	public synchronized void remove(X509Certificate cert)
+	{
+		final String key = getSubjectKey(cert);
+		
+		final X509Certificate[] existing = index.get(key);
+		if (existing == null)
+			return;
+		
+		final Collection<X509Certificate> remaining = new ArrayList<X509Certificate>(existing.length);
+		for (X509Certificate indexed : existing)
+			if (!indexed.equals(cert))
+				remaining.add(indexed);
+		
+		if (remaining.isEmpty())
+			index.remove(key);
+		else if (remaining.size() < existing.length)
+			index.put(key, remaining.toArray(EMPTY));
+	}
+	
+	/**
+	 * Removes all certificates from the index.
+	 */
+	public synchronized void clear()
+	{
+		index.clear();
+	}
+	
+	/**
+	 * Gets the certificates whose subject address matches a subject name.
+	 * @param subjectName The subject name.  The name may be prefixed with "EMAILADDRESS=" and is matched without regard to case.
+	 * @return The matching certificates.  Returns an empty collection if no certificates match.
+	 */
+	public Collection<X509Certificate> getCertificates(String subjectName)
+	{
+		final X509Certificate[] certs = index.get(getLookupKey(subjectName));
+		
+		return (certs == null) ? new ArrayList<X509Certificate>() : new ArrayList<X509Certificate>(Arrays.asList(certs));
+	}
+	
+	/**
+	 * Gets the number of distinct subject addresses in the index.
+	 * @return The number of distinct subject addresses in the index.
+	 */
+	public int size()
+	{
+		return index.size();
+	}
+}
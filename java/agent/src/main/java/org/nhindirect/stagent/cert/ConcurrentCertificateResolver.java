@@ -0,0 +1,405 @@
+/*
+Copyright (c) 2010, NHIN Direct Project
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+
+Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer
+in the documentation and/or other materials provided with the distribution.  Neither the name of the The NHIN Direct Project (nhindirect.org).
+nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS
+BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF
+THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package org.nhindirect.stagent.cert;
+
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.mail.internet.InternetAddress;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.nhindirect.stagent.AgentError;
+import org.nhindirect.stagent.AgentException;
+import org.nhindirect.stagent.NHINDException;
+
+/**
+ * Resolves certificates for a set of addresses concurrently using a bounded pool of threads.  Lookups for all addresses are fanned out
+ * across the pool and the calling thread waits up to a configurable deadline for all of them to complete.  Addresses that are not resolved
+ * before the deadline are returned without certificates.
+ * <p>
+ * By default each address is resolved by trying each resolver in order; the first resolver that returns certificates wins and a resolver that
+ * reports {@link AgentError#AllCertsInResolverInvalid} stops the search.  When resolvers are raced, all resolvers are queried at the same time
+ * for each address and the first one to answer wins.  An answer is either a set of certificates or a report that all of the resolver's certificates
+ * are invalid.
+ * @author agent
+ * @since 2.3
+ */
+public class ConcurrentCertificateResolver
+{
+	private static final Log LOGGER = LogFactory.getFactory().getInstance(ConcurrentCertificateResolver.class);
+
+	protected static final int QUEUE_SIZE_PER_THREAD = 100;
+
+	protected final ThreadPoolExecutor executor;
+	protected final long deadline;
+	protected final boolean raceResolvers;
+
+	/**
+	 * Constructor
+	 * @param maxThreads The maximum number of threads used to perform lookups.
+	 * @param deadline The maximum amount of time in milliseconds to wait for all addresses to be resolved.
+	 * @param raceResolvers Indicates if all resolvers should be queried concurrently for each address instead of one after another.
+	 */
+	public ConcurrentCertificateResolver(int maxThreads, long deadline, boolean raceResolvers)
+	{
+		if (maxThreads < 1)
+			throw new IllegalArgumentException("maxThreads must be greater than 0");
+
+		if (deadline < 1)
+			throw new IllegalArgumentException("deadline must be greater than 0");
+
+		this.deadline = deadline;
+		this.raceResolvers = raceResolvers;
+
+		// when the queue is full, lookups are run on the calling thread
+		executor = new ThreadPoolExecutor(maxThreads, maxThreads, 60, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<Runnable>(maxThreads * QUEUE_SIZE_PER_THREAD), new ResolverThreadFactory(),
+				new ThreadPoolExecutor.CallerRunsPolicy());
+		executor.allowCoreThreadTimeOut(true);
+	}
+
+	/**
+	 * Indicates if resolvers are queried concurrently for each address.
+	 * @return True if resolvers are raced.  False otherwise.
+	 */
+	public boolean isRaceResolvers()
+	{
+		return raceResolvers;
+	}
+
+	/**
+	 * Gets the maximum amount of time in milliseconds to wait for all addresses to be resolved.
+	 * @return The maximum amount of time in milliseconds to wait for all addresses to be resolved.
+	 */
+	public long getDeadline()
+	{
+		return deadline;
+	}
+
+	/**
+	 * Resolves certificates for each address.
+	 * @param resolvers The resolvers used to find certificates in order of precedence.
+	 * @param addresses The addresses to resolve.
+	 * @return A list containing the certificates for each address in the same order as the addresses.  An entry is null if no certificates
+	 * could be found for the address or its lookup did not complete before the deadline.
+	 * @throws NHINDException Thrown if a resolver raised an error other than {@link AgentError#AllCertsInResolverInvalid} and no other
+	 * resolver found certificates for the address.  {@link AgentException AgentExceptions} are logged and the address is returned without
+	 * certificates.
+	 */
+	public List<Collection<X509Certificate>> resolve(final Collection<CertificateResolver> resolvers, List<? extends InternetAddress> addresses) throws NHINDException
+	{
+		final long deadlineNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(deadline);
+
+		final CompletionService<ResolutionOutcome> completionService = new ExecutorCompletionService<ResolutionOutcome>(executor);
+		final AddressResolution[] resolutions = new AddressResolution[addresses.size()];
+
+		for (int i = 0; i < resolutions.length; ++i)
+		{
+			final InternetAddress address = addresses.get(i);
+			resolutions[i] = new AddressResolution(address);
+
+			if (raceResolvers)
+			{
+				int resolverIndex = 0;
+				for (CertificateResolver resolver : resolvers)
+					resolutions[i].futures.add(completionService.submit(new SingleResolverTask(i, resolverIndex++, resolver, address)));
+			}
+			else
+				resolutions[i].futures.add(completionService.submit(new OrderedResolverTask(i, resolvers, address)));
+
+			resolutions[i].pending = resolutions[i].futures.size();
+			if (resolutions[i].pending == 0)
+				resolutions[i].done = true;
+		}
+
+		int remaining = 0;
+		for (AddressResolution resolution : resolutions)
+			if (!resolution.done)
+				++remaining;
+
+		try
+		{
+			while (remaining > 0)
+			{
+				final long waitTime = deadlineNanos - System.nanoTime();
+				if (waitTime <= 0)
+					break;
+
+				final Future<ResolutionOutcome> completed = completionService.poll(waitTime, TimeUnit.NANOSECONDS);
+				if (completed == null)
+					break;
+
+				// resolvers that lost a race are cancelled, but the completion service still hands them back
+				if (completed.isCancelled())
+					continue;
+
+				final ResolutionOutcome outcome;
+				try
+				{
+					outcome = completed.get();
+				}
+				catch (CancellationException e)
+				{
+					continue;
+				}
+				catch (ExecutionException e)
+				{
+					// tasks trap their own exceptions, so this should never happen
+					LOGGER.warn("Unexpected error resolving certificates.", e);
+					continue;
+				}
+
+				final AddressResolution resolution = resolutions[outcome.addressIndex];
+				if (resolution.done)
+					continue; // a faster resolver already answered for this address
+
+				--resolution.pending;
+
+				if (outcome.certs != null || outcome.allCertsInvalid)
+				{
+					// first answer wins
+					resolution.certs = outcome.certs;
+					resolution.done = true;
+
+					// let the slower resolvers finish in the background so their caches are populated
+					for (Future<ResolutionOutcome> future : resolution.futures)
+						future.cancel(false);
+				}
+				else
+				{
+					if (outcome.error != null && resolution.error == null)
+						resolution.error = outcome.error;
+
+					if (resolution.pending == 0)
+						resolution.done = true;
+				}
+
+				if (resolution.done)
+					--remaining;
+			}
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			LOGGER.warn("Interrupted while waiting for certificate resolution.");
+		}
+
+		final List<Collection<X509Certificate>> retVal = new ArrayList<Collection<X509Certificate>>(resolutions.length);
+		for (AddressResolution resolution : resolutions)
+		{
+			if (!resolution.done)
+			{
+				LOGGER.warn("Certificate resolution for address " + resolution.address.getAddress() + " did not complete within " + deadline + "ms");
+				for (Future<ResolutionOutcome> future : resolution.futures)
+					future.cancel(true);
+			}
+			else if (resolution.certs == null && resolution.error != null)
+			{
+				// same as resolving one address at a time: agent errors are logged and other resolver errors are raised
+				if (resolution.error instanceof NHINDException && !(resolution.error instanceof AgentException))
+					throw (NHINDException)resolution.error;
+
+				LOGGER.warn("Exception thrown resolving public certs for address " + resolution.address.getAddress(), resolution.error);
+			}
+
+			retVal.add(resolution.certs);
+		}
+
+		return retVal;
+	}
+
+	/**
+	 * Resolves certificates for an address by trying each resolver in order until one returns certificates.  If a resolver reports that
+	 * all of its certificates are invalid, the search stops and no certificates are returned.
+	 * @param resolvers The resolvers used to find certificates in order of precedence.
+	 * @param address The address to resolve.
+	 * @return The certificates for the address or null if no resolver found certificates.
+	 * @throws NHINDException Thrown if a resolver raised an error other than {@link AgentError#AllCertsInResolverInvalid}.
+	 */
+	public static Collection<X509Certificate> resolveInOrder(Collection<CertificateResolver> resolvers, InternetAddress address) throws NHINDException
+	{
+		Collection<X509Certificate> certs = null;
+
+        // try each resolver until it's found
+    	for (CertificateResolver publicResolver : resolvers)
+    	{
+    		try
+    		{
+    			certs = publicResolver.getCertificates(address);
+    		}
+    		catch (NHINDException e)
+    		{
+    			// if we found some certs, but they are invalid, we are not
+    			// suppose to move on
+    			if (e.getError().equals(AgentError.AllCertsInResolverInvalid))
+    				break;
+    			else
+    				throw e;
+    		}
+    		if (certs != null)
+    			break;
+    	}
+
+    	return certs;
+	}
+
+	/**
+	 * Stops the threads used to perform lookups.  Lookups that are in progress are allowed to complete.
+	 */
+	public void shutdown()
+	{
+		executor.shutdown();
+	}
+
+	/*
+	 * Tracks the state of the resolution of a single address
+	 */
+	private static class AddressResolution
+	{
+		final InternetAddress address;
+		final List<Future<ResolutionOutcome>> futures = new ArrayList<Future<ResolutionOutcome>>();
+		int pending;
+		boolean done;
+		Collection<X509Certificate> certs;
+		Exception error;
+
+		AddressResolution(InternetAddress address)
+		{
+			this.address = address;
+		}
+	}
+
+	/*
+	 * The result of a single lookup task
+	 */
+	private static class ResolutionOutcome
+	{
+		final int addressIndex;
+		final Collection<X509Certificate> certs;
+		final boolean allCertsInvalid;
+		final Exception error;
+
+		ResolutionOutcome(int addressIndex, Collection<X509Certificate> certs, boolean allCertsInvalid, Exception error)
+		{
+			this.addressIndex = addressIndex;
+			this.certs = certs;
+			this.allCertsInvalid = allCertsInvalid;
+			this.error = error;
+		}
+	}
+
+	/*
+	 * Resolves an address by trying each resolver in order
+	 */
+	private static class OrderedResolverTask implements Callable<ResolutionOutcome>
+	{
+		final int addressIndex;
+		final Collection<CertificateResolver> resolvers;
+		final InternetAddress address;
+
+		OrderedResolverTask(int addressIndex, Collection<CertificateResolver> resolvers, InternetAddress address)
+		{
+			this.addressIndex = addressIndex;
+			this.resolvers = resolvers;
+			this.address = address;
+		}
+
+		public ResolutionOutcome call()
+		{
+			try
+			{
+				return new ResolutionOutcome(addressIndex, resolveInOrder(resolvers, address), false, null);
+			}
+			catch (Exception e)
+			{
+				return new ResolutionOutcome(addressIndex, null, false, e);
+			}
+		}
+	}
+
+	/*
+	 * Resolves an address using a single resolver
+	 */
+	private static class SingleResolverTask implements Callable<ResolutionOutcome>
+	{
+		final int addressIndex;
+		final int resolverIndex;
+		final CertificateResolver resolver;
+		final InternetAddress address;
+
+		SingleResolverTask(int addressIndex, int resolverIndex, CertificateResolver resolver, InternetAddress address)
+		{
+			this.addressIndex = addressIndex;
+			this.resolverIndex = resolverIndex;
+			this.resolver = resolver;
+			this.address = address;
+		}
+
+		public ResolutionOutcome call()
+		{
+			try
+			{
+				return new ResolutionOutcome(addressIndex, resolver.getCertificates(address), false, null);
+			}
+			catch (NHINDException e)
+			{
+				if (e.getError().equals(AgentError.AllCertsInResolverInvalid))
+				{
+					LOGGER.debug("All certificates for address " + address.getAddress() + " are invalid in resolver " + resolverIndex);
+					return new ResolutionOutcome(addressIndex, null, true, null);
+				}
+
+				return new ResolutionOutcome(addressIndex, null, false, e);
+			}
+			catch (Exception e)
+			{
+				return new ResolutionOutcome(addressIndex, null, false, e);
+			}
+		}
+	}
+
+	/*
+	 * Creates daemon threads so lookups never hold up JVM shutdown
+	 */
+	private static class ResolverThreadFactory implements ThreadFactory
+	{
+		private final AtomicInteger threadCount = new AtomicInteger();
+
+		public Thread newThread(Runnable r)
+		{
+			final Thread thread = new Thread(r, "CertResolver-" + threadCount.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		}
+	}
+}
@@ -0,0 +1,65 @@
+/*
+Copyright (c) 2010, NHIN Direct Project
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+
+Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer
+in the documentation and/or other materials provided with the distribution.  Neither the name of the The NHIN Direct Project (nhindirect.org).
+nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS
+BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF
+THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package org.nhindirect.stagent.cert;
+
+import org.nhindirect.stagent.cert.impl.CRLRevocationManager;
+import org.nhindirect.stagent.cert.impl.OCSPRevocationManager;
+import org.nhindirect.stagent.cert.impl.RefreshingCRLRevocationManager;
+import org.nhindirect.stagent.options.OptionsManager;
+import org.nhindirect.stagent.options.OptionsParameter;
+
+/**
+ * Factory for the revocation manager used by the agent to check the revocation status of certificates.  If the {@link OptionsParameter#OCSP_ENABLED}
+ * option is set, the {@link OCSPRevocationManager} is returned; it falls back to CRLs for certificates that cannot be checked with OCSP.  Otherwise
+ * the CRL revocation manager is returned.
+ * <p>
+ * CRLs are checked with the {@link CRLRevocationManager} unless the {@link OptionsParameter#CRL_REFRESH_ENABLED} option is set, in which case
+ * the {@link RefreshingCRLRevocationManager} is used.
+ * @author agent
+ * @since 2.3
+ */
+public class RevocationManagerFactory 
+{
+	/**
+	 * Gets the configured revocation manager.
+	 * @return The configured revocation manager.
+	 */
+	public static RevocationManager getInstance()
+	{
+		final OptionsParameter param = OptionsManager.getInstance().getParameter(OptionsParameter.OCSP_ENABLED);
+		if (OptionsParameter.getParamValueAsBoolean(param, false))
+			return OCSPRevocationManager.getInstance();
+		
+		return getCRLInstance();
+	}
+	
+	/**
+	 * Gets the configured CRL revocation manager.
+	 * @return The {@link RefreshingCRLRevocationManager} if the {@link OptionsParameter#CRL_REFRESH_ENABLED} option is set.  Otherwise
+	 * the {@link CRLRevocationManager}.
+	 */
+	public static RevocationManager getCRLInstance()
+	{
+		final OptionsParameter param = OptionsManager.getInstance().getParameter(OptionsParameter.CRL_REFRESH_ENABLED);
+		if (OptionsParameter.getParamValueAsBoolean(param, false))
+			return RefreshingCRLRevocationManager.getInstance();
+		
+		return CRLRevocationManager.getInstance();
+	}
+}
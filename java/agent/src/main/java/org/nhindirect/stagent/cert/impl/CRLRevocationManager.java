@@ -411,6 +411,18 @@ public class CRLRevocationManager implements RevocationManager
      * @return a URI.
      */
     protected String getNameString(String generalNameString) 
+    {
+    	return parseNameString(generalNameString);
+    }
+    
+    /**
+     * Parses the URI from a standardized generalNameString.
+     * 
+     * @param generalNameString
+     *            the general name string.
+     * @return a URI.
+     */
+    protected static String parseNameString(String generalNameString) 
     {
     	generalNameString = generalNameString.trim();
     	
@@ -471,6 +483,9 @@ public class CRLRevocationManager implements RevocationManager
 				//outStream = FileUtils.openOutputStream(cacheFile);
 				//outStream.write(crl.getEncoded());
 				FileUtils.writeByteArrayToFile(cacheFile, crl.getEncoded());
+				
+				// write the revoked serial index next to the CRL so it can be mapped without parsing the CRL
+				writeCRLIndexFile(cacheFile, crl);
 			}
 			catch (Throwable t)
 			{
@@ -484,6 +499,25 @@ public class CRLRevocationManager implements RevocationManager
 
     }
     
+    /**
+     * Writes the revoked serial index of a CRL next to its cache file.  Failure to write the index is logged, but does not prevent
+     * the CRL from being cached.
+     * @param cacheFile The CRL cache file.
+     * @param crl The CRL to index.
+     */
+    protected static void writeCRLIndexFile(File cacheFile, X509CRL crl)
+    {
+    	final File indexFile = MappedCRLSerialIndex.getIndexFile(cacheFile);
+    	try
+    	{
+    		MappedCRLSerialIndex.write(indexFile, CRLSerialIndex.create(crl));
+    	}
+    	catch (Throwable t)
+    	{
+    		LOGGER.warn("Failed to write CRL index file " + indexFile.getAbsolutePath(), t);
+    	}
+    }
+    
     /**
      * Deletes a CRL cache file based on the distribution point URI
      * @param cacheURI The CRL distribution URL
@@ -503,6 +537,11 @@ public class CRLRevocationManager implements RevocationManager
     			if (cacheFile.exists())
     				if (!cacheFile.delete())
     					LOGGER.warn("Could not delete CRL cache file " + cacheFile.getAbsolutePath());
+    			
+    			final File indexFile = MappedCRLSerialIndex.getIndexFile(cacheFile);
+    			if (indexFile.exists())
+    				if (!indexFile.delete())
+    					LOGGER.warn("Could not delete CRL index file " + indexFile.getAbsolutePath());
 			}
 			catch (Throwable t)
 			{
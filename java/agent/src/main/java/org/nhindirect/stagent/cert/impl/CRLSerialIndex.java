@@ -0,0 +1,230 @@
+/*
+Copyright (c) 2010, NHIN Direct Project
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+
+Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer
+in the documentation and/or other materials provided with the distribution.  Neither the name of the The NHIN Direct Project (nhindirect.org).
+nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS
+BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF
+THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package org.nhindirect.stagent.cert.impl;
+
+import java.math.BigInteger;
+import java.security.cert.X509CRL;
+import java.security.cert.X509CRLEntry;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+
+import javax.security.auth.x500.X500Principal;
+
+import org.bouncycastle.asn1.x509.AuthorityKeyIdentifier;
+import org.bouncycastle.asn1.x509.X509Extensions;
+
+/**
+ * Immutable index of the serial numbers revoked by a CRL.  Serial numbers that fit in a signed 64 bit value are held in a sorted
+ * long array and larger serial numbers are held in a sorted BigInteger array, so revocation lookups are binary searches that
+ * do not need to synchronize on the underlying {@link X509CRL} object.
+ * @author agent
+ * @since 2.3
+ */
+public class CRLSerialIndex 
+{
+	protected final long[] serials;
+	protected final BigInteger[] largeSerials;
+	protected final Date thisUpdate;
+	protected final Date nextUpdate;
+	protected final X500Principal issuer;
+	protected final byte[] issuerKeyId;
+	
+	/**
+	 * Creates an index from the revoked certificate entries of a CRL.
+	 * @param crl The CRL to index.
+	 * @return An index of the CRL's revoked serial numbers.
+	 */
+	public static CRLSerialIndex create(X509CRL crl)
+	{
+		if (crl == null)
+			throw new IllegalArgumentException("CRL cannot be null");
+		
+		final Collection<? extends X509CRLEntry> entries = crl.getRevokedCertificates();
+		
+		final List<BigInteger> large = new ArrayList<BigInteger>();
+		long[] small = new long[(entries == null) ? 0 : entries.size()];
+		int smallCount = 0;
+		
+		if (entries != null)
+		{
+			for (X509CRLEntry entry : entries)
+			{
+				final BigInteger serial = entry.getSerialNumber();
+				if (serial.bitLength() < 64)
+					small[smallCount++] = serial.longValue();
+				else
+					large.add(serial);
+			}
+		}
+		
+		if (smallCount < small.length)
+			small = Arrays.copyOf(small, smallCount);
+		Arrays.sort(small);
+		
+		final BigInteger[] largeArray = large.toArray(new BigInteger[large.size()]);
+		Arrays.sort(largeArray);
+		
+		return new CRLSerialIndex(small, largeArray, crl.getThisUpdate(), crl.getNextUpdate(), crl.getIssuerX500Principal(), 
+				getAuthorityKeyId(crl));
+	}
+	
+	/**
+	 * Gets the key identifier from the authority key identifier extension of a CRL.
+	 * @param crl The CRL.
+	 * @return The key identifier of the CRL issuer or null if the CRL does not contain an authority key identifier.
+	 */
+	protected static byte[] getAuthorityKeyId(X509CRL crl)
+	{
+		try
+		{
+			final AuthorityKeyIdentifier aki = AuthorityKeyIdentifier.getInstance(CRLRevocationManager.getExtensionValue(crl, 
+					X509Extensions.AuthorityKeyIdentifier.getId()));
+			
+			return (aki == null) ? null : aki.getKeyIdentifier();
+		}
+		catch (Exception e)
+		{
+			return null;
+		}
+	}
+	
+	/**
+	 * Constructor
+	 * @param serials Sorted serial numbers that fit in a signed 64 bit value.
+	 * @param largeSerials Sorted serial numbers that do not fit in a signed 64 bit value.
+	 * @param thisUpdate The issue date of the CRL.
+	 * @param nextUpdate The next update date of the CRL.  May be null if the CRL does not specify a next update.
+	 * @param issuer The issuer of the CRL.
+	 * @param issuerKeyId The key identifier of the CRL issuer.  May be null if the CRL does not contain an authority key identifier. 
+	 */
+	public CRLSerialIndex(long[] serials, BigInteger[] largeSerials, Date thisUpdate, Date nextUpdate, X500Principal issuer, byte[] issuerKeyId)
+	{
+		this.serials = serials;
+		this.largeSerials = largeSerials;
+		this.thisUpdate = thisUpdate;
+		this.nextUpdate = nextUpdate;
+		this.issuer = issuer;
+		this.issuerKeyId = issuerKeyId;
+	}
+	
+	/**
+	 * Constructor for indexes that hold their serial numbers outside of the heap.  Implementations must override
+	 * {@link #isRevoked(BigInteger)}, {@link #size()}, {@link #getSerials()}, and {@link #getLargeSerials()}.
+	 * @param thisUpdate The issue date of the CRL.
+	 * @param nextUpdate The next update date of the CRL.  May be null if the CRL does not specify a next update.
+	 * @param issuer The issuer of the CRL.
+	 * @param issuerKeyId The key identifier of the CRL issuer.  May be null.
+	 */
+	protected CRLSerialIndex(Date thisUpdate, Date nextUpdate, X500Principal issuer, byte[] issuerKeyId)
+	{
+		this(null, null, thisUpdate, nextUpdate, issuer, issuerKeyId);
+	}
+	
+	/**
+	 * Indicates if a serial number is revoked by the CRL.
+	 * @param serial The serial number to check.
+	 * @return True if the serial number is revoked.  False otherwise.
+	 */
+	public boolean isRevoked(BigInteger serial)
+	{
+		if (serial == null)
+			return false;
+		
+		if (serial.bitLength() < 64)
+			return Arrays.binarySearch(serials, serial.longValue()) >= 0;
+		
+		return Arrays.binarySearch(largeSerials, serial) >= 0;
+	}
+	
+	/**
+	 * Indicates if the next update date of the CRL has passed.
+	 * @param now The date to check against.
+	 * @return True if the CRL has a next update date before the provided date.  False otherwise.
+	 */
+	public boolean isExpired(Date now)
+	{
+		return nextUpdate != null && nextUpdate.before(now);
+	}
+	
+	/**
+	 * Gets the number of revoked serial numbers in the index.
+	 * @return The number of revoked serial numbers in the index.
+	 */
+	public int size()
+	{
+		return serials.length + largeSerials.length;
+	}
+	
+	/**
+	 * Gets the sorted revoked serial numbers that fit in a signed 64 bit value.
+	 * @return The sorted revoked serial numbers that fit in a signed 64 bit value.
+	 */
+	public long[] getSerials()
+	{
+		return serials;
+	}
+	
+	/**
+	 * Gets the sorted revoked serial numbers that do not fit in a signed 64 bit value.
+	 * @return The sorted revoked serial numbers that do not fit in a signed 64 bit value.
+	 */
+	public BigInteger[] getLargeSerials()
+	{
+		return largeSerials;
+	}
+	
+	/**
+	 * Gets the issue date of the CRL.
+	 * @return The issue date of the CRL.
+	 */
+	public Date getThisUpdate()
+	{
+		return thisUpdate;
+	}
+	
+	/**
+	 * Gets the next update date of the CRL.
+	 * @return The next update date of the CRL.  May be null.
+	 */
+	public Date getNextUpdate()
+	{
+		return nextUpdate;
+	}
+	
+	/**
+	 * Gets the issuer of the CRL.
+	 * @return The issuer of the CRL.
+	 */
+	public X500Principal getIssuer()
+	{
+		return issuer;
+	}
+	
+	/**
+	 * Gets the key identifier of the CRL issuer.
+	 * @return The key identifier of the CRL issuer.  May be null.
+	 */
+	public byte[] getIssuerKeyId()
+	{
+		return issuerKeyId;
+	}
+}
@@ -23,6 +23,7 @@ package org.nhindirect.stagent.cert.impl;
 
 import java.security.cert.X509Certificate;
 import java.util.Collection;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -32,7 +33,9 @@ import org.apache.jcs.engine.behavior.ICompositeCacheAttributes;
 import org.apache.jcs.engine.behavior.IElementAttributes;
 import org.nhindirect.common.crypto.KeyStoreProtectionManager;
 import org.nhindirect.stagent.cert.CacheableCertStore;
+import org.nhindirect.stagent.cert.CertStoreCacheCounters;
 import org.nhindirect.stagent.cert.CertCacheFactory;
+import org.nhindirect.stagent.cert.CertStoreCacheStatistics;
 import org.nhindirect.stagent.cert.CertStoreCachePolicy;
 import org.nhindirect.stagent.cert.CertificateStore;
 import org.nhindirect.stagent.options.OptionsManager;
@@ -43,7 +46,7 @@ import org.nhindirect.stagent.options.OptionsParameter;
  * @author Greg Meyer
  * @since 2.1
  */
-public class CacheableKeyStoreManagerCertificateStore extends AbstractKeyStoreManagerCertificateStore implements CacheableCertStore
+public class CacheableKeyStoreManagerCertificateStore extends AbstractKeyStoreManagerCertificateStore implements CacheableCertStore, CertStoreCacheCounters
 {
 	private static final String CACHE_NAME = "CACHEABLE_PKCS11_STORE_CERT_CACHE";
 	
@@ -52,6 +55,9 @@ public class CacheableKeyStoreManagerCertificateStore extends AbstractKeyStoreMa
 	
 	protected JCS cache;
 	protected CertStoreCachePolicy cachePolicy;
+	protected final AtomicLong cacheHits = new AtomicLong();
+	protected final AtomicLong cacheMisses = new AtomicLong();
+	protected final CertStoreCacheStatistics statistics = CertStoreCacheStatistics.getInstance(CacheableKeyStoreManagerCertificateStore.class);
 	
 	private static final Log LOGGER = LogFactory.getFactory().getInstance(CacheableKeyStoreManagerCertificateStore.class);
 	
@@ -194,7 +200,16 @@ public class CacheableKeyStoreManagerCertificateStore extends AbstractKeyStoreMa
     	{
     		retVal = (Collection<X509Certificate>)cache.get(realSubjectName);
     		if (retVal == null || retVal.size() == 0)
+    		{
+    			cacheMisses.incrementAndGet();
+    			statistics.recordMiss();
     			retVal = super.getCertificates(subjectName);
+    		}
+    		else
+    		{
+    			cacheHits.incrementAndGet();
+    			statistics.recordHit(false);
+    		}
     	}
     	else // cache miss
     		retVal = super.getCertificates(subjectName);
@@ -220,6 +235,44 @@ public class CacheableKeyStoreManagerCertificateStore extends AbstractKeyStoreMa
     	
     	return retVal;
     }  
+
+	/**
+	 * {@inheritDoc}
+	 */
+    @Override
+    public long getCacheHitCount()
+    {
+    	return cacheHits.get();
+    }
+    
+	/**
+	 * {@inheritDoc}
+	 */
+    @Override
+    public long getNegativeCacheHitCount()
+    {
+    	// negative lookups are not cached by this store
+    	return 0L;
+    }
+    
+	/**
+	 * {@inheritDoc}
+	 */
+    @Override
+    public long getCacheMissCount()
+    {
+    	return cacheMisses.get();
+    }
+    
+	/**
+	 * {@inheritDoc}
+	 */
+    @Override
+    public long getCoalescedLookupCount()
+    {
+    	// lookups are not coalesced by this store
+    	return 0L;
+    }
 	
     
     ///COVER:OFF
@@ -24,6 +24,7 @@ package org.nhindirect.stagent.cert.impl;
 
 import java.io.ByteArrayInputStream;
 import java.io.InputStream;
+import java.io.Serializable;
 import java.io.UnsupportedEncodingException;
 import java.net.MalformedURLException;
 import java.net.URL;
@@ -37,8 +38,15 @@ import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
 
 
 import org.apache.commons.io.IOUtils;
@@ -52,8 +60,10 @@ import org.apache.jcs.engine.behavior.ICompositeCacheAttributes;
 import org.apache.jcs.engine.behavior.IElementAttributes;
 import org.nhindirect.stagent.NHINDException;
 import org.nhindirect.stagent.cert.CacheableCertStore;
+import org.nhindirect.stagent.cert.CertStoreCacheCounters;
 import org.nhindirect.stagent.cert.CertCacheFactory;
 import org.nhindirect.stagent.cert.CertStoreCachePolicy;
+import org.nhindirect.stagent.cert.CertStoreCacheStatistics;
 import org.nhindirect.stagent.cert.CertificateStore;
 import org.nhindirect.stagent.cert.impl.annotation.DNSCertStoreBootstrap;
 import org.nhindirect.stagent.cert.impl.annotation.DNSCertStoreCachePolicy;
@@ -71,6 +81,7 @@ import org.xbill.DNS.Name;
 import org.xbill.DNS.Record;
 import org.xbill.DNS.Resolver;
 import org.xbill.DNS.ResolverConfig;
+import org.xbill.DNS.SOARecord;
 import org.xbill.DNS.SimpleResolver;
 import org.xbill.DNS.Type;
 
@@ -89,11 +100,15 @@ import com.google.inject.internal.Nullable;
  * This service caches DNS entries independently of OS resolver.  Caching can be tuned using the {@link CacheableCertStore} interface.
  * By default, the time to live of a subjects DNS certs is one day and the maximum number of entries is 1000 before the cache
  * is pruned to make room for new entries.  Pruning by default uses a least recently used algorithm.
+ * <br>
+ * Entries are held for the smaller of the CERT records' own TTL and the policy's subject TTL.  Names that authoritatively do not exist
+ * (NXDOMAIN or NXRRSET) are cached as negative entries using the SOA minimum TTL of the zone so unresolvable recipients do not 
+ * cause a full DNS walk on every message.  Concurrent cache misses for the same name are coalesced into a single DNS lookup.
  * 
  * @author Greg Meyer
  *
  */
-public class DNSCertificateStore extends CertificateStore implements CacheableCertStore
+public class DNSCertificateStore extends CertificateStore implements CacheableCertStore, CertStoreCacheCounters
 {
 	private static final String CACHE_NAME = "DNS_REMOTE_CERT_CACHE";
 	
@@ -103,6 +118,7 @@ public class DNSCertificateStore extends CertificateStore implements CacheableCe
 	
 	protected static final int DEFAULT_DNS_MAX_CAHCE_ITEMS = 1000;
 	protected static final int DEFAULT_DNS_TTL = 3600; // 1 hour
+	protected static final int DEFAULT_DNS_NEGATIVE_TTL = 300; // 5 minutes
 
 	protected static final int DEFAULT_URL_CONNECTION_TIMEOUT = 10000; // 10 seconds	
 	protected static final int DEFAULT_URL_READ_TIMEOUT = 10000; // 10 hour seconds	
@@ -115,6 +131,16 @@ public class DNSCertificateStore extends CertificateStore implements CacheableCe
 	protected int timeout;
 	protected int retries;
 	protected boolean useTCP;
+	protected int negativeCacheTTL;
+	
+	protected final ConcurrentMap<String, FutureTask<DNSLookupResult>> inflightLookups = 
+			new ConcurrentHashMap<String, FutureTask<DNSLookupResult>>();
+	
+	protected final AtomicLong cacheHits = new AtomicLong();
+	protected final AtomicLong negativeCacheHits = new AtomicLong();
+	protected final AtomicLong cacheMisses = new AtomicLong();
+	protected final AtomicLong coalescedLookups = new AtomicLong();
+	protected final CertStoreCacheStatistics statistics = CertStoreCacheStatistics.getInstance(DNSCertificateStore.class);
 	
 	private static final Log LOGGER = LogFactory.getFactory().getInstance(DNSCertificateStore.class);
 	static 
@@ -195,6 +221,9 @@ public class DNSCertificateStore extends CertificateStore implements CacheableCe
 		
 		param = OptionsManager.getInstance().getParameter(OptionsParameter.DNS_CERT_RESOLVER_USE_TCP);
 		useTCP = OptionsParameter.getParamValueAsBoolean(param, DEFAULT_DNS_USE_TCP);
+		
+		param = OptionsManager.getInstance().getParameter(OptionsParameter.DNS_CERT_RESOLVER_NEGATIVE_CACHE_TTL);
+		negativeCacheTTL = OptionsParameter.getParamValueAsInteger(param, DEFAULT_DNS_NEGATIVE_TTL);
 	}
 	
 	private synchronized JCS getCache()
@@ -300,25 +329,47 @@ public class DNSCertificateStore extends CertificateStore implements CacheableCe
 		else
 			realSubjectName = subjectName;    	
     	
+		final String cacheKey = normalizeLookupName(realSubjectName);
+		
     	Collection<X509Certificate> retVal;
     	
     	JCS cache = getCache();
     	
     	if (cache != null)
     	{
-    		retVal = (Collection<X509Certificate>)cache.get(realSubjectName);
+    		final Object cachedEntry = cache.get(cacheKey);
+    		if (cachedEntry instanceof NegativeCacheEntry)
+    		{
+    			// the name is known not to exist... don't walk DNS again until the entry expires
+    			cacheHits.incrementAndGet();
+    			negativeCacheHits.incrementAndGet();
+    			statistics.recordHit(true);
+    			LOGGER.debug("getCertificates(String subjectName) - Negative cache hit for subject " + subjectName);
+    			return new ArrayList<X509Certificate>();
+    		}
+    		
+    		retVal = (Collection<X509Certificate>)cachedEntry;
     		if (retVal == null || retVal.size() == 0)
     		{
-    			retVal = this.lookupDNS(realSubjectName);
+    			cacheMisses.incrementAndGet();
+    			statistics.recordMiss();
+    			retVal = this.lookupDNSCoalesced(cacheKey).getCertificates();
     			if (retVal == null || retVal.size() == 0)
     			{
     				LOGGER.info("getCertificates(String subjectName) - Could not find a DNS certificate for subject " + subjectName);
     			}
     		}
+    		else
+    		{
+    			cacheHits.incrementAndGet();
+    			statistics.recordHit(false);
+    		}
     	}
     	else // cache miss
     	{
-    		retVal = this.lookupDNS(realSubjectName);
+    		cacheMisses.incrementAndGet();
+    		statistics.recordMiss();
+    		retVal = this.lookupDNSCoalesced(cacheKey).getCertificates();
     		if (retVal.size() == 0)
     		{
     			if (localStoreDelegate != null)
@@ -337,6 +388,143 @@ public class DNSCertificateStore extends CertificateStore implements CacheableCe
     	return retVal;
     }     
     
+    /**
+     * Normalizes a lookup name so that equivalent names share the same cache entry and in flight lookup.
+     * @param name The name to normalize.
+     * @return The name in lower case without a trailing root label.
+     */
+    protected String normalizeLookupName(String name)
+    {
+    	String retVal = name.trim().toLowerCase(Locale.ENGLISH);
+    	if (retVal.endsWith("."))
+    		retVal = retVal.substring(0, retVal.length() - 1);
+    	
+    	return retVal;
+    }
+    
+    /**
+     * Performs a DNS lookup for the name coalescing concurrent requests for the same name into a single lookup.  Threads that
+     * request a name that is already being looked up wait for the result of the in flight lookup instead of walking DNS themselves.
+     * The result of the lookup is placed in the cache before waiting threads are released.
+     * @param name The normalized name to look up.
+     * @return The result of the lookup.
+     */
+    protected DNSLookupResult lookupDNSCoalesced(final String name)
+    {
+    	final FutureTask<DNSLookupResult> lookupTask = new FutureTask<DNSLookupResult>(new Callable<DNSLookupResult>()
+		{
+			public DNSLookupResult call() throws Exception
+			{
+				final DNSLookupResult result = lookupDNSRecords(name);
+				cacheLookupResult(name, result);
+				return result;
+			}
+		});
+    	
+    	FutureTask<DNSLookupResult> inflightTask = inflightLookups.putIfAbsent(name, lookupTask);
+    	if (inflightTask == null)
+    	{
+    		inflightTask = lookupTask;
+    		try
+    		{
+    			lookupTask.run();
+    		}
+    		finally
+    		{
+    			inflightLookups.remove(name, lookupTask);
+    		}
+    	}
+    	else
+    	{
+    		coalescedLookups.incrementAndGet();
+    		statistics.recordCoalescedLookup();
+    	}
+    	
+		try
+		{
+			return inflightTask.get();
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new NHINDException("Interrupted while waiting for DNS certificate lookup of " + name, e);
+		}
+		catch (ExecutionException e)
+		{
+			if (e.getCause() instanceof RuntimeException)
+				throw (RuntimeException)e.getCause();
+			
+			throw new NHINDException("", e);
+		}
+    }
+    
+    /*
+     * Puts the result of a lookup in the cache using the TTL of the records that were returned
+     */
+    private void cacheLookupResult(String name, DNSLookupResult result)
+    {
+    	if (cache == null || result.getTTL() <= 0)
+    		return;
+    	
+    	final Object cacheEntry;
+    	if (result.isNegative())
+    		cacheEntry = NegativeCacheEntry.INSTANCE;
+    	else if (result.getCertificates().size() > 0)
+    		cacheEntry = result.getCertificates();
+    	else
+    		return; // not authoritative negative response... don't cache 
+    	
+    	// never hold an entry longer than the policy allows
+    	final long ttl = (cachePolicy == null) ? result.getTTL() : Math.min(result.getTTL(), cachePolicy.getSubjectTTL());
+    	
+    	try
+    	{
+    		final IElementAttributes eattributes = cache.getDefaultElementAttributes().copy();
+    		eattributes.setMaxLifeSeconds(ttl);
+    		cache.put(name, cacheEntry, eattributes);
+    	}
+    	catch (CacheException e)
+    	{
+    		LOGGER.warn("Failed to cache DNS certificate lookup result for " + name, e);
+    	}
+    }
+    
+	/**
+	 * {@inheritDoc}
+	 */
+    @Override
+    public long getCacheHitCount()
+    {
+    	return cacheHits.get();
+    }
+    
+	/**
+	 * {@inheritDoc}
+	 */
+    @Override
+    public long getNegativeCacheHitCount()
+    {
+    	return negativeCacheHits.get();
+    }
+    
+	/**
+	 * {@inheritDoc}
+	 */
+    @Override
+    public long getCacheMissCount()
+    {
+    	return cacheMisses.get();
+    }
+    
+	/**
+	 * {@inheritDoc}
+	 */
+    @Override
+    public long getCoalescedLookupCount()
+    {
+    	return coalescedLookups.get();
+    }
+    
 	/**
 	 * {@inheritDoc}
 	 */
@@ -347,10 +535,24 @@ public class DNSCertificateStore extends CertificateStore implements CacheableCe
     }    
     
 	protected Collection<X509Certificate> lookupDNS(String name)
+	{
+		return lookupDNSRecords(name).getCertificates();
+	}
+	
+	/**
+	 * Looks up the certificates for a name in DNS along with the information needed to cache the result.  The TTL of the result is the 
+	 * smallest TTL of the CERT records that were returned.  If the name or record type authoritatively does not exist (NXDOMAIN or NXRRSET),
+	 * the result is marked as negative and the TTL is taken from the SOA record of the zone.
+	 * @param name The name to look up.
+	 * @return The result of the lookup.
+	 */
+	protected DNSLookupResult lookupDNSRecords(String name)
 	{
 		String domain;
 		String lookupName = name.replace('@', '.');
 		Collection<X509Certificate> retVal = new ArrayList<X509Certificate>();
+		long ttl = Long.MAX_VALUE;
+		boolean negative = false;
 				
 		// get the domain of the address
 		int index;
@@ -412,7 +614,12 @@ public class DNSCertificateStore extends CertificateStore implements CacheableCe
 				}
 				
 				if (retRecords == null || retRecords.length == 0)
-					return retVal; // can't find a name server... bail
+				{
+					// can't find a name server... bail
+					// only remember the failure if the name servers authoritatively told us the name does not exist
+					negative = isNegativeLookupResult(lu.getResult());
+					return new DNSLookupResult(retVal, negative ? getNegativeCacheTTL(domain) : 0, negative); 
+				}
 				
 				String[] remoteServers = new String[retRecords.length];
 				for (int i = 0; i < remoteServers.length - 0; ++i)
@@ -440,6 +647,7 @@ public class DNSCertificateStore extends CertificateStore implements CacheableCe
 					//lu.setCache(new Cache(DClass.IN));
 					
 					retRecords = lu.run();
+					negative = isNegativeLookupResult(lu.getResult());
 				} else {
 					// null out NS records
 					retRecords = null;
@@ -460,14 +668,20 @@ public class DNSCertificateStore extends CertificateStore implements CacheableCe
 							{
 								Certificate certToAdd = convertPKIXRecordToCert(certRec);
 								if (certToAdd != null && certToAdd instanceof X509Certificate) // may not be an X509Cert
+								{
 									retVal.add((X509Certificate)certToAdd);
+									ttl = Math.min(ttl, certRec.getTTL());
+								}
 								break;
 							}
 							case CERTRecord.URI:
 							{
 								Certificate certToAdd = convertIPKIXRecordToCert(certRec);
 								if (certToAdd != null && certToAdd instanceof X509Certificate) // may not be an X509Cert
+								{
 									retVal.add((X509Certificate)certToAdd);
+									ttl = Math.min(ttl, certRec.getTTL());
+								}
 								break;
 							}
 							default:
@@ -479,7 +693,14 @@ public class DNSCertificateStore extends CertificateStore implements CacheableCe
 				}			
 			}
 			else if (domain.length() < name.length())  // if this is an email address, do the search again and the host level
-				retVal = lookupDNS(domain);
+			{
+				final DNSLookupResult domainResult = lookupDNSRecords(domain);
+				retVal = domainResult.getCertificates();
+				ttl = domainResult.getTTL();
+				negative = domainResult.isNegative();
+			}
+			else if (negative)
+				ttl = getNegativeCacheTTL(domain);
 		}
 		catch (Exception e)
 		{
@@ -501,21 +722,63 @@ public class DNSCertificateStore extends CertificateStore implements CacheableCe
 						localStoreDelegate.add(cert);
 				}
 			}			
-			try
-			{
-				if (cache != null)
-					cache.put(name, retVal);
-			}
-			catch (CacheException e)
+		}
+		
+		if (retVal == null || retVal.size() == 0)
+		{
+			// only negative results are cacheable when no certificates are found
+			if (!negative)
+				ttl = 0;
+		}
+		else
+			negative = false;
+		
+		return new DNSLookupResult(retVal, ttl == Long.MAX_VALUE ? 0 : ttl, negative);
+	}
+
+	/*
+	 * Determines if the result of a lookup indicates the name or record type authoritatively does not exist
+	 */
+	private boolean isNegativeLookupResult(int lookupResult)
+	{
+		return lookupResult == Lookup.HOST_NOT_FOUND || lookupResult == Lookup.TYPE_NOT_FOUND;
+	}
+	
+	/**
+	 * Gets the amount of time in seconds that a negative response for a domain can be cached.  Per RFC 2308, the TTL is the minimum of the 
+	 * SOA record's TTL and its minimum field.  The zone's SOA record is found by walking up the domain's labels.  If no SOA record can be found, 
+	 * the configured negative cache TTL is used.
+	 * @param domain The domain that was looked up.
+	 * @return The time in seconds that the negative response can be cached.
+	 */
+	protected long getNegativeCacheTTL(String domain)
+	{
+		try
+		{
+			Name tempDomain = new Name(domain);
+			while (tempDomain.labels() > 1)
 			{
-				/*
-				 * TODO: handle exception
-				 */
+				final Lookup lu = new Lookup(tempDomain, Type.SOA);
+				lu.setResolver(createExResolver(servers.toArray(new String[servers.size()]), retries, timeout));
+				lu.setSearchPath((String[])null);
+				final Record[] retRecords = lu.run();
+				
+				if (retRecords != null && retRecords.length > 0 && retRecords[0] instanceof SOARecord)
+				{
+					final SOARecord soaRec = (SOARecord)retRecords[0];
+					return Math.min(soaRec.getTTL(), soaRec.getMinimum());
+				}
+				
+				tempDomain = new Name(tempDomain.toString().substring((tempDomain.toString().indexOf(".") + 1)));
 			}
 		}
-		return retVal;
+		catch (Exception e)
+		{
+			LOGGER.debug("Could not find SOA record for domain " + domain + ".  Using default negative cache TTL.", e);
+		}
+		
+		return negativeCacheTTL;
 	}
-
 	
 	public void flush(boolean purgeBootStrap) 
 	{
@@ -652,6 +915,56 @@ public class DNSCertificateStore extends CertificateStore implements CacheableCe
 		
 	}
 	
+	/**
+	 * The result of a DNS certificate lookup.
+	 * @author agent
+	 * @since 2.3
+	 */
+	protected static class DNSLookupResult
+	{
+		protected final Collection<X509Certificate> certificates;
+		protected final long ttl;
+		protected final boolean negative;
+		
+		/**
+		 * Constructor
+		 * @param certificates The certificates that were found.  May be empty.
+		 * @param ttl The time in seconds the result may be cached.  A value of 0 indicates the result should not be cached.
+		 * @param negative Indicates if the name or record type authoritatively does not exist.
+		 */
+		public DNSLookupResult(Collection<X509Certificate> certificates, long ttl, boolean negative)
+		{
+			this.certificates = certificates;
+			this.ttl = ttl;
+			this.negative = negative;
+		}
+		
+		public Collection<X509Certificate> getCertificates()
+		{
+			return certificates;
+		}
+		
+		public long getTTL()
+		{
+			return ttl;
+		}
+		
+		public boolean isNegative()
+		{
+			return negative;
+		}
+	}
+	
+	/*
+	 * Marker placed in the cache for names that do not exist
+	 */
+	private static final class NegativeCacheEntry implements Serializable
+	{
+		static final long serialVersionUID = -5062851326829386270L;
+		
+		static final NegativeCacheEntry INSTANCE = new NegativeCacheEntry();
+	}
+	
 	protected ExtendedResolver createExResolver(String[] servers, int retries, int timeout)
 	{
 		// create a default ExtendedResolver
@@ -41,6 +41,7 @@ import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.nhindirect.stagent.NHINDException;
 import org.nhindirect.stagent.cert.CertificateStore;
+import org.nhindirect.stagent.cert.CertificateSubjectIndex;
 import org.nhindirect.stagent.cert.X509CertificateEx;
 import org.nhindirect.stagent.cert.impl.annotation.CertStoreKeyFile;
 import org.nhindirect.stagent.cert.impl.annotation.CertStoreKeyFilePassword;
@@ -60,6 +61,9 @@ public class KeyStoreCertificateStore extends CertificateStore
 {
 	private Set<X509Certificate> certs = new HashSet<X509Certificate>();
 	
+	// certificates by subject address so lookups don't scan the store
+	private final CertificateSubjectIndex subjectIndex = new CertificateSubjectIndex();
+	
 	private static final Log LOGGER = LogFactory.getFactory().getInstance(KeyStoreCertificateStore.class);
 	
 	/*
@@ -238,6 +242,7 @@ public class KeyStoreCertificateStore extends CertificateStore
 							addCert = (X509Certificate)cert;
 						
 						certs.add(addCert);
+						subjectIndex.add(addCert);
 					}
 				}
 			}
@@ -274,6 +279,8 @@ public class KeyStoreCertificateStore extends CertificateStore
     {
     	if (certs.remove(cert))
     	{
+    		subjectIndex.remove(cert);
+    		
     		// remove from the key store
     		try
     		{
@@ -295,6 +302,17 @@ public class KeyStoreCertificateStore extends CertificateStore
     	}
     }
 
+	/**
+	 * {@inheritDoc}
+	 * <p>
+	 * Certificates are found with an index of the subject addresses of the certificates in the store instead of a scan of all certificates.
+	 */
+	@Override
+    public Collection<X509Certificate> getCertificates(String subjectName)
+    {
+    	return subjectIndex.getCertificates(subjectName);
+    }
+    
 	/**
 	 * {@inheritDoc}
 	 */
@@ -321,6 +339,8 @@ public class KeyStoreCertificateStore extends CertificateStore
 		try
 		{
 			certs.add(cert);
+			subjectIndex.add(cert);
+			
 			if (cert instanceof X509CertificateEx)
 				ks.setKeyEntry(alias, ((X509CertificateEx)cert).getPrivateKey(),
 						privateKeyPassword == null ? null : privateKeyPassword.toCharArray(), new Certificate[] {cert});
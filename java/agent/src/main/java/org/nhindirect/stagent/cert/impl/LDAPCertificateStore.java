@@ -24,6 +24,7 @@ package org.nhindirect.stagent.cert.impl;
 import java.io.File;
 import java.security.cert.X509Certificate;
 import java.util.Collection;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -33,7 +34,9 @@ import org.apache.jcs.engine.behavior.ICompositeCacheAttributes;
 import org.apache.jcs.engine.behavior.IElementAttributes;
 import org.nhindirect.stagent.CryptoExtensions;
 import org.nhindirect.stagent.cert.CacheableCertStore;
+import org.nhindirect.stagent.cert.CertStoreCacheCounters;
 import org.nhindirect.stagent.cert.CertCacheFactory;
+import org.nhindirect.stagent.cert.CertStoreCacheStatistics;
 import org.nhindirect.stagent.cert.CertStoreCachePolicy;
 import org.nhindirect.stagent.cert.CertificateStore;
 import org.nhindirect.stagent.cert.Thumbprint;
@@ -60,7 +63,7 @@ import com.google.inject.internal.Nullable;
  *
  */
 public class LDAPCertificateStore extends CertificateStore implements
-		CacheableCertStore {
+		CacheableCertStore, CertStoreCacheCounters {
 	
 	private static final Log LOGGER = LogFactory.getFactory().getInstance(LDAPCertificateStore.class);
 	private static final String CACHE_NAME = "LDAP_REMOTE_CERT_CACHE";
@@ -71,6 +74,9 @@ public class LDAPCertificateStore extends CertificateStore implements
 	protected CertificateStore localStoreDelegate;
 	protected JCS cache;
 	protected CertStoreCachePolicy cachePolicy;
+	protected final AtomicLong cacheHits = new AtomicLong();
+	protected final AtomicLong cacheMisses = new AtomicLong();
+	protected final CertStoreCacheStatistics statistics = CertStoreCacheStatistics.getInstance(LDAPCertificateStore.class);
 	protected LdapCertUtil ldapCertUtil;
 	
 	/**
@@ -246,6 +252,8 @@ public class LDAPCertificateStore extends CertificateStore implements
     		
     		// the certificate is not in the cache, so now hit the real server
     		if (retVal == null || retVal.size() == 0) {
+    			cacheMisses.incrementAndGet();
+    			statistics.recordMiss();
     			retVal = ldapCertUtil.ldapSearch(realSubjectName);
     			
     			// add or update the cache and the local cert store
@@ -284,6 +292,11 @@ public class LDAPCertificateStore extends CertificateStore implements
     				LOGGER.info("getCertificates(String subjectName) - Could not find an LDAP certificate for subject " + subjectName);
     			}    			
     		}
+    		else
+    		{
+    			cacheHits.incrementAndGet();
+    			statistics.recordHit(false);
+    		}
     	}
     	else // cache miss
     	{
@@ -308,6 +321,44 @@ public class LDAPCertificateStore extends CertificateStore implements
     	return retVal;
     }     
     
+	/**
+	 * {@inheritDoc}
+	 */
+    @Override
+    public long getCacheHitCount()
+    {
+    	return cacheHits.get();
+    }
+    
+	/**
+	 * {@inheritDoc}
+	 */
+    @Override
+    public long getNegativeCacheHitCount()
+    {
+    	// negative lookups are not cached by this store
+    	return 0L;
+    }
+    
+	/**
+	 * {@inheritDoc}
+	 */
+    @Override
+    public long getCacheMissCount()
+    {
+    	return cacheMisses.get();
+    }
+    
+	/**
+	 * {@inheritDoc}
+	 */
+    @Override
+    public long getCoalescedLookupCount()
+    {
+    	// lookups are not coalesced by this store
+    	return 0L;
+    }
+    
     protected void addOrUpdateLocalStoreDelegate(Collection<X509Certificate> retVal) 
     {
     	if (localStoreDelegate != null)
@@ -0,0 +1,360 @@
+/*
+Copyright (c) 2010, NHIN Direct Project
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+
+Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer
+in the documentation and/or other materials provided with the distribution.  Neither the name of the The NHIN Direct Project (nhindirect.org).
+nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS
+BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF
+THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package org.nhindirect.stagent.cert.impl;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.math.BigInteger;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Date;
+
+import javax.security.auth.x500.X500Principal;
+
+import org.apache.commons.io.IOUtils;
+
+/**
+ * {@link CRLSerialIndex} backed by a read only memory mapped index file.  Index files are written next to the DER encoded CRL 
+ * cache files and hold the sorted revoked serial table, thisUpdate/nextUpdate dates, and the issuer name and key id of the CRL.  Opening an
+ * index file does not parse the CRL and lookups read the serial table directly from the mapped file, so revocation checks after a restart
+ * do not need to load the CRL onto the heap.
+ * <p>
+ * File layout (big endian):
+ * <pre>
+ * int     magic
+ * int     version
+ * long    thisUpdate (milliseconds)
+ * long    nextUpdate (milliseconds, -1 if not present)
+ * int     issuer length, byte[] DER encoded issuer name
+ * int     issuer key id length (-1 if not present), byte[] issuer key id
+ * int     number of 64 bit serials
+ * int     number of large serials
+ * long[]  sorted 64 bit serials
+ * int[]   offsets of the large serials relative to the start of the large serial data
+ * large serial data: int length, byte[] two's complement serial... in sorted order
+ * </pre>
+ * @author agent
+ * @since 2.3
+ */
+public class MappedCRLSerialIndex extends CRLSerialIndex
+{
+	/**
+	 * File extension of index files.
+	 */
+	public static final String INDEX_FILE_EXTENSION = ".idx";
+	
+	protected static final int MAGIC = 0x4E434958; // NCIX
+	
+	protected static final int VERSION = 1;
+	
+	protected final MappedByteBuffer buffer;
+	protected final int serialCount;
+	protected final int largeSerialCount;
+	protected final int serialsStart;
+	protected final int largeOffsetsStart;
+	protected final int largeDataStart;
+	
+	/**
+	 * Gets the index file that belongs to a CRL cache file.
+	 * @param cacheFile The CRL cache file.
+	 * @return The index file for the cache file.
+	 */
+	public static File getIndexFile(File cacheFile)
+	{
+		String name = cacheFile.getName();
+		final int extIndex = name.lastIndexOf('.');
+		if (extIndex > 0)
+			name = name.substring(0, extIndex);
+		
+		return new File(cacheFile.getParentFile(), name + INDEX_FILE_EXTENSION);
+	}
+	
+	/**
+	 * Writes an index to a file.  The index is written to a temporary file first and then renamed so readers never see a partially
+	 * written index.
+	 * @param indexFile The file to write.
+	 * @param index The index to write.
+	 * @throws IOException Thrown if the file cannot be written.
+	 */
+	public static void write(File indexFile, CRLSerialIndex index) throws IOException
+	{
+		final File tempFile = new File(indexFile.getAbsolutePath() + ".tmp");
+		DataOutputStream outStream = null;
+		try
+		{
+			outStream = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)));
+			
+			outStream.writeInt(MAGIC);
+			outStream.writeInt(VERSION);
+			outStream.writeLong(index.getThisUpdate().getTime());
+			outStream.writeLong(index.getNextUpdate() == null ? -1 : index.getNextUpdate().getTime());
+			
+			final byte[] issuer = index.getIssuer().getEncoded();
+			outStream.writeInt(issuer.length);
+			outStream.write(issuer);
+			
+			final byte[] keyId = index.getIssuerKeyId();
+			if (keyId == null)
+				outStream.writeInt(-1);
+			else
+			{
+				outStream.writeInt(keyId.length);
+				outStream.write(keyId);
+			}
+			
+			final long[] serials = index.getSerials();
+			final BigInteger[] largeSerials = index.getLargeSerials();
+			outStream.writeInt(serials.length);
+			outStream.writeInt(largeSerials.length);
+			
+			for (long serial : serials)
+				outStream.writeLong(serial);
+			
+			final byte[][] largeData = new byte[largeSerials.length][];
+			int offset = 0;
+			for (int i = 0; i < largeSerials.length; ++i)
+			{
+				largeData[i] = largeSerials[i].toByteArray();
+				outStream.writeInt(offset);
+				offset += 4 + largeData[i].length;
+			}
+			
+			for (byte[] data : largeData)
+			{
+				outStream.writeInt(data.length);
+				outStream.write(data);
+			}
+			
+			outStream.close();
+			outStream = null;
+			
+			if (!tempFile.renameTo(indexFile))
+			{
+				// some platforms will not rename over an existing file
+				if (!indexFile.delete() || !tempFile.renameTo(indexFile))
+					throw new IOException("Could not replace index file " + indexFile.getAbsolutePath());
+			}
+		}
+		finally
+		{
+			IOUtils.closeQuietly(outStream);
+			if (tempFile.exists())
+				tempFile.delete();
+		}
+	}
+	
+	/**
+	 * Opens an index file.
+	 * @param indexFile The index file.
+	 * @return The index mapped from the file.
+	 * @throws IOException Thrown if the file cannot be read or is not a valid index file.
+	 */
+	public static MappedCRLSerialIndex open(File indexFile) throws IOException
+	{
+		final RandomAccessFile file = new RandomAccessFile(indexFile, "r");
+		try
+		{
+			final FileChannel channel = file.getChannel();
+			
+			// the mapping remains valid after the channel is closed
+			return new MappedCRLSerialIndex(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+		}
+		finally
+		{
+			try
+			{
+				file.close();
+			}
+			catch (IOException e) {/* no-op */}
+		}
+	}
+	
+	/*
+	 * Reads the header fields of the index
+	 */
+	private static Header readHeader(MappedByteBuffer buffer) throws IOException
+	{
+		try
+		{
+			buffer.position(0);
+			if (buffer.getInt() != MAGIC)
+				throw new IOException("Not a CRL index file.");
+			if (buffer.getInt() != VERSION)
+				throw new IOException("Unsupported CRL index file version.");
+			
+			final Header header = new Header();
+			header.thisUpdate = new Date(buffer.getLong());
+			final long nextUpdate = buffer.getLong();
+			header.nextUpdate = (nextUpdate < 0) ? null : new Date(nextUpdate);
+			
+			final byte[] issuer = new byte[buffer.getInt()];
+			buffer.get(issuer);
+			header.issuer = new X500Principal(issuer);
+			
+			final int keyIdLength = buffer.getInt();
+			if (keyIdLength >= 0)
+			{
+				header.issuerKeyId = new byte[keyIdLength];
+				buffer.get(header.issuerKeyId);
+			}
+			
+			header.serialCount = buffer.getInt();
+			header.largeSerialCount = buffer.getInt();
+			header.serialsStart = buffer.position();
+			
+			final long largeDataStart = header.serialsStart + (header.serialCount * 8L) + (header.largeSerialCount * 4L);
+			if (header.serialCount < 0 || header.largeSerialCount < 0 || largeDataStart > buffer.limit())
+				throw new IOException("CRL index file is truncated.");
+			
+			return header;
+		}
+		catch (RuntimeException e)
+		{
+			throw new IOException("CRL index file is corrupt: " + e.getMessage());
+		}
+	}
+	
+	protected MappedCRLSerialIndex(MappedByteBuffer buffer) throws IOException
+	{
+		this(buffer, readHeader(buffer));
+	}
+	
+	private MappedCRLSerialIndex(MappedByteBuffer buffer, Header header)
+	{
+		super(header.thisUpdate, header.nextUpdate, header.issuer, header.issuerKeyId);
+		
+		this.buffer = buffer;
+		this.serialCount = header.serialCount;
+		this.largeSerialCount = header.largeSerialCount;
+		this.serialsStart = header.serialsStart;
+		this.largeOffsetsStart = serialsStart + (serialCount * 8);
+		this.largeDataStart = largeOffsetsStart + (largeSerialCount * 4);
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public boolean isRevoked(BigInteger serial)
+	{
+		if (serial == null)
+			return false;
+		
+		if (serial.bitLength() < 64)
+		{
+			final long key = serial.longValue();
+			int low = 0;
+			int high = serialCount - 1;
+			while (low <= high)
+			{
+				final int mid = (low + high) >>> 1;
+				final long midVal = buffer.getLong(serialsStart + (mid * 8));
+				if (midVal < key)
+					low = mid + 1;
+				else if (midVal > key)
+					high = mid - 1;
+				else
+					return true;
+			}
+			
+			return false;
+		}
+		
+		int low = 0;
+		int high = largeSerialCount - 1;
+		while (low <= high)
+		{
+			final int mid = (low + high) >>> 1;
+			final int cmp = getLargeSerial(mid).compareTo(serial);
+			if (cmp < 0)
+				low = mid + 1;
+			else if (cmp > 0)
+				high = mid - 1;
+			else
+				return true;
+		}
+		
+		return false;
+	}
+	
+	/*
+	 * Reads a large serial number from the mapped file using absolute reads so concurrent lookups don't interfere with each other
+	 */
+	private BigInteger getLargeSerial(int i)
+	{
+		final int offset = largeDataStart + buffer.getInt(largeOffsetsStart + (i * 4));
+		final byte[] data = new byte[buffer.getInt(offset)];
+		for (int j = 0; j < data.length; ++j)
+			data[j] = buffer.get(offset + 4 + j);
+		
+		return new BigInteger(data);
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public int size()
+	{
+		return serialCount + largeSerialCount;
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * The serial numbers are copied from the mapped file onto the heap.
+	 */
+	@Override
+	public long[] getSerials()
+	{
+		final long[] retVal = new long[serialCount];
+		for (int i = 0; i < serialCount; ++i)
+			retVal[i] = buffer.getLong(serialsStart + (i * 8));
+		
+		return retVal;
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * The serial numbers are copied from the mapped file onto the heap.
+	 */
+	@Override
+	public BigInteger[] getLargeSerials()
+	{
+		final BigInteger[] retVal = new BigInteger[largeSerialCount];
+		for (int i = 0; i < largeSerialCount; ++i)
+			retVal[i] = getLargeSerial(i);
+		
+		return retVal;
+	}
+	
+	private static class Header
+	{
+		Date thisUpdate;
+		Date nextUpdate;
+		X500Principal issuer;
+		byte[] issuerKeyId;
+		int serialCount;
+		int largeSerialCount;
+		int serialsStart;
+	}
+}
@@ -0,0 +1,680 @@
+/*
+Copyright (c) 2010, NHIN Direct Project
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+
+Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer
+in the documentation and/or other materials provided with the distribution.  Neither the name of the The NHIN Direct Project (nhindirect.org).
+nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS
+BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF
+THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package org.nhindirect.stagent.cert.impl;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.security.auth.x500.X500Principal;
+
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.jcs.JCS;
+import org.apache.jcs.access.exception.CacheException;
+import org.apache.jcs.engine.behavior.IElementAttributes;
+import org.bouncycastle.ocsp.BasicOCSPResp;
+import org.bouncycastle.ocsp.CertificateID;
+import org.bouncycastle.ocsp.OCSPReqGenerator;
+import org.bouncycastle.ocsp.OCSPResp;
+import org.bouncycastle.ocsp.OCSPRespStatus;
+import org.bouncycastle.ocsp.RevokedStatus;
+import org.bouncycastle.ocsp.SingleResp;
+import org.nhindirect.policy.x509.AuthorityInfoAccessOCSPLocExtentionField;
+import org.nhindirect.stagent.CryptoExtensions;
+import org.nhindirect.stagent.cert.AIACertificateCache;
+import org.nhindirect.stagent.cert.CertCacheFactory;
+import org.nhindirect.stagent.cert.CertStoreCachePolicy;
+import org.nhindirect.stagent.cert.RevocationManager;
+import org.nhindirect.stagent.cert.RevocationManagerFactory;
+import org.nhindirect.stagent.options.OptionsManager;
+import org.nhindirect.stagent.options.OptionsParameter;
+
+/**
+ * Revocation manager that checks the status of certificates with the OCSP responders listed in their authority information access extension.
+ * <p>
+ * Certificate statuses are cached by OCSP certificate id (issuer name hash, issuer key hash, and serial number) until the next update date of the
+ * response or the TTL specified by the {@link OptionsParameter#OCSP_CACHE_TTL} option, whichever comes first.  Responses whose this update
+ * date is in the future or older than the {@link OptionsParameter#OCSP_MAX_RESPONSE_AGE} option are ignored.  Requests do not contain a nonce
+ * so responders may serve pre-produced responses.  When the status of multiple certificates is requested with {@link #isRevoked(Collection)}, 
+ * certificates that share a responder and issuer are checked with a single request.
+ * <p>
+ * Certificates that do not list an OCSP responder, whose issuer cannot be found, or whose status the responder cannot provide are checked
+ * by a fallback revocation manager, by default the CRL revocation manager configured in the {@link RevocationManagerFactory}.
+ * @author agent
+ * @since 2.3
+ */
+public class OCSPRevocationManager implements RevocationManager
+{
+	private static final Log LOGGER = LogFactory.getFactory().getInstance(OCSPRevocationManager.class);
+	
+	private static final String CACHE_NAME = "OCSP_RESPONSE_CACHE";
+	
+	private static final String OCSP_SIGNING_EKU = "1.3.6.1.5.5.7.3.9";
+	
+	private static final int OCSP_CONNECT_TIMEOUT = 3000;
+	
+	private static final int OCSP_READ_TIMEOUT = 10000;
+	
+	protected static final int DEFAULT_MAX_CACHE_ITEMS = 10000;
+	
+	protected static final int DEFAULT_TTL = 3600; // 1 hour
+	
+	protected static final int DEFAULT_MAX_RESPONSE_AGE = 604800; // 7 days
+	
+	protected static OCSPRevocationManager INSTANCE;
+	
+	protected final RevocationManager fallback;
+	
+	protected final ConcurrentMap<X500Principal, Collection<X509Certificate>> knownIssuers;
+	
+	protected final int maxResponseAge;
+	
+	protected JCS cache;
+	
+	protected final AtomicLong hits = new AtomicLong();
+	
+	protected final AtomicLong misses = new AtomicLong();
+	
+	protected final AtomicLong responderRequests = new AtomicLong();
+	
+	/**
+	 * Gets the shared instance of the revocation manager.  The shared instance falls back to the CRL revocation manager returned by
+	 * {@link RevocationManagerFactory#getCRLInstance()}.
+	 * @return The shared instance of the revocation manager.
+	 */
+	public static synchronized OCSPRevocationManager getInstance()
+	{
+		if (INSTANCE == null)
+			INSTANCE = new OCSPRevocationManager(RevocationManagerFactory.getCRLInstance());
+		
+		return INSTANCE;
+	}
+	
+	/**
+	 * Constructor
+	 * @param fallback The revocation manager used for certificates whose status cannot be determined with OCSP.  If null, such certificates
+	 * are considered not revoked.
+	 */
+	public OCSPRevocationManager(RevocationManager fallback)
+	{
+		CryptoExtensions.registerJCEProviders();
+		
+		this.fallback = fallback;
+		this.knownIssuers = new ConcurrentHashMap<X500Principal, Collection<X509Certificate>>();
+		
+		final OptionsParameter param = OptionsManager.getInstance().getParameter(OptionsParameter.OCSP_MAX_RESPONSE_AGE);
+		this.maxResponseAge = OptionsParameter.getParamValueAsInteger(param, DEFAULT_MAX_RESPONSE_AGE);
+		
+		try
+		{
+			cache = CertCacheFactory.getInstance().getCertCache(CACHE_NAME, new DefaultOCSPCachePolicy());
+		}
+		///CLOVER:OFF
+		catch (CacheException e)
+		{
+			LOGGER.warn("Could not create OCSP response cache " + CACHE_NAME + ".  Certificate statuses will not be cached.", e);
+		}
+		///CLOVER:ON
+	}
+	
+	/**
+	 * Adds certificates that may issue the certificates being checked, such as trust anchors and intermediate CAs.  Issuers that are
+	 * not known are downloaded using the caIssuers URL of the certificate's authority information access extension.
+	 * @param issuers The issuer certificates.
+	 */
+	public void addIssuerCertificates(Collection<X509Certificate> issuers)
+	{
+		if (issuers == null)
+			return;
+		
+		for (X509Certificate issuer : issuers)
+		{
+			final X500Principal subject = issuer.getSubjectX500Principal();
+			Collection<X509Certificate> certs = knownIssuers.get(subject);
+			if (certs == null)
+			{
+				final Collection<X509Certificate> newCerts = Collections.synchronizedSet(new LinkedHashSet<X509Certificate>());
+				certs = knownIssuers.putIfAbsent(subject, newCerts);
+				if (certs == null)
+					certs = newCerts;
+			}
+			certs.add(issuer);
+		}
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public boolean isRevoked(X509Certificate certificate)
+	{
+		if (certificate == null)
+			return false;
+		
+		return Boolean.TRUE.equals(isRevoked(Arrays.asList(certificate)).get(certificate));
+	}
+	
+	/**
+	 * Determines the revocation status of a collection of certificates.  Certificates that share an OCSP responder and issuer are 
+	 * checked with a single request.
+	 * @param certificates The certificates to inspect.
+	 * @return A map of each certificate to true if the certificate has been revoked, false otherwise.
+	 */
+	public Map<X509Certificate, Boolean> isRevoked(Collection<X509Certificate> certificates)
+	{
+		final Map<X509Certificate, Boolean> retVal = new HashMap<X509Certificate, Boolean>();
+		
+		// uncached certificates grouped by responder and issuer
+		final Map<String, RequestGroup> groups = new LinkedHashMap<String, RequestGroup>();
+		final List<X509Certificate> undetermined = new ArrayList<X509Certificate>();
+		
+		for (X509Certificate certificate : certificates)
+		{
+			if (certificate == null || retVal.containsKey(certificate))
+				continue;
+			
+			final Collection<String> responderURLs = getResponderURLs(certificate);
+			final X509Certificate issuer = responderURLs.isEmpty() ? null : findIssuer(certificate);
+			final CertificateID certId = (issuer == null) ? null : createCertificateID(certificate, issuer);
+			if (certId == null)
+			{
+				undetermined.add(certificate);
+				continue;
+			}
+			
+			final Boolean cachedStatus = getCachedStatus(createKey(certId));
+			if (cachedStatus != null)
+			{
+				retVal.put(certificate, cachedStatus);
+				continue;
+			}
+			
+			final String responderURL = responderURLs.iterator().next();
+			final String groupKey = responderURL + "|" + new String(Hex.encodeHex(certId.getIssuerKeyHash()));
+			RequestGroup group = groups.get(groupKey);
+			if (group == null)
+			{
+				group = new RequestGroup(responderURL, issuer);
+				groups.put(groupKey, group);
+			}
+			group.certIds.put(certificate, certId);
+		}
+		
+		for (RequestGroup group : groups.values())
+		{
+			final Map<CertificateID, Boolean> statuses = queryResponder(group);
+			
+			for (Entry<X509Certificate, CertificateID> entry : group.certIds.entrySet())
+			{
+				final Boolean status = statuses.get(entry.getValue());
+				if (status == null)
+					undetermined.add(entry.getKey());
+				else
+					retVal.put(entry.getKey(), status);
+			}
+		}
+		
+		for (X509Certificate certificate : undetermined)
+			retVal.put(certificate, fallback != null && fallback.isRevoked(certificate));
+
+		for (Entry<X509Certificate, Boolean> entry : retVal.entrySet())
+		{
+			if (entry.getValue())
+			{
+	        	final StringBuilder builder = new StringBuilder("Certificate is revoked ").append("\r\n\tDN: ").append(entry.getKey().getSubjectDN());
+	     		builder.append("\r\n\tSerial Number: ").append(entry.getKey().getSerialNumber().toString(16));  
+	     		LOGGER.warn(builder.toString());
+			}
+		}
+		
+		return retVal;
+	}
+	
+	/**
+	 * Gets the OCSP responder URLs listed in the authority information access extension of a certificate.
+	 * @param certificate The certificate.
+	 * @return The responder URLs.  Returns an empty collection if the certificate does not list a responder.
+	 */
+	protected Collection<String> getResponderURLs(X509Certificate certificate)
+	{
+		final AuthorityInfoAccessOCSPLocExtentionField field = new AuthorityInfoAccessOCSPLocExtentionField(false);
+		try
+		{
+			field.injectReferenceValue(certificate);
+			final Collection<String> urls = field.getPolicyValue().getPolicyValue();
+			if (urls != null)
+				return urls;
+		}
+		catch (Exception e)
+		{
+			LOGGER.warn("Unable to read OCSP responder locations from certificate " + certificate.getSubjectX500Principal(), e);
+		}
+		
+		return Collections.emptyList();
+	}
+	
+	/**
+	 * Finds the certificate that issued a certificate.  Issuers added with {@link #addIssuerCertificates(Collection)} are searched first followed
+	 * by the caIssuers URLs of the certificate's authority information access extension.
+	 * @param certificate The certificate.
+	 * @return The issuer of the certificate or null if the issuer cannot be found.
+	 */
+	protected X509Certificate findIssuer(X509Certificate certificate)
+	{
+		final Collection<X509Certificate> candidates = knownIssuers.get(certificate.getIssuerX500Principal());
+		if (candidates != null)
+		{
+			synchronized (candidates)
+			{
+				for (X509Certificate candidate : candidates)
+					if (isIssuer(certificate, candidate))
+						return candidate;
+			}
+		}
+		
+		for (String url : AIACertificateCache.getCAIssuerURLs(certificate))
+		{
+			try
+			{
+				final Collection<X509Certificate> downloaded = downloadIssuerCertificates(url);
+				for (X509Certificate candidate : downloaded)
+				{
+					if (isIssuer(certificate, candidate))
+					{
+						addIssuerCertificates(Arrays.asList(candidate));
+						return candidate;
+					}
+				}
+			}
+			catch (Exception e)
+			{
+				LOGGER.warn("Issuer certificate cannot be resolved from AIA extension (URL: " + url + ")", e);
+			}
+		}
+		
+		return null;
+	}
+	
+	/**
+	 * Gets the certificates referenced by a caIssuers URL.  Certificates are served from the shared {@link AIACertificateCache} when available.
+	 * @param url The caIssuers URL.
+	 * @return The certificates referenced by the URL.
+	 * @throws Exception Thrown if the certificates cannot be downloaded.
+	 */
+	protected Collection<X509Certificate> downloadIssuerCertificates(String url) throws Exception
+	{
+		final AIACertificateCache aiaCache = AIACertificateCache.getInstance();
+		
+		return (aiaCache != null) ? aiaCache.getCertificates(url) : AIACertificateCache.downloadCertificates(url);
+	}
+	
+	/*
+	 * Determines if a candidate certificate issued a certificate
+	 */
+	private static boolean isIssuer(X509Certificate certificate, X509Certificate candidate)
+	{
+		if (!certificate.getIssuerX500Principal().equals(candidate.getSubjectX500Principal()))
+			return false;
+		
+		try
+		{
+			certificate.verify(candidate.getPublicKey(), CryptoExtensions.getJCEProviderName());
+			return true;
+		}
+		catch (Exception e)
+		{
+			return false;
+		}
+	}
+	
+	/*
+	 * Creates the OCSP certificate id of a certificate
+	 */
+	private static CertificateID createCertificateID(X509Certificate certificate, X509Certificate issuer)
+	{
+		try
+		{
+			return new CertificateID(CertificateID.HASH_SHA1, issuer, certificate.getSerialNumber(), CryptoExtensions.getJCEProviderName());
+		}
+		///CLOVER:OFF
+		catch (Exception e)
+		{
+			LOGGER.warn("Failed to create OCSP certificate id for certificate " + certificate.getSubjectX500Principal(), e);
+			return null;
+		}
+		///CLOVER:ON
+	}
+	
+	/**
+	 * Creates the cache key of a certificate id.
+	 * @param certId The certificate id.
+	 * @return The cache key made up of the issuer name hash, issuer key hash, and serial number.
+	 */
+	protected static String createKey(CertificateID certId)
+	{
+		return new String(Hex.encodeHex(certId.getIssuerNameHash())) + ":" + new String(Hex.encodeHex(certId.getIssuerKeyHash())) + ":" + 
+				certId.getSerialNumber().toString(16);
+	}
+	
+	/*
+	 * Gets a cached certificate status
+	 */
+	private Boolean getCachedStatus(String key)
+	{
+		final Boolean retVal = (cache == null) ? null : (Boolean)cache.get(key);
+		if (retVal == null)
+			misses.incrementAndGet();
+		else
+			hits.incrementAndGet();
+		
+		return retVal;
+	}
+	
+	/*
+	 * Caches a certificate status until the response's next update date, the response reaches the maximum age, or the cache TTL
+	 */
+	private void putCachedStatus(String key, boolean revoked, Date thisUpdate, Date nextUpdate)
+	{
+		if (cache == null)
+			return;
+		
+		try
+		{
+			final IElementAttributes eattributes = cache.getDefaultElementAttributes().copy();
+			long ttl = eattributes.getMaxLifeSeconds();
+			if (nextUpdate != null)
+				ttl = Math.min(ttl, (nextUpdate.getTime() - System.currentTimeMillis()) / 1000);
+			ttl = Math.min(ttl, (thisUpdate.getTime() + maxResponseAge * 1000L - System.currentTimeMillis()) / 1000);
+			
+			if (ttl <= 0)
+				return;
+			
+			eattributes.setMaxLifeSeconds(ttl);
+			cache.put(key, Boolean.valueOf(revoked), eattributes);
+		}
+		catch (CacheException e)
+		{
+			LOGGER.warn("Failed to cache OCSP certificate status.", e);
+		}
+	}
+	
+	/*
+	 * Sends a single request for all certificates in a group and caches the returned statuses.  Statuses that
+	 * are unknown or could not be verified are not in the returned map.
+	 */
+	private Map<CertificateID, Boolean> queryResponder(RequestGroup group)
+	{
+		final Map<CertificateID, Boolean> retVal = new HashMap<CertificateID, Boolean>();
+		
+		try
+		{
+			final OCSPReqGenerator generator = new OCSPReqGenerator();
+			for (CertificateID certId : group.certIds.values())
+				generator.addRequest(certId);
+			
+			responderRequests.incrementAndGet();
+			final byte[] responseBytes = sendRequest(group.responderURL, generator.generate().getEncoded());
+			
+			final OCSPResp response = new OCSPResp(responseBytes);
+			if (response.getStatus() != OCSPRespStatus.SUCCESSFUL)
+			{
+				LOGGER.warn("OCSP responder " + group.responderURL + " returned status " + response.getStatus());
+				return retVal;
+			}
+			
+			final BasicOCSPResp basicResponse = (BasicOCSPResp)response.getResponseObject();
+			if (!verifyResponse(basicResponse, group.issuer))
+			{
+				LOGGER.warn("OCSP response from " + group.responderURL + " is not signed by the issuer or an authorized responder.");
+				return retVal;
+			}
+			
+			final Date now = new Date();
+			for (SingleResp singleResp : basicResponse.getResponses())
+			{
+				final CertificateID certId = singleResp.getCertID();
+				if (!group.certIds.containsValue(certId))
+					continue;
+				
+				if (singleResp.getNextUpdate() != null && singleResp.getNextUpdate().before(now))
+					continue;
+				
+				// replayed or pre-produced responses that are too old, and responses from a responder whose clock is ahead, are not trusted
+				final Date thisUpdate = singleResp.getThisUpdate();
+				if (thisUpdate == null || thisUpdate.after(now) || (now.getTime() - thisUpdate.getTime()) > maxResponseAge * 1000L)
+				{
+					LOGGER.warn("OCSP response from " + group.responderURL + " for serial number " + certId.getSerialNumber().toString(16) + 
+							" has an invalid this update date " + thisUpdate);
+					continue;
+				}
+				
+				final Object status = singleResp.getCertStatus();
+				final Boolean revoked;
+				if (status == null)
+					revoked = Boolean.FALSE; // null is the GOOD status
+				else if (status instanceof RevokedStatus)
+					revoked = Boolean.TRUE;
+				else
+					continue; // unknown
+				
+				retVal.put(certId, revoked);
+				putCachedStatus(createKey(certId), revoked, thisUpdate, singleResp.getNextUpdate());
+			}
+		}
+		catch (Exception e)
+		{
+			LOGGER.warn("OCSP request to " + group.responderURL + " failed.", e);
+		}
+		
+		return retVal;
+	}
+	
+	/*
+	 * Verifies that a response is signed by the issuer or by a responder certificate that is issued by the issuer and authorized for
+	 * OCSP signing
+	 */
+	private boolean verifyResponse(BasicOCSPResp response, X509Certificate issuer)
+	{
+		final String provider = CryptoExtensions.getJCEProviderName();
+		try
+		{
+			if (response.verify(issuer.getPublicKey(), provider))
+				return true;
+		}
+		catch (Exception e)
+		{
+			/* no-op... try delegated responders */
+		}
+		
+		try
+		{
+			final X509Certificate[] responderCerts = response.getCerts(provider);
+			if (responderCerts == null)
+				return false;
+			
+			for (X509Certificate responderCert : responderCerts)
+			{
+				final List<String> eku = responderCert.getExtendedKeyUsage();
+				if (eku == null || !eku.contains(OCSP_SIGNING_EKU) || !isIssuer(responderCert, issuer))
+					continue;
+				
+				responderCert.checkValidity();
+				if (response.verify(responderCert.getPublicKey(), provider))
+					return true;
+			}
+		}
+		catch (Exception e)
+		{
+			LOGGER.warn("Failed to verify OCSP responder certificate.", e);
+		}
+		
+		return false;
+	}
+	
+	/**
+	 * Sends an OCSP request to a responder using HTTP POST.
+	 * @param responderURL The URL of the responder.
+	 * @param request The DER encoded OCSP request.
+	 * @return The DER encoded OCSP response.
+	 * @throws Exception Thrown if the request fails.
+	 */
+	protected byte[] sendRequest(String responderURL, byte[] request) throws Exception
+	{
+		final HttpURLConnection connection = (HttpURLConnection)new URL(responderURL).openConnection();
+		connection.setConnectTimeout(OCSP_CONNECT_TIMEOUT);
+		connection.setReadTimeout(OCSP_READ_TIMEOUT);
+		connection.setDoOutput(true);
+		connection.setRequestMethod("POST");
+		connection.setRequestProperty("Content-Type", "application/ocsp-request");
+		connection.setRequestProperty("Accept", "application/ocsp-response");
+		
+		OutputStream outStream = null;
+		InputStream inStream = null;
+		try
+		{
+			outStream = connection.getOutputStream();
+			outStream.write(request);
+			outStream.flush();
+			
+			if (connection.getResponseCode() != HttpURLConnection.HTTP_OK)
+				throw new IllegalStateException("OCSP responder returned HTTP status " + connection.getResponseCode());
+			
+			inStream = connection.getInputStream();
+			return IOUtils.toByteArray(inStream);
+		}
+		finally
+		{
+			IOUtils.closeQuietly(outStream);
+			IOUtils.closeQuietly(inStream);
+			connection.disconnect();
+		}
+	}
+	
+	/**
+	 * Removes all certificate statuses from the cache.
+	 */
+	public void flush()
+	{
+		if (cache == null)
+			return;
+		
+		try
+		{
+			cache.clear();
+		}
+		///CLOVER:OFF
+		catch (CacheException e)
+		{
+			LOGGER.warn("Failed to flush OCSP response cache.", e);
+		}
+		///CLOVER:ON
+	}
+	
+	/**
+	 * Gets the number of certificate statuses served from the cache.
+	 * @return The number of certificate statuses served from the cache.
+	 */
+	public long getCacheHitCount()
+	{
+		return hits.get();
+	}
+	
+	/**
+	 * Gets the number of certificate statuses not found in the cache.
+	 * @return The number of certificate statuses not found in the cache.
+	 */
+	public long getCacheMissCount()
+	{
+		return misses.get();
+	}
+	
+	/**
+	 * Gets the number of requests sent to OCSP responders.
+	 * @return The number of requests sent to OCSP responders.
+	 */
+	public long getResponderRequestCount()
+	{
+		return responderRequests.get();
+	}
+	
+	/*
+	 * Certificates checked with a single request to a responder
+	 */
+	private static class RequestGroup
+	{
+		final String responderURL;
+		final X509Certificate issuer;
+		final Map<X509Certificate, CertificateID> certIds = new LinkedHashMap<X509Certificate, CertificateID>();
+		
+		RequestGroup(String responderURL, X509Certificate issuer)
+		{
+			this.responderURL = responderURL;
+			this.issuer = issuer;
+		}
+	}
+	
+	/**
+	 * Default cache policy for the OCSP response cache.  Settings are read from the options manager.
+	 * @author agent
+	 * @since 2.3
+	 */
+	public static class DefaultOCSPCachePolicy implements CertStoreCachePolicy
+	{
+		protected final int maxItems;
+		protected final int subjectTTL;
+		
+		public DefaultOCSPCachePolicy()
+		{
+			OptionsParameter param = OptionsManager.getInstance().getParameter(OptionsParameter.OCSP_MAX_CACHE_SIZE);
+			maxItems =  OptionsParameter.getParamValueAsInteger(param, DEFAULT_MAX_CACHE_ITEMS); 
+			
+			param = OptionsManager.getInstance().getParameter(OptionsParameter.OCSP_CACHE_TTL);
+			subjectTTL =  OptionsParameter.getParamValueAsInteger(param, DEFAULT_TTL); 
+		}
+		
+		public int getMaxItems() 
+		{
+			return maxItems;
+		}
+
+		public int getSubjectTTL() 
+		{
+			return subjectTTL;
+		}
+	}
+}
@@ -0,0 +1,643 @@
+/*
+Copyright (c) 2010, NHIN Direct Project
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+
+Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer
+in the documentation and/or other materials provided with the distribution.  Neither the name of the The NHIN Direct Project (nhindirect.org).
+nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS
+BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF
+THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package org.nhindirect.stagent.cert.impl;
+
+import java.io.File;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509CRL;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.bouncycastle.asn1.x509.CRLDistPoint;
+import org.bouncycastle.asn1.x509.DistributionPoint;
+import org.bouncycastle.asn1.x509.X509Extensions;
+import org.nhindirect.stagent.CryptoExtensions;
+import org.nhindirect.stagent.NHINDException;
+import org.nhindirect.stagent.cert.RevocationManager;
+import org.nhindirect.stagent.options.OptionsManager;
+import org.nhindirect.stagent.options.OptionsParameter;
+
+/**
+ * Revocation manager that checks certificates against CRLs without blocking on the network once a distribution point is known.
+ * <p>
+ * Each distribution point's CRL is held strongly in memory as a {@link CRLSerialIndex} up to the number of distribution points
+ * specified by the {@link OptionsParameter#CRL_MAX_CACHE_SIZE} option.  Revocation checks are binary searches of the index and do not take
+ * a lock.  CRLs are refreshed on a background thread ahead of their next update date ({@link OptionsParameter#CRL_REFRESH_AHEAD}) using
+ * conditional requests (If-Modified-Since and If-None-Match), so the message processing thread only fetches a CRL the first time a distribution
+ * point is seen or if a background refresh could not replace an expired CRL.  Concurrent fetches of the same distribution point are
+ * coalesced into a single download.
+ * <p>
+ * Downloaded CRLs are written to the same file cache used by {@link CRLRevocationManager} along with a {@link MappedCRLSerialIndex} index file.
+ * On first use after a restart the index file is memory mapped, so the CRL does not need to be parsed.
+ * <p>
+ * The agent uses this manager only if the {@link OptionsParameter#CRL_REFRESH_ENABLED} option is set.
+ * @author agent
+ * @since 2.3
+ */
+public class RefreshingCRLRevocationManager implements RevocationManager
+{
+	private static final Log LOGGER = LogFactory.getFactory().getInstance(RefreshingCRLRevocationManager.class);
+	
+	private static final int CRL_CONNECT_TIMEOUT = 3000;
+	
+	private static final int CRL_READ_TIMEOUT = 60000;
+	
+	protected static final int DEFAULT_REFRESH_AHEAD = 300; // 5 minutes
+	
+	protected static final int DEFAULT_REFRESH_RETRY_INTERVAL = 60; // 1 minute
+	
+	protected static final int DEFAULT_REFRESH_INTERVAL = 3600; // 1 hour... used when a CRL has no next update date
+	
+	protected static final int DEFAULT_MAX_CACHE_SIZE = 1000;
+	
+	protected static RefreshingCRLRevocationManager INSTANCE;
+	
+	protected final ConcurrentMap<String, DistributionPointEntry> entries;
+	
+	protected final ConcurrentMap<String, FutureTask<CRLSerialIndex>> inflightFetches;
+	
+	protected final ScheduledExecutorService refreshExecutor;
+	
+	protected final CertificateFactory certificateFactory;
+	
+	protected final int refreshAhead;
+	
+	protected final int retryInterval;
+	
+	protected final int maxCacheSize;
+	
+	/**
+	 * Gets the shared instance of the revocation manager.
+	 * @return The shared instance of the revocation manager.
+	 */
+	public static synchronized RefreshingCRLRevocationManager getInstance()
+	{
+		if (INSTANCE == null)
+			INSTANCE = new RefreshingCRLRevocationManager();
+		
+		return INSTANCE;
+	}
+	
+	/**
+	 * Default constructor.  Refresh intervals and the cache size are taken from the options manager.
+	 */
+	public RefreshingCRLRevocationManager()
+	{
+		this(OptionsParameter.getParamValueAsInteger(OptionsManager.getInstance().getParameter(OptionsParameter.CRL_REFRESH_AHEAD), DEFAULT_REFRESH_AHEAD),
+				OptionsParameter.getParamValueAsInteger(OptionsManager.getInstance().getParameter(OptionsParameter.CRL_REFRESH_RETRY_INTERVAL), 
+						DEFAULT_REFRESH_RETRY_INTERVAL),
+				OptionsParameter.getParamValueAsInteger(OptionsManager.getInstance().getParameter(OptionsParameter.CRL_MAX_CACHE_SIZE), DEFAULT_MAX_CACHE_SIZE));
+	}
+	
+	/**
+	 * Constructor
+	 * @param refreshAhead The number of seconds before a CRL's next update date that the CRL is refreshed.
+	 * @param retryInterval The number of seconds to wait before retrying a failed or unmodified refresh.
+	 * @param maxCacheSize The maximum number of distribution points held in memory.
+	 */
+	public RefreshingCRLRevocationManager(int refreshAhead, int retryInterval, int maxCacheSize)
+	{
+		CryptoExtensions.registerJCEProviders();
+		
+		this.refreshAhead = refreshAhead;
+		this.retryInterval = Math.max(1, retryInterval);
+		this.maxCacheSize = Math.max(1, maxCacheSize);
+		
+		entries = new ConcurrentHashMap<String, DistributionPointEntry>();
+		inflightFetches = new ConcurrentHashMap<String, FutureTask<CRLSerialIndex>>();
+		
+		final ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, new RefreshThreadFactory());
+		executor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+		refreshExecutor = executor;
+		
+		try
+		{
+			certificateFactory = CertificateFactory.getInstance("X.509", CryptoExtensions.getJCEProviderName());
+		}
+		///CLOVER:OFF
+		catch (Exception e)
+		{
+			throw new NHINDException("Failed to create certificate factory for CRL management", e);
+		}
+		///CLOVER:ON
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public boolean isRevoked(X509Certificate certificate)
+	{
+		if (certificate == null)
+			return false;
+		
+		for (String distPointURL : getDistributionPointURLs(certificate))
+		{
+			final CRLSerialIndex index = getCRLIndex(distPointURL);
+			if (index != null)
+			{
+				// do we need to check the list from each CRL, or is each dist point identical?
+				if (index.isRevoked(certificate.getSerialNumber()))
+				{
+		        	final StringBuilder builder = new StringBuilder("Certificate is revoked by CRL ").append("\r\n\tDN: ").append(certificate.getSubjectDN());
+		     		builder.append("\r\n\tSerial Number: ").append(certificate.getSerialNumber().toString(16));  
+		     		LOGGER.warn(builder.toString());
+					return true;
+				}
+				
+				return false;
+			}
+		}
+		
+		final StringBuilder builder = new StringBuilder("Cannot find a CRL for certificate.").append("\r\n\tDN: ").append(certificate.getSubjectDN());
+		builder.append("\r\n\tSerial Number: ").append(certificate.getSerialNumber().toString(16));        
+    	LOGGER.warn(builder.toString());
+		
+		return false;
+	}
+	
+	/**
+	 * Gets the CRL distribution point URLs of a certificate.
+	 * @param certificate The certificate.
+	 * @return The distribution point URLs in the order they appear in the certificate.  Returns an empty collection if the certificate 
+	 * does not have a CRL distribution point extension.
+	 */
+	protected Collection<String> getDistributionPointURLs(X509Certificate certificate)
+	{
+		final Collection<String> retVal = new ArrayList<String>();
+		try
+		{
+			final CRLDistPoint distPoints = CRLDistPoint.getInstance(CRLRevocationManager.getExtensionValue(certificate,
+            		X509Extensions.CRLDistributionPoints.getId()));
+			
+			if (distPoints != null)
+			{
+				for (DistributionPoint distPoint : distPoints.getDistributionPoints())
+				{
+                	String distPointURL = distPoint.getDistributionPoint().getName().toString();
+
+                    if (distPointURL.startsWith("General")) 
+                    {
+                    	// get the actual URL associated with the name
+                    	distPointURL = getNameString(distPointURL);
+                    }
+                    
+                    retVal.add(distPointURL);
+				}
+			}
+		}
+		catch (Exception e)
+		{
+            if (LOGGER.isWarnEnabled()) 
+                LOGGER.warn("Unable to handle CDP CRL(s): " + e.getMessage());
+		}
+		
+		return retVal;
+	}
+	
+    /**
+     * Get the URI from the standardized generalNameString.
+     * @param generalNameString The general name string.
+     * @return A URI.
+     */
+	protected String getNameString(String generalNameString)
+	{
+		return CRLRevocationManager.parseNameString(generalNameString);
+	}
+	
+	/**
+	 * Gets the index of the CRL for a distribution point.  The index is served from memory if it is present and not past its next update date.
+	 * Otherwise the CRL is loaded from the file cache or downloaded from the distribution point.  An expired index is never returned; if
+	 * the CRL cannot be downloaded again, null is returned so the next distribution point is checked.
+	 * @param distPointURL The distribution point URL.
+	 * @return The index of the distribution point's CRL or null if the CRL could not be obtained.
+	 */
+	protected CRLSerialIndex getCRLIndex(String distPointURL)
+	{
+		if (distPointURL == null || distPointURL.trim().length() == 0)
+			return null;
+		
+		final long now = System.currentTimeMillis();
+		
+		final DistributionPointEntry entry = entries.get(distPointURL);
+		if (entry != null)
+		{
+			entry.lastAccess = now;
+			if (!entry.index.isExpired(new Date(now)))
+				return entry.index;
+			
+			// the CRL is expired and a background refresh has not replaced it
+		}
+		
+		final CRLSerialIndex index = fetchCoalesced(distPointURL, false);
+		
+		// a conditional background refresh that was already in flight hands back the expired index if the CRL was not modified
+		if (entry != null && index == entry.index)
+			return null;
+		
+		return index;
+	}
+	
+	/**
+	 * Fetches the CRL for a distribution point coalescing concurrent requests for the same distribution point into a single fetch.
+	 * @param distPointURL The distribution point URL.
+	 * @param conditional Indicates if the CRL should only be downloaded if it has changed since it was last fetched.
+	 * @return The index of the distribution point's CRL or null if the CRL could not be obtained.
+	 */
+	protected CRLSerialIndex fetchCoalesced(final String distPointURL, final boolean conditional)
+	{
+    	final FutureTask<CRLSerialIndex> fetchTask = new FutureTask<CRLSerialIndex>(new Callable<CRLSerialIndex>()
+		{
+			public CRLSerialIndex call() throws Exception
+			{
+				return fetch(distPointURL, conditional);
+			}
+		});
+    	
+    	FutureTask<CRLSerialIndex> inflightTask = inflightFetches.putIfAbsent(distPointURL, fetchTask);
+    	if (inflightTask == null)
+    	{
+    		inflightTask = fetchTask;
+    		try
+    		{
+    			fetchTask.run();
+    		}
+    		finally
+    		{
+    			inflightFetches.remove(distPointURL, fetchTask);
+    		}
+    	}
+    	
+		try
+		{
+			return inflightTask.get();
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new NHINDException("Interrupted while waiting for CRL from " + distPointURL, e);
+		}
+		catch (ExecutionException e)
+		{
+			if (e.getCause() instanceof RuntimeException)
+				throw (RuntimeException)e.getCause();
+			
+			throw new NHINDException("", e);
+		}
+	}
+	
+	/**
+	 * Fetches the CRL for a distribution point and stores its index.  If the distribution point is not in memory, the file cache is 
+	 * tried first.
+	 * @param distPointURL The distribution point URL.
+	 * @param conditional Indicates if the CRL should only be downloaded if it has changed since it was last fetched.
+	 * @return The index of the distribution point's CRL or null if the CRL could not be obtained.
+	 */
+	protected CRLSerialIndex fetch(String distPointURL, boolean conditional)
+	{
+		final DistributionPointEntry existing = entries.get(distPointURL);
+		
+		if (existing == null)
+		{
+			final DistributionPointEntry cached = loadCacheFile(distPointURL);
+			if (cached != null)
+			{
+				store(cached);
+				return cached.index;
+			}
+		}
+		
+		final DistributionPointEntry downloaded = download(distPointURL, conditional ? existing : null);
+		if (downloaded == null)
+		{
+			// keep serving what we have until it expires and try again later
+			if (existing != null && entries.get(distPointURL) == existing)
+				scheduleRefresh(existing, retryInterval * 1000L);
+			
+			return null;
+		}
+		
+		if (downloaded == existing)
+		{
+			// not modified
+			existing.fetchedAt = System.currentTimeMillis();
+			scheduleRefresh(existing, getRefreshDelay(existing));
+			
+			return existing.index;
+		}
+
+		store(downloaded);
+		return downloaded.index;
+	}
+	
+	/*
+	 * Loads a non expired CRL index from the file cache.  The memory mapped index file is preferred; the CRL is only parsed
+	 * if the index file is missing, stale, or corrupt, in which case the index file is rebuilt.
+	 */
+	private DistributionPointEntry loadCacheFile(String distPointURL)
+	{
+		final String uriFileName = CRLRevocationManager.getCacheFileName(distPointURL);
+		if (uriFileName.isEmpty())
+			return null;
+		
+		final File cacheFile = new File(uriFileName);
+		if (!cacheFile.exists())
+			return null;
+		
+		CRLSerialIndex index = loadIndexFile(cacheFile);
+		
+		if (index == null)
+		{
+			InputStream fileInStream = null;
+			try
+			{
+				fileInStream = FileUtils.openInputStream(cacheFile);
+				final X509CRL crl = (X509CRL)certificateFactory.generateCRL(fileInStream);
+				if (crl == null)
+					return null;
+				
+				index = CRLSerialIndex.create(crl);
+				CRLRevocationManager.writeCRLIndexFile(cacheFile, crl);
+			}
+			catch (Throwable t)
+			{
+				LOGGER.warn("Failed to load CRL from cache file " + uriFileName, t);
+				return null;
+			}
+			finally
+			{
+				IOUtils.closeQuietly(fileInStream);
+			}
+		}
+		
+		if (index.isExpired(new Date()))
+			return null;
+		
+		// the validators of the original download are not known, so the first refresh is unconditional
+		return new DistributionPointEntry(distPointURL, index, null, 0, 0);
+	}
+	
+	/*
+	 * Maps the index file of a cache file if it exists and is at least as new as the cache file
+	 */
+	private CRLSerialIndex loadIndexFile(File cacheFile)
+	{
+		final File indexFile = MappedCRLSerialIndex.getIndexFile(cacheFile);
+		if (!indexFile.exists() || indexFile.lastModified() < cacheFile.lastModified())
+			return null;
+		
+		try
+		{
+			return MappedCRLSerialIndex.open(indexFile);
+		}
+		catch (Throwable t)
+		{
+			LOGGER.warn("CRL index file " + indexFile.getAbsolutePath() + " could not be loaded.  The index will be rebuilt.", t);
+		}
+		
+		return null;
+	}
+	
+	/**
+	 * Downloads the CRL for a distribution point.
+	 * @param distPointURL The distribution point URL.
+	 * @param existing The current entry for the distribution point.  If not null, the download is conditional on the CRL having
+	 * changed since the entry was fetched.
+	 * @return A new entry for the distribution point, the existing entry if the CRL has not changed, or null if the CRL could not 
+	 * be downloaded.
+	 */
+	protected DistributionPointEntry download(String distPointURL, DistributionPointEntry existing)
+	{
+		InputStream crlInputStream = null;
+		try
+		{
+			final URLConnection urlConnection = new URL(distPointURL).openConnection();
+			urlConnection.setConnectTimeout(CRL_CONNECT_TIMEOUT);
+			urlConnection.setReadTimeout(CRL_READ_TIMEOUT);
+			
+			if (existing != null)
+			{
+				if (urlConnection instanceof HttpURLConnection)
+				{
+					if (existing.lastModified > 0)
+						urlConnection.setIfModifiedSince(existing.lastModified);
+					if (existing.etag != null)
+						urlConnection.setRequestProperty("If-None-Match", existing.etag);
+					
+					if (((HttpURLConnection)urlConnection).getResponseCode() == HttpURLConnection.HTTP_NOT_MODIFIED)
+						return existing;
+				}
+				else if (existing.lastModified > 0 && urlConnection.getLastModified() == existing.lastModified)
+				{
+					return existing;
+				}
+			}
+			
+			crlInputStream = urlConnection.getInputStream();
+			final X509CRL crl = (X509CRL)certificateFactory.generateCRL(crlInputStream);
+			if (crl == null)
+				return null;
+			
+			CRLRevocationManager.getInstance().writeCRLCacheFile(distPointURL, crl);
+			
+			return new DistributionPointEntry(distPointURL, CRLSerialIndex.create(crl), urlConnection.getHeaderField("ETag"), 
+					urlConnection.getLastModified(), System.currentTimeMillis());
+		}
+		catch (Throwable t)
+		{
+			LOGGER.warn("Unable to retrieve or parse CRL from URI " + distPointURL, t);
+		}
+		finally
+		{
+			IOUtils.closeQuietly(crlInputStream);
+		}
+		
+		return null;
+	}
+	
+	/*
+	 * Puts an entry in memory, evicts the least recently used entry if the cache is full, and schedules the entry's refresh
+	 */
+	private void store(DistributionPointEntry entry)
+	{
+		final DistributionPointEntry replaced = entries.put(entry.url, entry);
+		if (replaced != null)
+		{
+			entry.lastAccess = replaced.lastAccess;
+			replaced.cancelRefresh();
+		}
+		
+		while (entries.size() > maxCacheSize)
+		{
+			DistributionPointEntry eldest = null;
+			for (DistributionPointEntry candidate : entries.values())
+				if (candidate != entry && (eldest == null || candidate.lastAccess < eldest.lastAccess))
+					eldest = candidate;
+			
+			if (eldest == null)
+				break;
+			
+			if (entries.remove(eldest.url, eldest))
+				eldest.cancelRefresh();
+		}
+		
+		scheduleRefresh(entry, getRefreshDelay(entry));
+	}
+	
+	/*
+	 * Gets the time in milliseconds until the entry's CRL should be refreshed
+	 */
+	private long getRefreshDelay(DistributionPointEntry entry)
+	{
+		final Date nextUpdate = entry.index.getNextUpdate();
+		if (nextUpdate == null)
+			return DEFAULT_REFRESH_INTERVAL * 1000L;
+		
+		return Math.max(nextUpdate.getTime() - (refreshAhead * 1000L) - System.currentTimeMillis(), retryInterval * 1000L);
+	}
+	
+	/*
+	 * Schedules a background refresh of an entry replacing any refresh already scheduled
+	 */
+	private void scheduleRefresh(final DistributionPointEntry entry, long delay)
+	{
+		if (refreshExecutor.isShutdown())
+			return;
+		
+		entry.cancelRefresh();
+		entry.refreshTask = refreshExecutor.schedule(new Runnable()
+		{
+			public void run()
+			{
+				// don't refresh entries that have been evicted or replaced
+				if (entries.get(entry.url) != entry)
+					return;
+				
+				try
+				{
+					fetchCoalesced(entry.url, true);
+				}
+				catch (Throwable t)
+				{
+					LOGGER.warn("Background refresh of CRL " + entry.url + " failed.", t);
+				}
+			}
+		}, delay, TimeUnit.MILLISECONDS);
+	}
+	
+	/**
+	 * Gets the indexes of all CRLs currently held in memory keyed by distribution point URL.
+	 * @return The indexes of all CRLs currently held in memory.
+	 */
+	public Map<String, CRLSerialIndex> getCRLIndexes()
+	{
+		final Map<String, CRLSerialIndex> retVal = new HashMap<String, CRLSerialIndex>();
+		for (DistributionPointEntry entry : entries.values())
+			retVal.put(entry.url, entry.index);
+		
+		return retVal;
+	}
+	
+	/**
+	 * Removes all CRLs from memory and cancels their background refreshes.  The file cache is not modified.
+	 */
+	public void flush()
+	{
+		for (DistributionPointEntry entry : entries.values())
+			entry.cancelRefresh();
+		
+		entries.clear();
+	}
+	
+	/**
+	 * Stops background refreshes.  The manager continues to serve CRLs held in memory, but expired CRLs are fetched on the calling thread.
+	 */
+	public void shutdown()
+	{
+		refreshExecutor.shutdownNow();
+	}
+	
+	/**
+	 * In memory state of a single CRL distribution point.
+	 * @author agent
+	 * @since 2.3
+	 */
+	protected static class DistributionPointEntry
+	{
+		protected final String url;
+		protected final CRLSerialIndex index;
+		protected final String etag;
+		protected final long lastModified;
+		protected volatile long fetchedAt;
+		protected volatile long lastAccess;
+		protected volatile ScheduledFuture<?> refreshTask;
+		
+		public DistributionPointEntry(String url, CRLSerialIndex index, String etag, long lastModified, long fetchedAt)
+		{
+			this.url = url;
+			this.index = index;
+			this.etag = etag;
+			this.lastModified = lastModified;
+			this.fetchedAt = fetchedAt;
+			this.lastAccess = System.currentTimeMillis();
+		}
+		
+		public void cancelRefresh()
+		{
+			final ScheduledFuture<?> task = refreshTask;
+			if (task != null)
+				task.cancel(false);
+		}
+	}
+	
+	private static class RefreshThreadFactory implements ThreadFactory
+	{
+		private final AtomicInteger threadCount = new AtomicInteger();
+
+		public Thread newThread(Runnable r)
+		{
+			final Thread thread = new Thread(r, "CRLRefresh-" + threadCount.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		}
+	}
+}
@@ -0,0 +1,179 @@
+/* 
+Copyright (c) 2010, NHIN Direct Project
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+
+Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer 
+in the documentation and/or other materials provided with the distribution.  Neither the name of the The NHIN Direct Project (nhindirect.org). 
+nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, 
+THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS 
+BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE 
+GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, 
+STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF 
+THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+
+package org.nhindirect.stagent.cert.tools;
+
+///CLOVER:OFF
+import java.io.File;
+import java.io.FileFilter;
+import java.io.InputStream;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509CRL;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.nhindirect.stagent.CryptoExtensions;
+import org.nhindirect.stagent.cert.impl.CRLSerialIndex;
+import org.nhindirect.stagent.cert.impl.MappedCRLSerialIndex;
+import org.nhindirect.stagent.options.OptionsManager;
+import org.nhindirect.stagent.options.OptionsParameter;
+
+/**
+ * Application class for rebuilding the memory mapped revoked serial indexes of the CRL file cache.  Each CRL cache file in the cache directory is
+ * parsed and its index file is rewritten.  This is useful after upgrading from a version that did not write index files or if index files 
+ * have been deleted.
+ * 
+ * @author agent
+ * @since 2.3
+ */
+public class RebuildCRLIndex 
+{
+	private static final String DEFAULT_CRL_CACHE_LOCATION = "CrlCache";
+	
+	private static final String CACHE_FILE_EXTENSION = ".cache";
+	
+	private static File cacheDir;
+	
+	/*
+	 * Load BC the JCS provider.
+	 */
+	static
+	{
+    	CryptoExtensions.registerJCEProviders();
+	}
+	
+	/**
+	 * Main entry point when running as an application.  Use the -help option for usage.
+	 * @param argv Application arguments.
+	 */
+	public static void main (String[] argv)
+	{
+		// Check parameters
+        for (int i = 0; i < argv.length; i++)
+        {
+            String arg = argv[i];
+
+            // Options
+            if (!arg.startsWith("-"))
+            {
+                System.err.println("Error: Unexpected argument [" + arg + "]\n");
+                printUsage();
+                System.exit(-1);
+            }
+            else if (arg.equalsIgnoreCase("-cacheDir"))
+            {
+                if (i == argv.length - 1 || argv[i + 1].startsWith("-"))
+                {
+                    System.err.println("Error: Missing CRL cache directory.");
+                    System.exit(-1);
+                }
+                
+                cacheDir = new File(argv[++i]);
+            }
+            else if (arg.equals("-help"))
+            {
+                printUsage();
+                System.exit(-1);
+            }            
+            else
+            {
+                System.err.println("Error: Unknown argument " + arg + "\n");
+                printUsage();
+                System.exit(-1);
+            }
+        }
+        
+        if (cacheDir == null)
+        {
+            final OptionsParameter param = OptionsManager.getInstance().getParameter(OptionsParameter.CRL_CACHE_LOCATION);
+            cacheDir = new File((param == null || param.getParamValue() == null || param.getParamValue().isEmpty()) ?
+            		DEFAULT_CRL_CACHE_LOCATION : param.getParamValue());
+        }
+
+        if (!cacheDir.exists() || !cacheDir.isDirectory())
+        {
+        	System.out.println("CRL cache directory " + cacheDir.getAbsolutePath() + " does not exist.");
+        	System.exit(-1);
+        }
+        
+        final int count = rebuildIndexes(cacheDir);
+        System.out.println("Rebuilt " + count + " CRL index file(s) in " + cacheDir.getAbsolutePath());
+        
+        System.exit(0);
+    }
+	
+	/**
+	 * Rebuilds the index file of every CRL cache file in a directory.
+	 * @param dir The CRL cache directory.
+	 * @return The number of index files that were written.
+	 */
+	public static int rebuildIndexes(File dir)
+	{
+		final File[] cacheFiles = dir.listFiles(new FileFilter()
+		{
+			public boolean accept(File file)
+			{
+				return file.isFile() && file.getName().endsWith(CACHE_FILE_EXTENSION);
+			}
+		});
+		
+		if (cacheFiles == null)
+			return 0;
+		
+		int retVal = 0;
+		for (File cacheFile : cacheFiles)
+		{
+			InputStream fileInStream = null;
+			try
+			{
+				fileInStream = FileUtils.openInputStream(cacheFile);
+				final X509CRL crl = (X509CRL)CertificateFactory.getInstance("X.509", CryptoExtensions.getJCEProviderName()).generateCRL(fileInStream);
+				
+				MappedCRLSerialIndex.write(MappedCRLSerialIndex.getIndexFile(cacheFile), CRLSerialIndex.create(crl));
+				++retVal;
+			}
+			catch (Exception e)
+			{
+				System.out.println("Could not rebuild index for CRL cache file " + cacheFile.getName() + ": " + e.getMessage());
+			}
+			finally
+			{
+				IOUtils.closeQuietly(fileInStream);
+			}
+		}
+		
+		return retVal;
+	}
+	
+	/*
+	 * Outputs the usage to the command line
+	 */
+    private static void printUsage()
+    {
+        StringBuffer use = new StringBuffer();
+        use.append("Usage:\n");
+        use.append("java RebuildCRLIndex (options)...\n\n");
+        use.append("options:\n");
+        use.append("-cacheDir   Directory        Optional CRL cache directory to rebuild.\n");
+        use.append("            Default: CRL cache location option or CrlCache\n\n");
+
+        System.err.println(use);        
+    }
+}
+///CLOVER:ON
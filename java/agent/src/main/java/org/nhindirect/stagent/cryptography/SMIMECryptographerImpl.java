@@ -31,6 +31,7 @@ import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.lang.reflect.Constructor;
 import java.security.cert.CertStore;
 import java.security.cert.CollectionCertStoreParameters;
@@ -41,6 +42,8 @@ import javax.mail.internet.ContentType;
 import javax.mail.internet.InternetHeaders;
 import javax.mail.internet.MimeBodyPart;
 import javax.mail.internet.MimeMultipart;
+import javax.mail.internet.MimePart;
+import javax.mail.internet.MimeUtility;
 import javax.mail.internet.ParseException;
 
 import org.bouncycastle.asn1.ASN1EncodableVector;
@@ -54,6 +57,7 @@ import org.bouncycastle.asn1.cms.CMSAttributes;
 import org.bouncycastle.asn1.smime.SMIMECapabilitiesAttribute;
 import org.bouncycastle.asn1.smime.SMIMECapability;
 import org.bouncycastle.asn1.smime.SMIMECapabilityVector;
+import org.bouncycastle.cms.CMSEnvelopedDataStreamGenerator;
 import org.bouncycastle.cms.CMSSignedData;
 import org.bouncycastle.cms.RecipientId;
 import org.bouncycastle.cms.RecipientInformationStore;
@@ -61,6 +65,7 @@ import org.bouncycastle.cms.SignerInformation;
 import org.bouncycastle.mail.smime.CMSProcessableBodyPart;
 import org.bouncycastle.mail.smime.SMIMEEnveloped;
 import org.bouncycastle.mail.smime.SMIMEEnvelopedGenerator;
+import org.bouncycastle.mail.smime.SMIMEException;
 import org.nhindirect.stagent.CryptoExtensions;
 import org.nhindirect.stagent.NHINDException;
 import org.nhindirect.stagent.SignatureValidationException;
@@ -84,6 +89,7 @@ import org.nhindirect.stagent.parser.EntitySerializer;
 import org.apache.commons.codec.binary.Base64;
 import org.apache.commons.codec.binary.StringUtils;
 import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.output.CloseShieldOutputStream;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
@@ -106,6 +112,8 @@ public class SMIMECryptographerImpl implements Cryptographer
 	
     public final static SMIMECryptographerImpl Default = new SMIMECryptographerImpl();
     
+    protected static final int DEFAULT_STREAMING_THRESHOLD = 1048576; // 1 MB
+    
     protected EncryptionAlgorithm m_encryptionAlgorithm;
     protected DigestAlgorithm m_digestAlgorithm;
     protected boolean m_includeEpilogue = true;
@@ -113,6 +121,9 @@ public class SMIMECryptographerImpl implements Cryptographer
     protected DirectRecipientInformationFactory decFactory;
     protected boolean enforceStrongEncryption;
     protected boolean enforceStrongDigests;
+    protected boolean streamingEnabled;
+    protected int streamingThreshold;
+    protected File streamingLocation;
     
 	private boolean m_logDigest = false;
 	
@@ -137,6 +148,8 @@ public class SMIMECryptographerImpl implements Cryptographer
         this.decFactory = new SplitDirectRecipientInformationFactory();
 		
 		this.m_logDigest = OptionsParameter.getParamValueAsBoolean(param, false);
+		
+		initStreamingOptions();
     }
 
     /**
@@ -162,6 +175,8 @@ public class SMIMECryptographerImpl implements Cryptographer
         this.decFactory = (decFactory == null) ? new SplitDirectRecipientInformationFactory() : decFactory;
 		
 		this.m_logDigest = OptionsParameter.getParamValueAsBoolean(param, false);
+		
+		initStreamingOptions();
     }
     
     /**
@@ -183,6 +198,8 @@ public class SMIMECryptographerImpl implements Cryptographer
         this.enforceStrongEncryption = OptionsParameter.getParamValueAsBoolean(param, true);
 		
 		this.m_logDigest = OptionsParameter.getParamValueAsBoolean(param, false);
+		
+		initStreamingOptions();
     }
 
     /**
@@ -207,6 +224,24 @@ public class SMIMECryptographerImpl implements Cryptographer
         this.enforceStrongEncryption = OptionsParameter.getParamValueAsBoolean(param, true);
 		
 		this.m_logDigest = OptionsParameter.getParamValueAsBoolean(param, false);
+		
+		initStreamingOptions();
+    }
+    
+    /*
+     * Reads the streaming mode options.  Shared by all constructors.
+     */
+    private void initStreamingOptions()
+    {
+    	OptionsParameter param = OptionsManager.getInstance().getParameter(OptionsParameter.CRYPTOGRAHPER_SMIME_STREAMING);
+    	this.streamingEnabled = OptionsParameter.getParamValueAsBoolean(param, false);
+    	
+    	param = OptionsManager.getInstance().getParameter(OptionsParameter.CRYPTOGRAHPER_SMIME_STREAMING_THRESHOLD);
+    	this.streamingThreshold = OptionsParameter.getParamValueAsInteger(param, DEFAULT_STREAMING_THRESHOLD);
+    	
+    	param = OptionsManager.getInstance().getParameter(OptionsParameter.CRYPTOGRAHPER_SMIME_STREAMING_LOCATION);
+    	this.streamingLocation = new File((param == null || param.getParamValue() == null || param.getParamValue().isEmpty()) ? 
+    			System.getProperty("java.io.tmpdir") : param.getParamValue());
     }
     
     /**
@@ -339,6 +374,61 @@ public class SMIMECryptographerImpl implements Cryptographer
     	return this.enforceStrongEncryption;
     }
     
+    /**
+     * Indicates if messages are signed and encrypted in streaming mode.  In streaming mode entities are serialized and encrypted through buffers 
+     * that are written to disk once they exceed the streaming threshold instead of full message byte arrays.
+     * @return True if streaming mode is enabled.  False otherwise.
+     */
+    public boolean isStreamingEnabled()
+    {
+    	return this.streamingEnabled;
+    }
+    
+    /**
+     * Sets if messages are signed and encrypted in streaming mode.
+     * @param value True if streaming mode is enabled.  False otherwise.
+     */
+    public void setStreamingEnabled(boolean value)
+    {
+    	this.streamingEnabled = value;
+    }
+    
+    /**
+     * Gets the size in bytes above which streaming mode buffers are written to disk.
+     * @return The size in bytes above which streaming mode buffers are written to disk.
+     */
+    public int getStreamingThreshold()
+    {
+    	return this.streamingThreshold;
+    }
+    
+    /**
+     * Sets the size in bytes above which streaming mode buffers are written to disk.
+     * @param value The size in bytes above which streaming mode buffers are written to disk.
+     */
+    public void setStreamingThreshold(int value)
+    {
+    	this.streamingThreshold = value;
+    }
+    
+    /**
+     * Gets the directory where streaming mode buffers are written.
+     * @return The directory where streaming mode buffers are written.
+     */
+    public File getStreamingLocation()
+    {
+    	return this.streamingLocation;
+    }
+    
+    /**
+     * Sets the directory where streaming mode buffers are written.
+     * @param value The directory where streaming mode buffers are written.
+     */
+    public void setStreamingLocation(File value)
+    {
+    	this.streamingLocation = value;
+    }
+    
     /**
      * Indicates if the the Epilogue part of a multipart entity should be used to generate the message signature.
      * @return True if the the Epilogue part of a multipart entity should be used to generate the message signature.  False otherwise.
@@ -385,6 +475,9 @@ public class SMIMECryptographerImpl implements Cryptographer
      */
     public MimeEntity encrypt(MimeMultipart mmEntity, Collection<X509Certificate> encryptingCertificates)
     {
+    	if (this.streamingEnabled)
+    		return this.encrypt(createStreamedEntity(mmEntity), encryptingCertificates);
+    	
     	MimeEntity entToEncrypt = null;
     	
     	ByteArrayOutputStream oStream = new ByteArrayOutputStream();
@@ -433,6 +526,9 @@ public class SMIMECryptographerImpl implements Cryptographer
         {
             throw new IllegalArgumentException();
         }
+        
+        if (this.streamingEnabled)
+        	return this.createStreamedEncryptedEntity(entity, encryptingCertificates);
         	
         MimeBodyPart partToEncrypt = entity;                
         MimeBodyPart encryptedPart =  this.encrypt(partToEncrypt, encryptingCertificates);
@@ -497,6 +593,136 @@ public class SMIMECryptographerImpl implements Cryptographer
         
         return retVal;
     }
+    
+    /*
+     * Streaming mode encryption.  The content part is written through a CMS enveloped data stream generator and base64 encoder directly
+     * into a spillable buffer, and the resulting entity references the buffer instead of holding a copy of the encrypted content.  The 
+     * entity headers match the entity created by the SMIMEEnvelopedGenerator.
+     */
+    private MimeEntity createStreamedEncryptedEntity(MimeBodyPart bodyPart, Collection<X509Certificate> encryptingCertificates)
+    {
+        if (bodyPart == null || encryptingCertificates == null || encryptingCertificates.size() == 0)
+        {
+            throw new IllegalArgumentException();
+        }
+        
+        if (LOGGER.isDebugEnabled())
+        {	
+        	writeDebugEntity("preEncypt_", bodyPart);
+        } 
+        
+        final CMSEnvelopedDataStreamGenerator gen = new CMSEnvelopedDataStreamGenerator();
+        for(X509Certificate cert : encryptingCertificates)
+        	gen.addKeyTransRecipient(cert);
+        
+        final SpillableOutputStream buffer = createStreamingBuffer();
+        MimeEntity retVal = null;
+        try
+        {
+        	final MimeBodyPart content = new StreamingContentGenerator().makeContentBodyPart(bodyPart);
+        	
+        	writeHeader(buffer, MimeStandard.ContentTypeHeader, SMIMEStandard.EncryptedContentTypeHeaderValue);
+        	writeHeader(buffer, MimeStandard.ContentDispositionHeader, "attachment; filename=\"smime.p7m\"");
+        	writeHeader(buffer, MimeStandard.ContentDescriptionHeader, "S/MIME Encrypted Message");
+        	writeHeader(buffer, MimeStandard.ContentTransferEncodingHeader, MimeStandard.TransferEncodingBase64);
+        	buffer.write(MimeStandard.CRLF.getBytes("ASCII"));
+        	
+        	final String encryAlgOID = this.m_encryptionAlgorithm.getOID();
+        	final OutputStream encodedStream = MimeUtility.encode(new CloseShieldOutputStream(buffer), MimeStandard.TransferEncodingBase64);
+        	final OutputStream encryptedStream = gen.open(encodedStream, encryAlgOID, 
+        			CryptoExtensions.getJCEProviderNameForTypeAndAlgorithm("Cipher", encryAlgOID));
+        	
+        	content.writeTo(encryptedStream);
+        	encryptedStream.close();
+        	encodedStream.close();
+        	
+        	retVal = new MimeEntity(buffer.getSharedInputStream());
+        }
+        catch (Exception e)
+        {
+        	buffer.discard();
+        	throw new MimeException(MimeError.Unexpected, e);
+        }
+        
+        if (LOGGER.isDebugEnabled())
+        {	
+        	writeDebugEntity("postEncypt_", retVal);
+        } 
+        
+        return retVal;
+    }
+    
+    /*
+     * Serializes a multipart entity with its content type header into a spillable buffer and creates an entity that references the buffer.
+     */
+    private MimeEntity createStreamedEntity(MimeMultipart mmEntity)
+    {
+    	final SpillableOutputStream buffer = createStreamingBuffer();
+    	try
+    	{
+    		writeHeader(buffer, MimeStandard.ContentTypeHeader, mmEntity.getContentType());
+    		buffer.write(MimeStandard.CRLF.getBytes("ASCII"));
+    		mmEntity.writeTo(buffer);
+    		
+    		return new MimeEntity(buffer.getSharedInputStream());
+    	}    	
+    	catch (Exception e)
+    	{
+    		buffer.discard();
+    		throw new MimeException(MimeError.InvalidMimeEntity, e);
+    	}
+    }
+    
+    /*
+     * Serializes an entity into a spillable buffer and creates an entity that references the buffer.
+     */
+    private MimeEntity createStreamedBodyPart(MimePart entity)
+    {
+    	final SpillableOutputStream buffer = createStreamingBuffer();
+    	try
+    	{
+    		EntitySerializer.Default.serialize(entity, buffer);
+    		
+    		return new MimeEntity(buffer.getSharedInputStream());
+    	}    	
+    	catch (MimeException e)
+    	{
+    		buffer.discard();
+    		throw e;
+    	}
+    	catch (Exception e)
+    	{
+    		buffer.discard();
+    		throw new MimeException(MimeError.InvalidMimeEntity, e);
+    	}
+    }
+    
+    /**
+     * Creates the buffer that holds serialized and encrypted entities in streaming mode.
+     * @return A buffer that is written to disk once it exceeds the streaming threshold.
+     */
+    protected SpillableOutputStream createStreamingBuffer()
+    {
+    	return new SpillableOutputStream(this.streamingThreshold, this.streamingLocation);
+    }
+    
+    private static void writeHeader(OutputStream stream, String name, String value) throws IOException
+    {
+    	stream.write((name + ": " + value + MimeStandard.CRLF).getBytes("ASCII"));
+    }
+    
+    /*
+     * Exposes the SMIME generator's content part preparation so streamed entities are encrypted with the same content transfer
+     * headers as entities encrypted by the SMIMEEnvelopedGenerator.
+     */
+    private static class StreamingContentGenerator extends SMIMEEnvelopedGenerator
+    {
+    	@Override
+    	public MimeBodyPart makeContentBodyPart(MimeBodyPart content) throws SMIMEException
+    	{
+    		return super.makeContentBodyPart(content);
+    	}
+    }
 
     //-----------------------------------------------------
     //
@@ -705,9 +931,18 @@ public class SMIMECryptographerImpl implements Cryptographer
             throw new IllegalArgumentException();
         }
 
-        byte[] messageBytes = EntitySerializer.Default.serializeToBytes(entity);     // Serialize message out as ASCII encoded...
+        MimeMultipart mm = null;
+        if (this.streamingEnabled)
+        {
+        	// serialize the message into a spillable buffer and sign the content directly from the buffer
+        	mm = this.createSignatureEntity(createStreamedBodyPart(entity), signingCertificates);
+        }
+        else
+        {
+        	byte[] messageBytes = EntitySerializer.Default.serializeToBytes(entity);     // Serialize message out as ASCII encoded...
      
-        MimeMultipart mm = this.createSignatureEntity(messageBytes, signingCertificates);
+        	mm = this.createSignatureEntity(messageBytes, signingCertificates);
+        }
         SignedEntity retVal = null;
         
         try
@@ -724,12 +959,32 @@ public class SMIMECryptographerImpl implements Cryptographer
     }
 
     protected MimeMultipart createSignatureEntity(byte[] entity, Collection<X509Certificate> signingCertificates)
+    {    	
+    	MimeBodyPart signedContent = null;
+    	try
+    	{
+    		signedContent = new MimeBodyPart(new ByteArrayInputStream(entity));
+    	}   
+    	catch (MessagingException e)
+    	{
+    		throw new MimeException(MimeError.InvalidMimeEntity, e);  		
+    	}
+    	
+    	return this.createSignatureEntity(signedContent, signingCertificates);
+    }
+    
+    /**
+     * Creates a multipart/signed entity containing the signed content and a detached signature.  The content is only streamed through the
+     * signature digest, so a content part that references a shared stream is not copied into memory.
+     * @param signedContent The content that will be signed.
+     * @param signingCertificates The certificates used to sign the content.
+     * @return A multipart/signed entity containing the signed content and the signature.
+     */
+    protected MimeMultipart createSignatureEntity(MimeBodyPart signedContent, Collection<X509Certificate> signingCertificates)
     {    	
     	MimeMultipart retVal = null;
     	try
     	{
-	        final MimeBodyPart signedContent = new MimeBodyPart(new ByteArrayInputStream(entity));
-	    		        
 	    	final ASN1EncodableVector signedAttrs = new ASN1EncodableVector();
 	    	final SMIMECapabilityVector caps = new SMIMECapabilityVector();
 	
@@ -1025,6 +1280,45 @@ public class SMIMECryptographerImpl implements Cryptographer
     }    
     
     
+    /*
+     * Streaming mode version of the debug message writers.  Serializes the entity directly to the file.
+     */
+    private void writeDebugEntity(String fileNamePrefix, MimePart entity)
+    {
+    	String path = System.getProperty("user.dir") + "/tmp";
+    	File tmpDir = new File(path);
+    	
+    	if (!tmpDir.exists())
+    	{
+    		if (!tmpDir.mkdir())
+    			return;
+    	}
+    	
+    	File outFile = new File(path + "/" + fileNamePrefix + System.currentTimeMillis() + ".eml");
+    	
+    	BufferedOutputStream oStream = null;
+    	try
+    	{
+        	if (!outFile.exists())
+        	{
+        		if (!outFile.createNewFile())
+        			return;
+        	}
+        	oStream = new BufferedOutputStream(new FileOutputStream(outFile));
+        	
+        	EntitySerializer.Default.serialize(entity, oStream);
+    		oStream.flush();
+    	}
+    	catch (Exception e)
+    	{
+    		e.printStackTrace();
+    	}
+    	finally
+    	{
+    		IOUtils.closeQuietly(oStream);
+    	}
+    }
+    
     private void writePreEncypt(byte message[])
     {
     	String path = System.getProperty("user.dir") + "/tmp";
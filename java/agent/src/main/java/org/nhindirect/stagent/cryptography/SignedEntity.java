@@ -66,15 +66,24 @@ public class SignedEntity
 	        	
 	        	String contentType = mm.getBodyPart(i).getContentType();
 	        	
-        		ByteArrayOutputStream bos = new ByteArrayOutputStream();
-        	    mm.getBodyPart(i).writeTo(bos);
-        	    bos.flush(); 	    
-
-                InputStream stream = new ByteArrayInputStream(bos.toByteArray());
-
-                MimeEntity ent = new MimeEntity(stream);
-        	            	
-                IOUtils.closeQuietly(bos);	
+	        	MimeEntity ent = null;
+	        	if (mm.getBodyPart(i) instanceof MimeEntity)
+	        	{
+	        		// already an entity (such as a streamed entity that references its content instead of holding it)... no need to copy it
+	        		ent = (MimeEntity)mm.getBodyPart(i);
+	        	}
+	        	else
+	        	{
+	        		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+	        	    mm.getBodyPart(i).writeTo(bos);
+	        	    bos.flush(); 	    
+	
+	                InputStream stream = new ByteArrayInputStream(bos.toByteArray());
+	
+	                ent = new MimeEntity(stream);
+	        	            	
+	                IOUtils.closeQuietly(bos);	
+	        	}
                 
 	        	if (contentType.contains("application/pkcs7-signature") 
 	        			|| contentType.contains("application/x-pkcs7-signature"))
@@ -0,0 +1,136 @@
+/*
+Copyright (c) 2010, NHIN Direct Project
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+
+Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer
+in the documentation and/or other materials provided with the distribution.  Neither the name of the The NHIN Direct Project (nhindirect.org).
+nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS
+BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF
+THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package org.nhindirect.stagent.cryptography;
+
+import java.io.File;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.UUID;
+
+import javax.mail.internet.SharedInputStream;
+import javax.mail.util.SharedByteArrayInputStream;
+import javax.mail.util.SharedFileInputStream;
+
+import org.apache.commons.io.output.DeferredFileOutputStream;
+
+/**
+ * Output stream used by the streaming mode of the {@link SMIMECryptographerImpl} to hold serialized and encrypted entities.  Data is held in memory
+ * until it exceeds a threshold and is then written to a temporary file.  Once written, the data is read back as a {@link javax.mail.internet.SharedInputStream}
+ * so MIME parts created from it reference the buffer instead of copying its content into the heap.
+ * <p>
+ * The temporary file is deleted as soon as it is opened for reading; the open file keeps the data readable until none of the streams 
+ * read from it are referenced.  If the platform does not allow deleting open files, the file is deleted when the JVM exits.
+ * @author agent
+ * @since 2.3
+ */
+public class SpillableOutputStream extends DeferredFileOutputStream
+{
+	/**
+	 * Constructs a stream that spills to a file in the provided directory.
+	 * @param threshold The number of bytes held in memory before the data is written to disk.
+	 * @param directory The directory where the temporary file is created.
+	 */
+	public SpillableOutputStream(int threshold, File directory)
+	{
+		super(threshold, new File(directory, "smime-" + UUID.randomUUID().toString() + ".tmp"));
+	}
+	
+	/**
+	 * Closes the stream and returns a shared input stream over the written data.
+	 * @return A shared input stream over the data written to this stream.
+	 * @throws IOException
+	 */
+	public InputStream getSharedInputStream() throws IOException
+	{
+		close();
+		
+		if (isInMemory())
+			return new SharedByteArrayInputStream(getData());
+		
+		final File file = getFile();
+		final InputStream retVal = new SpilledInputStream(new SharedFileInputStream(file));
+		if (!file.delete())
+			file.deleteOnExit();
+		
+		return retVal;
+	}
+	
+	/**
+	 * Closes the stream and removes the temporary file if one was created.  Used when the written data will not be read.
+	 */
+	public void discard()
+	{
+		try
+		{
+			close();
+		}
+		catch (IOException e) {/* no-op */}
+		
+		if (!isInMemory() && getFile().exists() && !getFile().delete())
+			getFile().deleteOnExit();
+	}
+	
+	/**
+	 * Shared input stream over a spilled file.  Closing or finalizing the first SharedFileInputStream opened on a file closes the file for 
+	 * every stream created from it, so each stream created from this stream holds a reference to the first stream.  The file is closed 
+	 * once none of the streams are referenced.
+	 */
+	static class SpilledInputStream extends FilterInputStream implements SharedInputStream
+	{
+		protected final SharedFileInputStream root;
+		
+		SpilledInputStream(SharedFileInputStream root)
+		{
+			this(root, root);
+		}
+		
+		protected SpilledInputStream(SharedFileInputStream root, InputStream in)
+		{
+			super(in);
+			this.root = root;
+		}
+		
+		/**
+		 * {@inheritDoc}
+		 */
+		public long getPosition()
+		{
+			return ((SharedInputStream)in).getPosition();
+		}
+
+		/**
+		 * {@inheritDoc}
+		 */
+		public InputStream newStream(long start, long end)
+		{
+			return new SpilledInputStream(root, ((SharedInputStream)in).newStream(start, end));
+		}
+		
+		/**
+		 * Closes this stream.  The file is closed when none of the streams created from it are referenced.
+		 */
+		@Override
+		public void close() throws IOException
+		{
+			if (in != root)
+				in.close();
+		}
+	}
+}
@@ -78,6 +78,14 @@ public class OptionsManager
 		JVM_PARAMS.put(OptionsParameter.JCE_PROVIDER_CLASSES, "org.nhindirect.stagent.cryptography.JCEProviderClassNames");		
 		JVM_PARAMS.put(OptionsParameter.JCE_SENSITIVE_PROVIDER_CLASSES, "org.nhindirect.stagent.cryptography.JCESensitiveProviderClassNames");		
 		JVM_PARAMS.put(OptionsParameter.CRL_CACHE_LOCATION, "org.nhindirect.stagent.cert.CRLCacheLocation");
+		JVM_PARAMS.put(OptionsParameter.CRL_REFRESH_ENABLED, "org.nhindirect.stagent.cert.CRLRefreshEnabled");
+		JVM_PARAMS.put(OptionsParameter.CRL_REFRESH_AHEAD, "org.nhindirect.stagent.cert.CRLRefreshAhead");
+		JVM_PARAMS.put(OptionsParameter.CRL_REFRESH_RETRY_INTERVAL, "org.nhindirect.stagent.cert.CRLRefreshRetryInterval");
+		JVM_PARAMS.put(OptionsParameter.CRL_MAX_CACHE_SIZE, "org.nhindirect.stagent.cert.CRLMaxCacheSize");
+		JVM_PARAMS.put(OptionsParameter.OCSP_ENABLED, "org.nhindirect.stagent.cert.OCSPEnabled");
+		JVM_PARAMS.put(OptionsParameter.OCSP_MAX_CACHE_SIZE, "org.nhindirect.stagent.cert.OCSPMaxCacheSize");
+		JVM_PARAMS.put(OptionsParameter.OCSP_CACHE_TTL, "org.nhindirect.stagent.cert.OCSPCacheTTL");
+		JVM_PARAMS.put(OptionsParameter.OCSP_MAX_RESPONSE_AGE, "org.nhindirect.stagent.cert.OCSPMaxResponseAge");
 		
 		/*
 		 * DNS resolver parameters
@@ -88,6 +96,26 @@ public class OptionsManager
 		JVM_PARAMS.put(OptionsParameter.DNS_CERT_RESOLVER_USE_TCP, "org.nhindirect.stagent.cert.dnsresolver.ServerUseTCP");
 		JVM_PARAMS.put(OptionsParameter.DNS_CERT_RESOLVER_MAX_CACHE_SIZE, "org.nhindirect.stagent.cert.dnsresolver.MaxCacheSize");
 		JVM_PARAMS.put(OptionsParameter.DNS_CERT_RESOLVER_CACHE_TTL, "org.nhindirect.stagent.cert.dnsresolver.CacheTTL");
+		JVM_PARAMS.put(OptionsParameter.DNS_CERT_RESOLVER_NEGATIVE_CACHE_TTL, "org.nhindirect.stagent.cert.dnsresolver.NegativeCacheTTL");
+		
+		/*
+		 * Public cert resolution parameters
+		 */
+		JVM_PARAMS.put(OptionsParameter.PUBLIC_CERT_RESOLVER_THREADS, "org.nhindirect.stagent.cert.PublicCertResolverThreads");
+		JVM_PARAMS.put(OptionsParameter.PUBLIC_CERT_RESOLVER_DEADLINE, "org.nhindirect.stagent.cert.PublicCertResolverDeadline");
+		JVM_PARAMS.put(OptionsParameter.PUBLIC_CERT_RESOLVER_RACE, "org.nhindirect.stagent.cert.PublicCertResolverRace");
+		
+		/*
+		 * Trust chain validation parameters
+		 */
+		JVM_PARAMS.put(OptionsParameter.TRUST_CHAIN_VALIDATION_CACHE_MAX_SIZE, "org.nhindirect.stagent.trust.ValidationCacheMaxSize");
+		JVM_PARAMS.put(OptionsParameter.TRUST_CHAIN_VALIDATION_CACHE_TTL, "org.nhindirect.stagent.trust.ValidationCacheTTL");
+		JVM_PARAMS.put(OptionsParameter.TRUST_CHAIN_VALIDATION_CACHE_NEGATIVE_TTL, "org.nhindirect.stagent.trust.ValidationCacheNegativeTTL");
+		JVM_PARAMS.put(OptionsParameter.AIA_CACHE_MAX_SIZE, "org.nhindirect.stagent.cert.AIACacheMaxSize");
+		JVM_PARAMS.put(OptionsParameter.AIA_CACHE_TTL, "org.nhindirect.stagent.cert.AIACacheTTL");
+		JVM_PARAMS.put(OptionsParameter.AIA_CACHE_NEGATIVE_TTL, "org.nhindirect.stagent.cert.AIACacheNegativeTTL");
+		JVM_PARAMS.put(OptionsParameter.AIA_CACHE_LOCATION, "org.nhindirect.stagent.cert.AIACacheLocation");
+		JVM_PARAMS.put(OptionsParameter.POLICY_VERDICT_CACHE_MAX_SIZE, "org.nhindirect.stagent.policy.VerdictCacheMaxSize");
 		
 		/*
 		 * LDAP resolver parameters
@@ -109,6 +137,9 @@ public class OptionsManager
 		JVM_PARAMS.put(OptionsParameter.ENFORCE_STRONG_DIGESTS, "org.nhindirect.stagent.cryptographer.smime.EnforceStrongDigests");
 		JVM_PARAMS.put(OptionsParameter.ENFORCE_STRONG_ENCRYPTION, "org.nhindirect.stagent.cryptographer.smime.EnforceStrongEncryption");
 		JVM_PARAMS.put(OptionsParameter.CRYPTOGRAHPER_LOG_DIGESTS, "org.nhindirect.stagent.cryptographer.smime.LogDigests");
+		JVM_PARAMS.put(OptionsParameter.CRYPTOGRAHPER_SMIME_STREAMING, "org.nhindirect.stagent.cryptographer.smime.Streaming");
+		JVM_PARAMS.put(OptionsParameter.CRYPTOGRAHPER_SMIME_STREAMING_THRESHOLD, "org.nhindirect.stagent.cryptographer.smime.StreamingThreshold");
+		JVM_PARAMS.put(OptionsParameter.CRYPTOGRAHPER_SMIME_STREAMING_LOCATION, "org.nhindirect.stagent.cryptographer.smime.StreamingLocation");
 				
 		/*
 		 * Policy parameters
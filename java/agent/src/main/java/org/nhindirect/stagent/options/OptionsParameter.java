@@ -69,6 +69,59 @@ public class OptionsParameter
 	 */
 	public final static String CRL_CACHE_LOCATION = "CRL_CACHE_LOCATION";
 	
+	/**
+	 * Boolean value that indicates if CRLs are held as in memory serial number indexes and refreshed in the background before they expire.
+	 * If false, CRLs are checked with the {@link org.nhindirect.stagent.cert.impl.CRLRevocationManager}.  This is set to false by default.
+	 * <p><b>JVM Parameter/Options Name:</b> org.nhindirect.stagent.cert.CRLRefreshEnabled
+	 */
+	public final static String CRL_REFRESH_ENABLED = "CRL_REFRESH_ENABLED";
+	
+	/**
+	 * Integer value that specifies how many seconds before a CRL's next update date the CRL is refreshed in the background.
+	 * <p><b>JVM Parameter/Options Name:</b> org.nhindirect.stagent.cert.CRLRefreshAhead
+	 */
+	public final static String CRL_REFRESH_AHEAD = "CRL_REFRESH_AHEAD";
+	
+	/**
+	 * Integer value that specifies the number of seconds to wait before retrying a failed or unmodified background CRL refresh.
+	 * <p><b>JVM Parameter/Options Name:</b> org.nhindirect.stagent.cert.CRLRefreshRetryInterval
+	 */
+	public final static String CRL_REFRESH_RETRY_INTERVAL = "CRL_REFRESH_RETRY_INTERVAL";
+	
+	/**
+	 * Integer value that specifies the maximum number of CRL distribution points whose revocation lists are held in memory.  The least recently
+	 * used distribution point is dropped when the limit is reached.
+	 * <p><b>JVM Parameter/Options Name:</b> org.nhindirect.stagent.cert.CRLMaxCacheSize
+	 */
+	public final static String CRL_MAX_CACHE_SIZE = "CRL_MAX_CACHE_SIZE";
+	
+	/**
+	 * Boolean value that indicates if certificate revocation is checked with OCSP before falling back to CRLs.  OCSP is only used for 
+	 * certificates that list an OCSP responder in their authority information access extension.  This is set to false by default.
+	 * <p><b>JVM Parameter/Options Name:</b> org.nhindirect.stagent.cert.OCSPEnabled
+	 */
+	public final static String OCSP_ENABLED = "OCSP_ENABLED";
+	
+	/**
+	 * Integer value that specifies the maximum number of OCSP certificate statuses held in the OCSP response cache.
+	 * <p><b>JVM Parameter/Options Name:</b> org.nhindirect.stagent.cert.OCSPMaxCacheSize
+	 */
+	public final static String OCSP_MAX_CACHE_SIZE = "OCSP_MAX_CACHE_SIZE";
+	
+	/**
+	 * Integer value that specifies the maximum time to live in seconds of an OCSP certificate status in the OCSP response cache.  Statuses also
+	 * expire at the next update date of the OCSP response.
+	 * <p><b>JVM Parameter/Options Name:</b> org.nhindirect.stagent.cert.OCSPCacheTTL
+	 */
+	public final static String OCSP_CACHE_TTL = "OCSP_CACHE_TTL";
+	
+	/**
+	 * Integer value that specifies the maximum age in seconds of an OCSP response's this update date.  Older responses, and responses
+	 * whose this update date is in the future, are ignored and the certificate is checked with CRLs instead.  This is set to 604800 (7 days) by default.
+	 * <p><b>JVM Parameter/Options Name:</b> org.nhindirect.stagent.cert.OCSPMaxResponseAge
+	 */
+	public final static String OCSP_MAX_RESPONSE_AGE = "OCSP_MAX_RESPONSE_AGE";
+	
 	/**
 	 * String value that sets the servers that will be used for DNS cert resolution.  Be default
 	 * the DNS resolver uses the machine's local DNS setting, but this allows for it to be overridden.  If multiple servers
@@ -108,6 +161,86 @@ public class OptionsParameter
  	 */
     public final static String DNS_CERT_RESOLVER_CACHE_TTL = "DNS_CERT_RESOLVER_CACHE_TTL"; 
     
+ 	/**
+ 	 * Integer value specifies the time to live in seconds that a negative DNS certificate lookup (NXDOMAIN or NXRRSET) is held in the
+ 	 * DNS certificate cache when the TTL cannot be determined from the zone's SOA record.
+ 	 * <p><b>JVM Parameter/Options Name:</b> org.nhindirect.stagent.cert.dnsresolver.NegativeCacheTTL
+ 	 */
+    public final static String DNS_CERT_RESOLVER_NEGATIVE_CACHE_TTL = "DNS_CERT_RESOLVER_NEGATIVE_CACHE_TTL"; 
+    
+ 	/**
+ 	 * Integer value that specifies the maximum number of threads the agent uses to resolve the public certificates of a message's recipients concurrently.
+ 	 * A value of 1 or less resolves recipients one after another on the message processing thread.  This is set to 1 by default.
+ 	 * <p><b>JVM Parameter/Options Name:</b> org.nhindirect.stagent.cert.PublicCertResolverThreads
+ 	 */
+    public final static String PUBLIC_CERT_RESOLVER_THREADS = "PUBLIC_CERT_RESOLVER_THREADS"; 
+    
+ 	/**
+ 	 * Integer value that specifies the maximum amount of time in milliseconds the agent waits for the public certificates of all of a message's
+ 	 * recipients to be resolved.  Recipients that are not resolved in time are treated as having no certificates.
+ 	 * <p><b>JVM Parameter/Options Name:</b> org.nhindirect.stagent.cert.PublicCertResolverDeadline
+ 	 */
+    public final static String PUBLIC_CERT_RESOLVER_DEADLINE = "PUBLIC_CERT_RESOLVER_DEADLINE"; 
+    
+ 	/**
+ 	 * Boolean value that indicates if all configured public certificate resolvers (such as DNS and LDAP) are queried at the same time for each address
+ 	 * instead of one after another.  The first resolver to answer wins.  This is set to false by default.
+ 	 * <p><b>JVM Parameter/Options Name:</b> org.nhindirect.stagent.cert.PublicCertResolverRace
+ 	 */
+    public final static String PUBLIC_CERT_RESOLVER_RACE = "PUBLIC_CERT_RESOLVER_RACE"; 
+    
+ 	/**
+ 	 * Integer value specifies the maximum number of trust chain validation results that can be held in the trust chain validation cache.
+ 	 * <p><b>JVM Parameter/Options Name:</b> org.nhindirect.stagent.trust.ValidationCacheMaxSize
+ 	 */
+    public final static String TRUST_CHAIN_VALIDATION_CACHE_MAX_SIZE = "TRUST_CHAIN_VALIDATION_CACHE_MAX_SIZE"; 
+    
+ 	/**
+ 	 * Integer value specifies the maximum time to live in seconds of a trusted result in the trust chain validation cache.  Trusted results
+ 	 * also expire when the first certificate in the validated chain expires.  A value of 0 disables the cache.
+ 	 * <p><b>JVM Parameter/Options Name:</b> org.nhindirect.stagent.trust.ValidationCacheTTL
+ 	 */
+    public final static String TRUST_CHAIN_VALIDATION_CACHE_TTL = "TRUST_CHAIN_VALIDATION_CACHE_TTL"; 
+    
+ 	/**
+ 	 * Integer value specifies the time to live in seconds of an untrusted result in the trust chain validation cache.  A value of 0 prevents
+ 	 * untrusted results from being cached.
+ 	 * <p><b>JVM Parameter/Options Name:</b> org.nhindirect.stagent.trust.ValidationCacheNegativeTTL
+ 	 */
+    public final static String TRUST_CHAIN_VALIDATION_CACHE_NEGATIVE_TTL = "TRUST_CHAIN_VALIDATION_CACHE_NEGATIVE_TTL"; 
+    
+ 	/**
+ 	 * Integer value specifies the maximum number of AIA URLs whose certificates can be held in memory by the AIA certificate cache.
+ 	 * <p><b>JVM Parameter/Options Name:</b> org.nhindirect.stagent.cert.AIACacheMaxSize
+ 	 */
+    public final static String AIA_CACHE_MAX_SIZE = "AIA_CACHE_MAX_SIZE"; 
+    
+ 	/**
+ 	 * Integer value specifies the time to live in seconds of certificates downloaded from an AIA URL.
+ 	 * <p><b>JVM Parameter/Options Name:</b> org.nhindirect.stagent.cert.AIACacheTTL
+ 	 */
+    public final static String AIA_CACHE_TTL = "AIA_CACHE_TTL"; 
+    
+ 	/**
+ 	 * Integer value specifies the time to live in seconds of a failed download in the AIA certificate cache.  A value of 0 prevents
+ 	 * failed downloads from being cached.
+ 	 * <p><b>JVM Parameter/Options Name:</b> org.nhindirect.stagent.cert.AIACacheNegativeTTL
+ 	 */
+    public final static String AIA_CACHE_NEGATIVE_TTL = "AIA_CACHE_NEGATIVE_TTL"; 
+    
+	/**
+	 * String value that specifies the directory where certificates downloaded from AIA URLs are persisted.  Persisted certificates are used 
+	 * after a restart and when an AIA URL cannot be reached.  If not set, downloaded certificates are only held in memory.
+	 * <p><b>JVM Parameter/Options Name:</b> org.nhindirect.stagent.cert.AIACacheLocation
+	 */
+    public final static String AIA_CACHE_LOCATION = "AIA_CACHE_LOCATION"; 
+    
+ 	/**
+ 	 * Integer value specifies the maximum number of policy compliance verdicts held in the policy verdict cache.  A value of 0 disables the cache.
+ 	 * <p><b>JVM Parameter/Options Name:</b> org.nhindirect.stagent.policy.VerdictCacheMaxSize
+ 	 */
+    public final static String POLICY_VERDICT_CACHE_MAX_SIZE = "POLICY_VERDICT_CACHE_MAX_SIZE"; 
+    
  	/**
  	 * Integer value specifies the maximum number of certificates that can be held in the LDAP certificate cache.
  	 * <p><b>JVM Parameter/Options Name:</b> org.nhindirect.stagent.cert.ldapresolver.MaxCacheSize
@@ -179,6 +312,31 @@ public class OptionsParameter
 	 * <p><b>JVM Parameter/Options Name:</b> org.nhindirect.stagent.cryptographer.smime.LogDigests
      */
     public final static String CRYPTOGRAHPER_LOG_DIGESTS = "CRYPTOGRAHPER_LOG_DIGESTS";
+    
+    /**
+     * Boolean value that determines if the SMIME cryptographer signs and encrypts messages in streaming mode.  In streaming mode entities are 
+     * serialized and encrypted through buffers that are written to disk once they exceed the streaming threshold, so the heap used per message 
+     * stays bounded regardless of the size of the message.  This is set to false by default.
+     * 
+	 * <p><b>JVM Parameter/Options Name:</b> org.nhindirect.stagent.cryptographer.smime.Streaming
+     */
+    public final static String CRYPTOGRAHPER_SMIME_STREAMING = "CRYPTOGRAHPER_SMIME_STREAMING";
+    
+    /**
+     * Integer value that specifies the size in bytes above which streaming mode buffers are written to disk.  The default is 1048576 (1 MB).
+     * 
+	 * <p><b>JVM Parameter/Options Name:</b> org.nhindirect.stagent.cryptographer.smime.StreamingThreshold
+     */
+    public final static String CRYPTOGRAHPER_SMIME_STREAMING_THRESHOLD = "CRYPTOGRAHPER_SMIME_STREAMING_THRESHOLD";
+    
+    /**
+     * String value that specifies the directory where streaming mode buffers are written once they exceed the streaming threshold.  Buffers 
+     * contain unencrypted message content, so this should be a location that is only readable by the agent.  The default is the 
+     * java.io.tmpdir directory.
+     * 
+	 * <p><b>JVM Parameter/Options Name:</b> org.nhindirect.stagent.cryptographer.smime.StreamingLocation
+     */
+    public final static String CRYPTOGRAHPER_SMIME_STREAMING_LOCATION = "CRYPTOGRAHPER_SMIME_STREAMING_LOCATION";
  	/**
  	 * Boolean value that determines if the set of outgoing anchors can be used to trust incoming MDN and DSN messages.  This
  	 * is necessary to allow QoS to happen when messages are set to be outgoing only.
@@ -0,0 +1,363 @@
+/*
+Copyright (c) 2010, NHIN Direct Project
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+
+Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer
+in the documentation and/or other materials provided with the distribution.  Neither the name of the The NHIN Direct Project (nhindirect.org).
+nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS
+BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF
+THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package org.nhindirect.stagent.policy;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.lang.management.ManagementFactory;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.cert.X509Certificate;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.nhindirect.policy.PolicyExpression;
+import org.nhindirect.policy.PolicyFilter;
+import org.nhindirect.policy.PolicyProcessException;
+import org.nhindirect.policy.PolicyRequiredException;
+import org.nhindirect.stagent.NHINDException;
+import org.nhindirect.stagent.cert.Thumbprint;
+import org.nhindirect.stagent.options.OptionsManager;
+import org.nhindirect.stagent.options.OptionsParameter;
+
+/**
+ * Cache of policy compliance verdicts keyed by a digest of a policy expression and the thumbprint of the certificate checked against it.  
+ * Evaluating a policy is deterministic for a given expression and certificate, so a verdict can be reused for every message that 
+ * resolves the same certificate.
+ * <p>
+ * The expression digest is computed from the serialized form of the expression and does not depend on the instance holding the expression,
+ * so re-parsed copies of a policy share verdicts.  Verdicts of expressions that fail with a {@link PolicyProcessException} are not cached.  
+ * Policy resolvers {@link #flush() flush} the cache when their policy sets are replaced.
+ * <p>
+ * The cache is bounded; when it is full roughly a tenth of the verdicts are evicted.  Hit, miss, and eviction counts are published over JMX.
+ * @author agent
+ * @since 2.3
+ */
+public class PolicyVerdictCache implements PolicyVerdictCacheMBean
+{
+	private static final Log LOGGER = LogFactory.getFactory().getInstance(PolicyVerdictCache.class);
+	
+	private static final AtomicLong scopeSequence = new AtomicLong();
+	
+	// marks expressions that cannot be digested so they are not serialized again
+	private static final String NO_DIGEST = "";
+	
+	protected static final int DEFAULT_MAX_CAHCE_ITEMS = 10000;
+	
+	protected static PolicyVerdictCache INSTANCE;
+	
+	protected final int maxEntries;
+	protected final ConcurrentMap<String, Boolean> verdicts;
+	protected final Map<PolicyExpression, String> expressionDigests;
+	
+	protected final AtomicLong hits = new AtomicLong();
+	protected final AtomicLong misses = new AtomicLong();
+	protected final AtomicLong evictions = new AtomicLong();
+	
+	/**
+	 * Gets the shared instance of the cache.  The shared instance is registered as an MBean when it is created.
+	 * @return The shared instance of the cache.
+	 */
+	public static synchronized PolicyVerdictCache getInstance()
+	{
+		if (INSTANCE == null)
+		{
+			final OptionsParameter param = OptionsManager.getInstance().getParameter(OptionsParameter.POLICY_VERDICT_CACHE_MAX_SIZE);
+			INSTANCE = new PolicyVerdictCache(OptionsParameter.getParamValueAsInteger(param, DEFAULT_MAX_CAHCE_ITEMS));
+			INSTANCE.registerMBean();
+		}
+		
+		return INSTANCE;
+	}
+	
+	/**
+	 * Constructor
+	 * @param maxEntries The maximum number of verdicts held in the cache.  A value of 0 or less disables caching.
+	 */
+	public PolicyVerdictCache(int maxEntries)
+	{
+		this.maxEntries = maxEntries;
+		this.verdicts = new ConcurrentHashMap<String, Boolean>();
+		this.expressionDigests = Collections.synchronizedMap(new WeakHashMap<PolicyExpression, String>());
+	}
+	
+	/**
+	 * Creates a new scope identifier.  Callers use scopes to keep verdicts produced by different policy filters apart.
+	 * @return A new scope identifier.
+	 */
+	public static String createScope()
+	{
+		return Long.toString(scopeSequence.incrementAndGet());
+	}
+	
+	/**
+	 * Checks if a certificate complies with all of a collection of policy expressions.  Expressions are checked in order and checking stops
+	 * at the first expression the certificate does not comply with.  A certificate that is missing a field required by an expression 
+	 * does not comply with the expression.
+	 * @param filter The policy filter used to evaluate expressions whose verdicts are not cached.
+	 * @param cert The certificate to check.
+	 * @param expressions The policy expressions.
+	 * @return true if the certificate complies with all of the expressions.  false otherwise.
+	 * @throws PolicyProcessException Thrown if an expression cannot be evaluated.
+	 */
+	public static boolean isCompliant(PolicyFilter filter, X509Certificate cert, Collection<PolicyExpression> expressions) throws PolicyProcessException
+	{
+		for (PolicyExpression expression : expressions)
+			if (!isCompliant(filter, cert, expression))
+				return false;
+		
+		return true;
+	}
+	
+	/*
+	 * evaluates a single expression
+	 */
+	private static boolean isCompliant(PolicyFilter filter, X509Certificate cert, PolicyExpression expression) throws PolicyProcessException
+	{
+		try
+		{
+			return filter.isCompliant(cert, expression);
+		}
+		catch (PolicyRequiredException requiredException)
+		{
+			return false;
+		}
+	}
+	
+	/**
+	 * Checks if a certificate complies with all of a collection of policy expressions using cached verdicts where possible.  Verdicts are 
+	 * the same as the ones returned by {@link #isCompliant(PolicyFilter, X509Certificate, Collection)}.
+	 * @param scope The scope of the caller performing the check.
+	 * @param filter The policy filter used to evaluate expressions whose verdicts are not cached.
+	 * @param cert The certificate to check.
+	 * @param expressions The policy expressions.
+	 * @return true if the certificate complies with all of the expressions.  false otherwise.
+	 * @throws PolicyProcessException Thrown if an expression cannot be evaluated.
+	 */
+	public boolean isCompliant(String scope, PolicyFilter filter, X509Certificate cert, Collection<PolicyExpression> expressions) throws PolicyProcessException
+	{
+		if (maxEntries <= 0)
+			return isCompliant(filter, cert, expressions);
+		
+		String certThumbprint = null;
+		
+		for (PolicyExpression expression : expressions)
+		{
+			final String expressionDigest = getExpressionDigest(expression);
+			if (expressionDigest == null)
+			{
+				// can't be keyed, so just evaluate it
+				if (!isCompliant(filter, cert, expression))
+					return false;
+				
+				continue;
+			}
+			
+			if (certThumbprint == null)
+			{
+				try
+				{
+					certThumbprint = Thumbprint.toThumbprint(cert).toString();
+				}
+				catch (NHINDException e)
+				{
+					// can't be keyed, so just evaluate the rest of the expressions
+					LOGGER.warn("Could not create thumbprint of certificate.  Verdicts for the certificate will not be cached.", e);
+					return isCompliant(filter, cert, expressions);
+				}
+			}
+			
+			final String key = createKey(scope, expressionDigest, certThumbprint);
+			Boolean verdict = verdicts.get(key);
+			if (verdict == null)
+			{
+				misses.incrementAndGet();
+				
+				verdict = Boolean.valueOf(isCompliant(filter, cert, expression));
+				
+				if (verdicts.size() >= maxEntries)
+					evict();
+				
+				verdicts.put(key, verdict);
+			}
+			else
+				hits.incrementAndGet();
+			
+			if (!verdict.booleanValue())
+				return false;
+		}
+		
+		return true;
+	}
+	
+	/**
+	 * Creates the cache key for a verdict.
+	 * @param scope The scope of the caller performing the check.
+	 * @param expressionDigest The digest of the policy expression.
+	 * @param certThumbprint The thumbprint of the certificate.
+	 * @return The cache key.
+	 */
+	protected String createKey(String scope, String expressionDigest, String certThumbprint)
+	{
+		return scope + ":" + expressionDigest + ":" + certThumbprint;
+	}
+	
+	/**
+	 * Gets the digest of a policy expression.  Digests are computed once per expression instance.
+	 * @param expression The policy expression.
+	 * @return A hex encoded digest of the serialized expression.  Null if the expression cannot be serialized.
+	 */
+	public String getExpressionDigest(PolicyExpression expression)
+	{
+		String retVal = expressionDigests.get(expression);
+		if (retVal == null)
+		{
+			retVal = createExpressionDigest(expression);
+			expressionDigests.put(expression, (retVal == null) ? NO_DIGEST : retVal);
+		}
+		
+		return (NO_DIGEST.equals(retVal)) ? null : retVal;
+	}
+	
+	/*
+	 * digests the serialized form of the expression... the values injected into reference expressions are transient, so the digest
+	 * does not change after the expression is evaluated
+	 */
+	private static String createExpressionDigest(PolicyExpression expression)
+	{
+		try
+		{
+			final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			final ObjectOutputStream out = new ObjectOutputStream(bytes);
+			out.writeObject(expression);
+			out.close();
+			
+			final MessageDigest md = MessageDigest.getInstance("SHA-1");
+			return new String(Hex.encodeHex(md.digest(bytes.toByteArray())));
+		}
+		catch (IOException e)
+		{
+			LOGGER.warn("Could not create digest of policy expression.  Verdicts for the expression will not be cached.", e);
+		}
+		///CLOVER:OFF
+		catch (NoSuchAlgorithmException e)
+		{
+			LOGGER.warn("Could not create digest of policy expression.  Verdicts for the expression will not be cached.", e);
+		}
+		///CLOVER:ON
+		
+		return null;
+	}
+	
+	/*
+	 * makes room for roughly a tenth of the cache
+	 */
+	private void evict()
+	{
+		final int target = Math.max(0, maxEntries - Math.max(1, maxEntries / 10));
+		
+		final Iterator<String> iter = verdicts.keySet().iterator();
+		while (verdicts.size() > target && iter.hasNext())
+		{
+			iter.next();
+			iter.remove();
+			evictions.incrementAndGet();
+		}
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 */
+	public Long getHitCount()
+	{
+		return hits.get();
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 */
+	public Long getMissCount()
+	{
+		return misses.get();
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 */
+	public Long getEvictionCount()
+	{
+		return evictions.get();
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 */
+	public Integer getVerdictCount()
+	{
+		return verdicts.size();
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 */
+	public void flush()
+	{
+		verdicts.clear();
+		expressionDigests.clear();
+	}
+	
+	/*
+	 * Register the MBean
+	 */
+	private void registerMBean()
+	{
+		LOGGER.info("Registering PolicyVerdictCache MBean");
+		
+		final Class<?> clazz = this.getClass();
+		final StringBuilder objectNameBuilder = new StringBuilder(clazz.getPackage().getName());
+		objectNameBuilder.append(":type=").append(clazz.getSimpleName());
+				
+		try
+		{			
+			final StandardMBean mbean = new StandardMBean(this, PolicyVerdictCacheMBean.class);
+		
+			final MBeanServer mbeanServer = ManagementFactory.getPlatformMBeanServer();
+			mbeanServer.registerMBean(mbean, new ObjectName(objectNameBuilder.toString()));
+		}
+		catch (JMException e)
+		{
+			LOGGER.error("Unable to register the PolicyVerdictCache MBean", e);
+		}		
+	}
+}
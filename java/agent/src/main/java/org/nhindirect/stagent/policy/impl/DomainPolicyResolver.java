@@ -33,6 +33,7 @@ import javax.mail.internet.InternetAddress;
 import org.nhindirect.policy.PolicyExpression;
 import org.nhindirect.stagent.NHINDAddress;
 import org.nhindirect.stagent.policy.PolicyResolver;
+import org.nhindirect.stagent.policy.PolicyVerdictCache;
 
 /**
  * Certificate policy resolver that groups policies by email domain.  Each domain may have a unique set of policies.
@@ -71,7 +72,7 @@ public class DomainPolicyResolver implements PolicyResolver
      * Sets the map of domains to policies.
      * @param policies Map of email domains to policies.
      * @param incoming Indicates if the map should be applied to incoming or outgoing messages.  true is setting for incoming messages, false for 
-     * outgoing messages.
+     * outgoing messages.  Replacing a previously set map flushes the shared {@link PolicyVerdictCache}.
      */
 	public void setPolicies(Map<String, Collection<PolicyExpression>> policies, boolean incoming) 
 	{
@@ -80,6 +81,8 @@ public class DomainPolicyResolver implements PolicyResolver
 	
 		Map<String, Collection<PolicyExpression>> toPolicies;
 		
+		final boolean replacingPolicies = (incoming) ? this.incomingPolicies != null : this.outgoingPolicies != null;
+		
 		if (incoming)
 		{
 			this.incomingPolicies = new HashMap<String, Collection<PolicyExpression>>();
@@ -97,6 +100,10 @@ public class DomainPolicyResolver implements PolicyResolver
 		{
 			toPolicies.put(entry.getKey().toUpperCase(Locale.getDefault()), entry.getValue());
 		}
+		
+		// verdicts of the replaced policies are no longer needed
+		if (replacingPolicies)
+			PolicyVerdictCache.getInstance().flush();
 	} 
 	
 	/**
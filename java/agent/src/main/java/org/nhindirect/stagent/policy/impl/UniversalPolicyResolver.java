@@ -29,6 +29,7 @@ import javax.mail.internet.InternetAddress;
 
 import org.nhindirect.policy.PolicyExpression;
 import org.nhindirect.stagent.policy.PolicyResolver;
+import org.nhindirect.stagent.policy.PolicyVerdictCache;
 
 /**
  * Certificate policy resolver that returns the same collection of policies regardless of message direction or email address.
@@ -63,6 +64,7 @@ public class UniversalPolicyResolver implements PolicyResolver
     
     /**
      * Sets the policy expressions applied to all domains and messages directions.
+     * Replacing previously set expressions flushes the shared {@link PolicyVerdictCache}.
      * @param expressions Tthe policy expressions applied to all domains and messages directions.
      */
     public void setExpressions(Collection<PolicyExpression> expressions)
@@ -70,7 +72,13 @@ public class UniversalPolicyResolver implements PolicyResolver
         if (expressions == null || expressions.size() == 0)
             throw new IllegalArgumentException("Empty or null expressions are not allowed");
         
+        final boolean replacingExpressions = this.expressions != null;
+        
         this.expressions = new ArrayList<PolicyExpression>(expressions);
+        
+        // verdicts of the replaced expressions are no longer needed
+        if (replacingExpressions)
+        	PolicyVerdictCache.getInstance().flush();
 	}
 
     /**
@@ -0,0 +1,101 @@
+/* 
+Copyright (c) 2010, NHIN Direct Project
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+
+Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer 
+in the documentation and/or other materials provided with the distribution.  Neither the name of the The NHIN Direct Project (nhindirect.org). 
+nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, 
+THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS 
+BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE 
+GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, 
+STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF 
+THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package org.nhindirect.stagent.trust;
+
+import java.security.cert.X509Certificate;
+import java.util.AbstractCollection;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+
+/**
+ * Unmodifiable set of trust anchors assigned to an address.  The fingerprint of the set used by the {@link TrustChainValidationCache} is
+ * computed once the first time it is requested and reused for every certificate validated against the set.
+ * @author agent
+ * @since 2.3
+ */
+public class TrustAnchorSet extends AbstractCollection<X509Certificate>
+{
+	protected final Collection<X509Certificate> anchors;
+	protected volatile String fingerprint;
+	
+	/**
+	 * Constructor
+	 * @param anchors The trust anchors.  The anchors are copied, so later changes to the collection are not reflected in the set.
+	 */
+	public TrustAnchorSet(Collection<X509Certificate> anchors)
+	{
+		if (anchors == null)
+			throw new IllegalArgumentException("Anchors cannot be null");
+		
+		this.anchors = new ArrayList<X509Certificate>(anchors);
+	}
+	
+	/**
+	 * Gets the fingerprint of the anchor set.  The fingerprint is computed on the first call.
+	 * @return The fingerprint of the anchor set.
+	 */
+	public String getFingerprint()
+	{
+		String retVal = fingerprint;
+		if (retVal == null)
+		{
+			retVal = TrustChainValidationCache.createAnchorSetFingerprint(anchors);
+			fingerprint = retVal;
+		}
+		
+		return retVal;
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public Iterator<X509Certificate> iterator()
+	{
+		final Iterator<X509Certificate> iter = anchors.iterator();
+		
+		return new Iterator<X509Certificate>()
+		{
+			public boolean hasNext()
+			{
+				return iter.hasNext();
+			}
+			
+			public X509Certificate next()
+			{
+				return iter.next();
+			}
+			
+			public void remove()
+			{
+				throw new UnsupportedOperationException();
+			}
+		};
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public int size()
+	{
+		return anchors.size();
+	}
+}
@@ -0,0 +1,393 @@
+/* 
+Copyright (c) 2010, NHIN Direct Project
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+
+Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer 
+in the documentation and/or other materials provided with the distribution.  Neither the name of the The NHIN Direct Project (nhindirect.org). 
+nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, 
+THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS 
+BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE 
+GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, 
+STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF 
+THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package org.nhindirect.stagent.trust;
+
+import java.lang.management.ManagementFactory;
+import java.security.InvalidAlgorithmParameterException;
+import java.security.MessageDigest;
+import java.security.cert.PKIXParameters;
+import java.security.cert.TrustAnchor;
+import java.security.cert.X509Certificate;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.jcs.JCS;
+import org.apache.jcs.access.exception.CacheException;
+import org.apache.jcs.engine.behavior.IElementAttributes;
+import org.nhindirect.stagent.NHINDException;
+import org.nhindirect.stagent.cert.CertCacheFactory;
+import org.nhindirect.stagent.cert.CertStoreCachePolicy;
+import org.nhindirect.stagent.cert.Thumbprint;
+import org.nhindirect.stagent.options.OptionsManager;
+import org.nhindirect.stagent.options.OptionsParameter;
+
+/**
+ * Cache of trust chain validation results keyed by the thumbprint of the validated certificate and a fingerprint of the anchor set it 
+ * was validated against.  Because the anchor set fingerprint is part of the key, any change to a set of anchors results in a new key and 
+ * results validated against the old anchor set are no longer used.
+ * <p>
+ * Trusted results expire at the earliest notAfter date of the certificates in the validated chain or the configured TTL, whichever comes first.
+ * Untrusted results are held for a shorter TTL as they may be caused by transient failures such as an intermediate certificate that could not 
+ * be downloaded.
+ * <p>
+ * The cache also holds precomputed PKIX parameters for each anchor set so trust anchors are not rebuilt for every validation.  Hit and miss
+ * counts are published over JMX.
+ * @author agent
+ * @since 2.3
+ */
+public class TrustChainValidationCache implements TrustChainValidationCacheMBean
+{
+	private static final Log LOGGER = LogFactory.getFactory().getInstance(TrustChainValidationCache.class);
+	
+	private static final String CACHE_NAME = "TRUST_CHAIN_VALIDATION_CACHE";
+	
+	private static final AtomicLong scopeSequence = new AtomicLong();
+	
+	protected static final int DEFAULT_MAX_CAHCE_ITEMS = 10000;
+	protected static final int DEFAULT_TTL = 3600; // 1 hour
+	protected static final int DEFAULT_NEGATIVE_TTL = 60; // 1 minute
+	
+	protected static final int MAX_ANCHOR_SETS = 100;
+	
+	protected static TrustChainValidationCache INSTANCE;
+	
+	protected final JCS cache;
+	protected final int negativeTTL;
+	protected final ConcurrentMap<String, PKIXParameters> anchorSetParameters;
+	
+	protected final AtomicLong hits = new AtomicLong();
+	protected final AtomicLong misses = new AtomicLong();
+	
+	/**
+	 * Gets the shared instance of the cache.  The shared instance is registered as an MBean when it is created.
+	 * @return The shared instance of the cache.  Null if the cache could not be created.
+	 */
+	public static synchronized TrustChainValidationCache getInstance()
+	{
+		if (INSTANCE == null)
+		{
+			try
+			{
+				INSTANCE = new TrustChainValidationCache(new DefaultTrustChainValidationCachePolicy());
+				INSTANCE.registerMBean();
+			}
+			///CLOVER:OFF
+			catch (CacheException e)
+			{
+				LOGGER.warn("Could not create trust chain validation cache " + CACHE_NAME, e);
+			}
+			///CLOVER:ON
+		}
+		
+		return INSTANCE;
+	}
+	
+	/**
+	 * Constructor
+	 * @param policy The cache policy.  The subject TTL of the policy is the maximum amount of time a trusted result is held in the cache. 
+	 * @throws CacheException Thrown if the underlying cache cannot be created.
+	 */
+	public TrustChainValidationCache(CertStoreCachePolicy policy) throws CacheException
+	{
+		cache = CertCacheFactory.getInstance().getCertCache(CACHE_NAME, policy);
+		
+		final OptionsParameter param = OptionsManager.getInstance().getParameter(OptionsParameter.TRUST_CHAIN_VALIDATION_CACHE_NEGATIVE_TTL);
+		negativeTTL = OptionsParameter.getParamValueAsInteger(param, DEFAULT_NEGATIVE_TTL);
+		
+		anchorSetParameters = new ConcurrentHashMap<String, PKIXParameters>();
+	}
+	
+	/**
+	 * Gets the fingerprint of a set of anchors.  The fingerprint is independent of the order of the anchors.  The fingerprint of a 
+	 * {@link TrustAnchorSet} is computed once and reused; other collections are fingerprinted on every call.
+	 * @param anchors The anchors to fingerprint.
+	 * @return A fingerprint uniquely identifying the set of anchors.
+	 */
+	public String getAnchorSetFingerprint(Collection<X509Certificate> anchors)
+	{
+		if (anchors instanceof TrustAnchorSet)
+			return ((TrustAnchorSet)anchors).getFingerprint();
+		
+		return createAnchorSetFingerprint(anchors);
+	}
+	
+	/**
+	 * Creates a fingerprint of a set of anchors.  The fingerprint is independent of the order of the anchors.
+	 * @param anchors The anchors to fingerprint.
+	 * @return A fingerprint uniquely identifying the set of anchors.
+	 */
+	public static String createAnchorSetFingerprint(Collection<X509Certificate> anchors)
+	{
+		final String[] thumbprints = new String[anchors.size()];
+		int i = 0;
+		for (X509Certificate anchor : anchors)
+			thumbprints[i++] = Thumbprint.toThumbprint(anchor).toString();
+		
+		Arrays.sort(thumbprints);
+		
+		try
+		{
+			final MessageDigest md = MessageDigest.getInstance("SHA-1");
+			for (String thumbprint : thumbprints)
+				md.update(thumbprint.getBytes("ASCII"));
+			
+			return new String(Hex.encodeHex(md.digest()));
+		}
+		///CLOVER:OFF
+		catch (Exception e)
+		{
+			throw new NHINDException("", e);
+		}
+		///CLOVER:ON
+	}
+	
+	/**
+	 * Creates a new scope identifier.  Validators use scopes to keep results produced with different intermediate resolvers apart.
+	 * @return A new scope identifier.
+	 */
+	public static String createScope()
+	{
+		return Long.toString(scopeSequence.incrementAndGet());
+	}
+	
+	/**
+	 * Creates the cache key for a certificate validated against a set of anchors.
+	 * @param scope The scope of the validator performing the validation.
+	 * @param certificate The certificate being validated.
+	 * @param anchorSetFingerprint The fingerprint of the anchor set.
+	 * @return The cache key.
+	 */
+	public String createKey(String scope, X509Certificate certificate, String anchorSetFingerprint)
+	{
+		return scope + ":" + Thumbprint.toThumbprint(certificate).toString() + ":" + anchorSetFingerprint;
+	}
+	
+	/**
+	 * Gets a previously cached validation result.
+	 * @param key The cache key created by {@link #createKey(String, X509Certificate, String)}.
+	 * @return The cached result or null if the result is not in the cache.
+	 */
+	public Boolean getValidationResult(String key)
+	{
+		final Boolean retVal = (Boolean)cache.get(key);
+		if (retVal == null)
+			misses.incrementAndGet();
+		else
+			hits.incrementAndGet();
+		
+		return retVal;
+	}
+	
+	/**
+	 * Caches a validation result.
+	 * @param key The cache key created by {@link #createKey(String, X509Certificate, String)}.
+	 * @param trusted Indicates if the certificate was trusted.
+	 * @param chain The certificates in the validated chain including the anchor.  Trusted results expire at the earliest notAfter
+	 * date of these certificates.  May be null for untrusted results.
+	 */
+	public void putValidationResult(String key, boolean trusted, Collection<X509Certificate> chain)
+	{
+		try
+		{
+			final IElementAttributes eattributes = cache.getDefaultElementAttributes().copy();
+			long ttl;
+			
+			if (trusted)
+			{
+				ttl = eattributes.getMaxLifeSeconds();
+				if (chain != null)
+				{
+					final long now = System.currentTimeMillis();
+					for (X509Certificate cert : chain)
+					{
+						final Date notAfter = cert.getNotAfter();
+						ttl = Math.min(ttl, (notAfter.getTime() - now) / 1000);
+					}
+				}
+			}
+			else
+				ttl = negativeTTL;
+			
+			if (ttl <= 0)
+				return;
+			
+			eattributes.setMaxLifeSeconds(ttl);
+			cache.put(key, Boolean.valueOf(trusted), eattributes);
+		}
+		catch (CacheException e)
+		{
+			LOGGER.warn("Failed to cache trust chain validation result.", e);
+		}
+	}
+	
+	/**
+	 * Gets the PKIX parameters for an anchor set.  Parameters are computed once per anchor set and a copy is returned to each caller.
+	 * @param anchorSetFingerprint The fingerprint of the anchor set.
+	 * @param anchors The anchors in the set.
+	 * @return A copy of the PKIX parameters for the anchor set.
+	 * @throws InvalidAlgorithmParameterException Thrown if the parameters cannot be created from the anchors.
+	 */
+	public PKIXParameters getPKIXParameters(String anchorSetFingerprint, Collection<X509Certificate> anchors) throws InvalidAlgorithmParameterException
+	{
+		PKIXParameters params = anchorSetParameters.get(anchorSetFingerprint);
+		if (params == null)
+		{
+			params = createPKIXParameters(anchors);
+			
+			// anchor sets rarely change, so just start over if there are too many stale sets
+			if (anchorSetParameters.size() >= MAX_ANCHOR_SETS)
+				anchorSetParameters.clear();
+			
+			anchorSetParameters.put(anchorSetFingerprint, params);
+		}
+		
+		return (PKIXParameters)params.clone();
+	}
+	
+	/**
+	 * Creates PKIX parameters from a set of anchors.
+	 * @param anchors The anchors.
+	 * @return PKIX parameters using the anchors as trust anchors.
+	 * @throws InvalidAlgorithmParameterException Thrown if the parameters cannot be created from the anchors.
+	 */
+	public static PKIXParameters createPKIXParameters(Collection<X509Certificate> anchors) throws InvalidAlgorithmParameterException
+	{
+    	final Set<TrustAnchor> trustAnchorSet = new HashSet<TrustAnchor>();
+		
+    	for (X509Certificate archor : anchors)
+    		trustAnchorSet.add(new TrustAnchor(archor, null));
+    	
+        final PKIXParameters params = new PKIXParameters(trustAnchorSet); 
+        
+    	/*
+    	 *  Disable CRL checking in cert path validation for now until a better implementation is put together
+    	 */
+    	params.setRevocationEnabled(false);
+    	
+    	return params;
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 */
+	public Long getHitCount()
+	{
+		return hits.get();
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 */
+	public Long getMissCount()
+	{
+		return misses.get();
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 */
+	public Integer getAnchorSetCount()
+	{
+		return anchorSetParameters.size();
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 */
+	public void flush()
+	{
+		try
+		{
+			cache.clear();
+		}
+		catch (CacheException e)
+		{
+			LOGGER.warn("Failed to flush trust chain validation cache.", e);
+		}
+		anchorSetParameters.clear();
+	}
+	
+	/*
+	 * Register the MBean
+	 */
+	private void registerMBean()
+	{
+		LOGGER.info("Registering TrustChainValidationCache MBean");
+		
+		final Class<?> clazz = this.getClass();
+		final StringBuilder objectNameBuilder = new StringBuilder(clazz.getPackage().getName());
+		objectNameBuilder.append(":type=").append(clazz.getSimpleName());
+				
+		try
+		{			
+			final StandardMBean mbean = new StandardMBean(this, TrustChainValidationCacheMBean.class);
+		
+			final MBeanServer mbeanServer = ManagementFactory.getPlatformMBeanServer();
+			mbeanServer.registerMBean(mbean, new ObjectName(objectNameBuilder.toString()));
+		}
+		catch (JMException e)
+		{
+			LOGGER.error("Unable to register the TrustChainValidationCache MBean", e);
+		}		
+	}
+	
+	/**
+	 * Default cache policy for the trust chain validation cache.  Settings are read from the options manager.
+	 * @author agent
+	 * @since 2.3
+	 */
+	public static class DefaultTrustChainValidationCachePolicy implements CertStoreCachePolicy
+	{
+		protected final int maxItems;
+		protected final int subjectTTL;
+		
+		public DefaultTrustChainValidationCachePolicy()
+		{
+			OptionsParameter param = OptionsManager.getInstance().getParameter(OptionsParameter.TRUST_CHAIN_VALIDATION_CACHE_MAX_SIZE);
+			maxItems =  OptionsParameter.getParamValueAsInteger(param, DEFAULT_MAX_CAHCE_ITEMS); 
+			
+			param = OptionsManager.getInstance().getParameter(OptionsParameter.TRUST_CHAIN_VALIDATION_CACHE_TTL);
+			subjectTTL =  OptionsParameter.getParamValueAsInteger(param, DEFAULT_TTL); 
+		}
+		
+		public int getMaxItems() 
+		{
+			return maxItems;
+		}
+
+		public int getSubjectTTL() 
+		{
+			return subjectTTL;
+		}
+	}
+}
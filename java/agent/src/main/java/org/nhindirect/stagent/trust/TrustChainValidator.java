@@ -31,17 +31,15 @@ import java.security.cert.CertPathValidator;
 import java.security.cert.Certificate;
 import java.security.cert.CertificateFactory;
 import java.security.cert.CertificateParsingException;
+import java.security.cert.PKIXCertPathValidatorResult;
 import java.security.cert.PKIXParameters;
-import java.security.cert.TrustAnchor;
 import java.security.cert.X509Certificate;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
 
 import javax.mail.internet.AddressException;
 import javax.mail.internet.InternetAddress;
@@ -58,8 +56,12 @@ import org.nhindirect.policy.x509.AuthorityInfoAccessExtentionField;
 import org.nhindirect.policy.x509.AuthorityInfoAccessMethodIdentifier;
 import org.nhindirect.stagent.CryptoExtensions;
 import org.nhindirect.stagent.NHINDException;
+import org.nhindirect.stagent.cert.AIACertificateCache;
 import org.nhindirect.stagent.cert.CertificateResolver;
+import org.nhindirect.stagent.cert.RevocationManager;
+import org.nhindirect.stagent.cert.RevocationManagerFactory;
 import org.nhindirect.stagent.cert.Thumbprint;
+import org.nhindirect.stagent.cert.impl.OCSPRevocationManager;
 
 /**
  * Validates the trust chain of a certificate with a set of anchors.  If a certificate resolver is present, the validator will search
@@ -85,6 +87,13 @@ public class TrustChainValidator
 	
 	private int maxIssuerChainLength = DefaultMaxIssuerChainLength;
 	
+	private TrustChainValidationCache validationCache = TrustChainValidationCache.getInstance();
+	
+	private AIACertificateCache aiaCache = AIACertificateCache.getInstance();
+	
+	// results depend on the intermediate resolvers, so cached results are scoped to the validator's configuration
+	private volatile String validationCacheScope = TrustChainValidationCache.createScope();
+	
 	private static final Log LOGGER = LogFactory.getFactory().getInstance(TrustChainValidator.class);
 	
 	static
@@ -118,10 +127,55 @@ public class TrustChainValidator
 	public void setCertificateResolver(Collection<CertificateResolver> resolver)
 	{
 		certResolvers = resolver;
+		validationCacheScope = TrustChainValidationCache.createScope();
+	}
+	
+	/**
+	 * Gets the cache used to hold trust chain validation results.  By default, the validator uses the shared 
+	 * {@link TrustChainValidationCache#getInstance() cache instance}.
+	 * @return The cache used to hold trust chain validation results.  Null if validation results are not cached.
+	 * @since 2.3
+	 */
+	public TrustChainValidationCache getValidationCache()
+	{
+		return validationCache;
+	}
+	
+	/**
+	 * Sets the cache used to hold trust chain validation results.
+	 * @param validationCache The cache used to hold trust chain validation results.  A null value disables caching of validation results.
+	 * @since 2.3
+	 */
+	public void setValidationCache(TrustChainValidationCache validationCache)
+	{
+		this.validationCache = validationCache;
+	}
+	
+	/**
+	 * Gets the cache used to hold certificates downloaded from AIA extensions.  By default, the validator uses the shared 
+	 * {@link AIACertificateCache#getInstance() cache instance}.
+	 * @return The cache used to hold certificates downloaded from AIA extensions.  Null if downloaded certificates are not cached.
+	 * @since 2.3
+	 */
+	public AIACertificateCache getAIACertificateCache()
+	{
+		return aiaCache;
+	}
+	
+	/**
+	 * Sets the cache used to hold certificates downloaded from AIA extensions.
+	 * @param aiaCache The cache used to hold certificates downloaded from AIA extensions.  A null value disables caching of downloaded certificates.
+	 * @since 2.3
+	 */
+	public void setAIACertificateCache(AIACertificateCache aiaCache)
+	{
+		this.aiaCache = aiaCache;
 	}
 	
 	/**
 	 * Indicates if a certificate is considered to be trusted by resolving a valid certificate trust chain with the provided anchors.
+	 * Results are cached by the certificate's thumbprint and a fingerprint of the anchor set.  Changing the intermediate
+	 * certificate resolvers invalidates previously cached results for this validator.
 	 * @param certificate The certificate to check.
 	 * @param anchors A list of trust anchors used to check the trust chain.
 	 * @return Returns true if the certificate can find a valid trust chain in the collection of anchors.  False otherwise.
@@ -134,12 +188,29 @@ public class TrustChainValidator
     	if (anchors == null || anchors.size() == 0)
     		return false; // no anchors... conspiracy theory?  trust no one    
     	
+    	final TrustChainValidationCache cache = validationCache;
+    	String anchorSetFingerprint = null;
+    	String cacheKey = null;
+    	if (cache != null)
+    	{
+    		anchorSetFingerprint = cache.getAnchorSetFingerprint(anchors);
+    		cacheKey = cache.createKey(validationCacheScope, certificate, anchorSetFingerprint);
+    		
+    		final Boolean cachedResult = cache.getValidationResult(cacheKey);
+    		if (cachedResult != null)
+    			return cachedResult;
+    	}
+    	
     	try
     	{
         	// check if the certificate is in the list of anchors... this is a valid trust model
     		if (isIssuerInAnchors(anchors, certificate))
+    		{
+    			if (cache != null)
+    				cache.putValidationResult(cacheKey, true, Collections.singletonList(certificate));
+    			
     			return true;
-    		
+    		}
     		
     		CertPath certPath = null;
         	CertificateFactory factory = CertificateFactory.getInstance("X509");
@@ -155,18 +226,13 @@ public class TrustChainValidator
         			certs.addAll(intermediatesCerts);
         	}
         	
-        	Set<TrustAnchor> trustAnchorSet = new HashSet<TrustAnchor>();
-        		
-        	for (X509Certificate archor : anchors)
-        		trustAnchorSet.add(new TrustAnchor(archor, null));
-        	
-            PKIXParameters params = new PKIXParameters(trustAnchorSet); 
+        	// reuse the precomputed parameters for this anchor set if they exist
+            final PKIXParameters params = (cache != null) ? cache.getPKIXParameters(anchorSetFingerprint, anchors) :
+            	TrustChainValidationCache.createPKIXParameters(anchors); 
             
-        			
         	/*
-        	 *  Disable CRL checking in cert path validation for now until a better implementation is put together
+        	 *  CRL checking in cert path validation is disabled for now until a better implementation is put together
         	 */
-        	params.setRevocationEnabled(false);
         	// JCE will only allow OSCP checking when revocation checking is enabled
         	// however some implementations will fail if revocation checking is turned on, but the CRL
         	// extension does not exist. for compatibility reasons, only turn this on if CRL extension points are defined
@@ -186,7 +252,21 @@ public class TrustChainValidator
         	CertPathValidator pathValidator = CertPathValidator.getInstance("PKIX", CryptoExtensions.getJCEProviderNameForTypeAndAlgorithm("CertPathValidator", "PKIX"));    		
     		
 
-        	pathValidator.validate(certPath, params);
+        	final PKIXCertPathValidatorResult result = (PKIXCertPathValidatorResult)pathValidator.validate(certPath, params);
+        	
+        	final List<X509Certificate> chain = new ArrayList<X509Certificate>();
+        	for (Certificate cert : certs)
+        		chain.add((X509Certificate)cert);
+        	if (result.getTrustAnchor().getTrustedCert() != null)
+        		chain.add(result.getTrustAnchor().getTrustedCert());
+        	
+        	// the intermediates and anchor of a validated chain are trusted issuers for OCSP requests
+        	registerRevocationIssuers(chain.subList(1, chain.size()));
+        	
+        	// the result is good until the first certificate in the chain expires
+        	if (cache != null)
+        		cache.putValidationResult(cacheKey, true, chain);
+        	
     		return true;
     	}
     	catch (Exception e)
@@ -194,9 +274,35 @@ public class TrustChainValidator
     		LOGGER.warn("Certificate " + certificate.getSubjectX500Principal().getName() + " is not trusted.", e);
     	}
     	
+    	if (cache != null)
+    		cache.putValidationResult(cacheKey, false, null);
+    	
     	return false;    	
     }     	
     
+    /**
+     * Registers the issuers of a validated trust chain with the revocation manager when OCSP revocation checking is enabled.  This lets
+     * the OCSP manager build requests for certificates issued by the chain without downloading the issuer from the AIA extension.
+     * @param issuers The intermediate and anchor certificates of a validated trust chain.
+     * @since 2.3
+     */
+    protected void registerRevocationIssuers(Collection<X509Certificate> issuers)
+    {
+    	final RevocationManager revocationManager = getRevocationManager();
+    	if (revocationManager instanceof OCSPRevocationManager && !issuers.isEmpty())
+    		((OCSPRevocationManager)revocationManager).addIssuerCertificates(issuers);
+    }
+    
+    /**
+     * Gets the revocation manager configured for the agent.
+     * @return The revocation manager configured for the agent.
+     * @since 2.3
+     */
+    protected RevocationManager getRevocationManager()
+    {
+    	return RevocationManagerFactory.getInstance();
+    }
+    
     private Collection<X509Certificate> resolveIntermediateIssuers(X509Certificate certificate, Collection<X509Certificate> anchors)
     {
     	Collection<X509Certificate> issuers = new ArrayList<X509Certificate>();
@@ -344,7 +450,8 @@ public class TrustChainValidator
     }
     
     /**
-     * Retrieves intermediate certificate using the AIA extension.
+     * Retrieves intermediate certificate using the AIA extension.  Certificates are served from the AIA certificate cache if one is set
+     * and downloaded with {@link #downloadCertsFromAIA(String)} on a cache miss.
      * @param certificate The certificate to search for AIA extensions.
      * @return Returns a collection of intermediate certs using the AIA extension.  If the AIA extension does not exists
      * or the certificate cannot be downloaded from the URL, then an empty list is returned.
@@ -353,6 +460,16 @@ public class TrustChainValidator
     {
     	final Collection<X509Certificate> retVal = new ArrayList<X509Certificate>();
     
+    	// cache misses are downloaded with downloadCertsFromAIA so subclasses still control how certificates are downloaded
+    	final AIACertificateCache cache = aiaCache;
+    	final AIACertificateCache.CertificateDownloader downloader = new AIACertificateCache.CertificateDownloader()
+    	{
+    		public Collection<X509Certificate> download(String url) throws Exception
+    		{
+    			return downloadCertsFromAIA(url);
+    		}
+    	};
+    	
     	// check to see if there are extensions
     	final AuthorityInfoAccessExtentionField aiaField = new AuthorityInfoAccessExtentionField(false);
     	
@@ -372,10 +489,11 @@ public class TrustChainValidator
     				// apart to get the url
     				final String url = urlPair.substring(CA_ISSUER_CHECK_STRING.length());
     				
-    				// now pull the certificate from the URL
+    				// now pull the certificate from the cache or the URL
     				try
     				{
-    					final Collection<X509Certificate> intermCerts = downloadCertsFromAIA(url);
+    					final Collection<X509Certificate> intermCerts = (cache != null) ? cache.getCertificates(url, downloader) :
+    						downloadCertsFromAIA(url);
     					retVal.addAll(intermCerts);
     				}
     				catch (NHINDException e)
@@ -27,6 +27,11 @@ import java.security.cert.X509Certificate;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
 
 import javax.mail.internet.InternetAddress;
 
@@ -37,7 +42,6 @@ import org.nhindirect.policy.PolicyFilter;
 import org.nhindirect.policy.PolicyFilterFactory;
 import org.nhindirect.policy.PolicyParseException;
 import org.nhindirect.policy.PolicyProcessException;
-import org.nhindirect.policy.PolicyRequiredException;
 import org.nhindirect.stagent.AgentError;
 import org.nhindirect.stagent.AgentException;
 import org.nhindirect.stagent.CryptoExtensions;
@@ -48,8 +52,10 @@ import org.nhindirect.stagent.NHINDAddressCollection;
 import org.nhindirect.stagent.OutgoingMessage;
 import org.nhindirect.stagent.cert.RevocationManager;
 import org.nhindirect.stagent.cert.SignerCertPair;
-import org.nhindirect.stagent.cert.impl.CRLRevocationManager;
+import org.nhindirect.stagent.cert.RevocationManagerFactory;
+import org.nhindirect.stagent.cert.impl.OCSPRevocationManager;
 import org.nhindirect.stagent.policy.PolicyResolver;
+import org.nhindirect.stagent.policy.PolicyVerdictCache;
 import org.nhindirect.stagent.trust.annotation.TrustPolicyFilter;
 import org.nhindirect.stagent.trust.annotation.TrustPolicyResolver;
 
@@ -79,6 +85,11 @@ public class TrustModel
     
 	private PolicyFilter policyFilter;
 	
+	private PolicyVerdictCache policyVerdictCache = PolicyVerdictCache.getInstance();
+	
+	// verdicts depend on the policy filter, so cached verdicts are scoped to the model's filter
+	private volatile String policyVerdictScope = PolicyVerdictCache.createScope();
+	
     /**
      * Constructs a model with a default validator.
      */
@@ -87,7 +98,7 @@ public class TrustModel
     	certChainValidator = new TrustChainValidator();
         try
         {
-        	this.policyFilter = PolicyFilterFactory.getInstance();
+        	this.policyFilter = PolicyFilterFactory.getCompiledInstance();
         }
         catch (PolicyParseException e)
         {
@@ -105,7 +116,7 @@ public class TrustModel
     	certChainValidator = validator;
         try
         {
-        	this.policyFilter = PolicyFilterFactory.getInstance();
+        	this.policyFilter = PolicyFilterFactory.getCompiledInstance();
         }
         catch (PolicyParseException e)
         {
@@ -130,6 +141,7 @@ public class TrustModel
 	public void setPolicyFilter(@TrustPolicyFilter PolicyFilter policyFilter)
 	{
 		this.policyFilter = policyFilter;
+		policyVerdictScope = PolicyVerdictCache.createScope();
 	}
 	
     /**
@@ -140,6 +152,27 @@ public class TrustModel
 	{
 		return this.policyFilter;
 	}
+	
+	/**
+	 * Gets the cache used to hold policy compliance verdicts.  By default, the model uses the shared 
+	 * {@link PolicyVerdictCache#getInstance() cache instance}.
+	 * @return The cache used to hold policy compliance verdicts.  Null if verdicts are not cached.
+	 * @since 2.3
+	 */
+	public PolicyVerdictCache getPolicyVerdictCache()
+	{
+		return policyVerdictCache;
+	}
+	
+	/**
+	 * Sets the cache used to hold policy compliance verdicts.
+	 * @param policyVerdictCache The cache used to hold policy compliance verdicts.  A null value disables caching of verdicts.
+	 * @since 2.3
+	 */
+	public void setPolicyVerdictCache(PolicyVerdictCache policyVerdictCache)
+	{
+		this.policyVerdictCache = policyVerdictCache;
+	}
     
 	/**
 	 * Sets the policy resolver for trust validation
@@ -180,6 +213,10 @@ public class TrustModel
         // the default value of the trust status is false, so only change the status if a trusted
         // certificate is found
         //        
+        // signature verification and revocation checks do not depend on the recipient, so they are 
+        // performed at most once per message and shared by all recipients
+        final SenderSignatureVerifier verifier = new SenderSignatureVerifier(message);
+        
         NHINDAddressCollection recipients = message.getDomainRecipients();
         for (NHINDAddress recipient : recipients)
         {
@@ -191,7 +228,7 @@ public class TrustModel
         	{
 	        	
 	        	// Find a trusted signature
-	        	DefaultMessageSignatureImpl trustedSignature = findTrustedSignature(message, recipient, recipient.getTrustAnchors());
+	        	DefaultMessageSignatureImpl trustedSignature = findTrustedSignature(message, recipient, recipient.getTrustAnchors(), verifier);
 	        	
 	        	// verify the signature
 	        	if (trustedSignature != null)
@@ -296,53 +333,65 @@ public class TrustModel
     }
     
     protected DefaultMessageSignatureImpl findTrustedSignature(IncomingMessage message, InternetAddress recipient, Collection<X509Certificate> anchors)    
+    {
+    	return findTrustedSignature(message, recipient, anchors, new SenderSignatureVerifier(message));
+    }
+    
+    /**
+     * Finds the most trusted sender signature for a recipient using the signature verification results held by the verifier.  
+     * Only the anchor set and trust policy of the recipient are evaluated by this method; revocation status and signature 
+     * validity of each signature are taken from the verifier.
+     * @param message The incoming message.
+     * @param recipient The recipient of the message.  If null, trust policies are not applied.
+     * @param anchors The recipient's trust anchors.
+     * @param verifier The verifier holding the per message signature verification results.
+     * @return The most trusted signature or null if no signature is trusted.
+     */
+    protected DefaultMessageSignatureImpl findTrustedSignature(IncomingMessage message, InternetAddress recipient, Collection<X509Certificate> anchors,
+    		SenderSignatureVerifier verifier)    
     {
     	NHINDAddress sender = message.getSender();
     	
-        Collection<DefaultMessageSignatureImpl> signatures = message.getSenderSignatures();
         DefaultMessageSignatureImpl lastTrustedSignature = null;    	
         
-  		final RevocationManager revocationManager = CRLRevocationManager.getInstance();
-        for (DefaultMessageSignatureImpl signature : signatures)
+        for (DefaultMessageSignatureImpl signature : verifier.getTrustedSignatures(anchors))
         {
         	// The point of this loop is to find the most trusted signature
         	// to satisfy the most stringent enforcement policy.  Thumb print match policy is the best, so we will 
         	// return if we find a thumb print match... otherwise keep searching until we either find one
         	// of find the best possible match
+        	if (recipient != null && !this.isCertPolicyCompliant(recipient, signature.getSignerCert()))
+        		continue;
         	
-        	// before checking for cert chain validation, make sure we aren't dealing with a revoked certificate
-    		if (revocationManager.isRevoked(signature.getSignerCert()))
-    			continue;
+    		if (!sender.hasCertificates())
+    			return signature; // Can't really check thumbprints etc. So, this is about as good as its going to get
     		
-        	boolean certTrustedAndInPolicy = certChainValidator.isTrusted(signature.getSignerCert(), anchors) && signature.checkSignature();
-        	if (certTrustedAndInPolicy && recipient != null)
-        	{
-        		certTrustedAndInPolicy = this.isCertPolicyCompliant(recipient, signature.getSignerCert());
-        	}
-        	
-        	if (certTrustedAndInPolicy)
+        	if (signature.checkThumbprint(sender))
         	{
-        		if (!sender.hasCertificates())
-        			return signature; // Can't really check thumbprints etc. So, this is about as good as its going to get
-        		
-            	if (signature.checkThumbprint(sender))
-            	{
-            		return signature;
-            	}
-            	
-                //
-                // We'll save this guy, but keep looking for a signer whose thumbprint we can verify
-                // If we can't find one, we'll use the last trusted signer we found.. and just mark the recipient's trust
-                // enforcement status as Success_ThumbprintMismatch
-                //    
-            	lastTrustedSignature = signature;        		
+        		return signature;
         	}
         	
+            //
+            // We'll save this guy, but keep looking for a signer whose thumbprint we can verify
+            // If we can't find one, we'll use the last trusted signer we found.. and just mark the recipient's trust
+            // enforcement status as Success_ThumbprintMismatch
+            //    
+        	lastTrustedSignature = signature;        		
         }
         
         return lastTrustedSignature;
     }
     
+    /**
+     * Gets the revocation manager used to check the signer certificates of incoming messages.
+     * @return The revocation manager configured for the agent.
+     * @since 2.3
+     */
+    protected RevocationManager getRevocationManager()
+    {
+    	return RevocationManagerFactory.getInstance();
+    }
+    
     protected boolean isCertPolicyCompliant(InternetAddress recipient, X509Certificate cert)
     {
     	boolean isCompliant = true;
@@ -352,29 +401,145 @@ public class TrustModel
     		// get the incoming public policy based on the sender
     		final Collection<PolicyExpression> expressions = trustPolicyResolver.getIncomingPolicy(recipient); 
 
-    		for (PolicyExpression expression : expressions)
+    		final PolicyVerdictCache cache = policyVerdictCache;
+    		try
     		{
-    			try
+    			// check for compliance
+    			isCompliant = (cache != null) ? cache.isCompliant(policyVerdictScope, policyFilter, cert, expressions) :
+    				PolicyVerdictCache.isCompliant(policyFilter, cert, expressions);
+    		}
+    		catch (PolicyProcessException processException)
+    		{
+    			throw new AgentException(AgentError.InvalidPolicy, processException);
+    		}
+    	}
+    	
+    	return isCompliant;
+    }
+    
+    /**
+     * Verifies the sender signatures of a single incoming message.  The revocation status and cryptographic validity of each 
+     * signature are computed at most once, and chain trust is evaluated once per distinct anchor set; recipients 
+     * that share an identical anchor set share the same results.
+     * @author agent
+     * @since 2.3
+     */
+    protected class SenderSignatureVerifier
+    {
+    	protected final IncomingMessage message;
+    	protected final RevocationManager revocationManager;
+    	protected final Map<DefaultMessageSignatureImpl, Boolean> revocationStatus = new IdentityHashMap<DefaultMessageSignatureImpl, Boolean>();
+    	protected final Map<DefaultMessageSignatureImpl, Boolean> signatureStatus = new IdentityHashMap<DefaultMessageSignatureImpl, Boolean>();
+    	protected final Map<Set<X509Certificate>, Collection<DefaultMessageSignatureImpl>> trustedSignatures = 
+    		new HashMap<Set<X509Certificate>, Collection<DefaultMessageSignatureImpl>>();
+    	
+    	/**
+    	 * Constructor
+    	 * @param message The message containing the sender signatures.
+    	 */
+    	public SenderSignatureVerifier(IncomingMessage message)
+    	{
+    		this.message = message;
+    		this.revocationManager = getRevocationManager();
+    	}
+    	
+    	/**
+    	 * Gets the signatures that are not revoked, have a valid signature, and chain to the provided anchors.  Results are 
+    	 * returned in the order of the message's sender signatures.
+    	 * @param anchors The trust anchors.
+    	 * @return The trusted signatures.  Returns an empty collection if no signatures are trusted.
+    	 */
+    	public Collection<DefaultMessageSignatureImpl> getTrustedSignatures(Collection<X509Certificate> anchors)
+    	{
+    		final Set<X509Certificate> anchorSet = (anchors == null) ? new HashSet<X509Certificate>() : new HashSet<X509Certificate>(anchors);
+    		
+    		Collection<DefaultMessageSignatureImpl> retVal = trustedSignatures.get(anchorSet);
+    		if (retVal == null)
+    		{
+    			// validate the chains first so the issuers of each validated chain are known when revocation is checked
+    			final Collection<DefaultMessageSignatureImpl> chainedSignatures = new ArrayList<DefaultMessageSignatureImpl>();
+    			for (DefaultMessageSignatureImpl signature : message.getSenderSignatures())
     			{
-    				// check for compliance
-	    			if (!policyFilter.isCompliant(cert, expression))
-	    			{
-	    				isCompliant = false;
-	    				break;
-	    			}
+    				if (certChainValidator.isTrusted(signature.getSignerCert(), anchors))
+    					chainedSignatures.add(signature);
     			}
-    			catch (PolicyRequiredException requiredException)
+    			
+    			checkRevocation(chainedSignatures);
+    			
+    			retVal = new ArrayList<DefaultMessageSignatureImpl>();
+    			for (DefaultMessageSignatureImpl signature : chainedSignatures)
     			{
-    				isCompliant = false;
-    				break;
+    				if (!isRevoked(signature) && checkSignature(signature))
+    					retVal.add(signature);
     			}
-    			catch (PolicyProcessException processException)
+    			trustedSignatures.put(anchorSet, retVal);
+    		}
+    		
+    		return retVal;
+    	}
+    	
+    	/**
+    	 * Checks the revocation status of the signer certificates of signatures that have not been checked yet.  When OCSP is enabled,
+    	 * the certificates are checked at once so signers sharing a responder and issuer need only one OCSP request.
+    	 * @param signatures The signatures to check.
+    	 */
+    	protected void checkRevocation(Collection<DefaultMessageSignatureImpl> signatures)
+    	{
+    		if (!(revocationManager instanceof OCSPRevocationManager))
+    			return;
+    		
+    		final Collection<DefaultMessageSignatureImpl> unchecked = new ArrayList<DefaultMessageSignatureImpl>();
+    		final Collection<X509Certificate> signerCerts = new ArrayList<X509Certificate>();
+    		for (DefaultMessageSignatureImpl signature : signatures)
+    		{
+    			if (!revocationStatus.containsKey(signature))
     			{
-    				throw new AgentException(AgentError.InvalidPolicy, processException);
+    				unchecked.add(signature);
+    				signerCerts.add(signature.getSignerCert());
     			}
     		}
+    		
+    		if (unchecked.isEmpty())
+    			return;
+    		
+    		final Map<X509Certificate, Boolean> statuses = ((OCSPRevocationManager)revocationManager).isRevoked(signerCerts);
+    		for (DefaultMessageSignatureImpl signature : unchecked)
+    			revocationStatus.put(signature, Boolean.TRUE.equals(statuses.get(signature.getSignerCert())));
     	}
     	
-    	return isCompliant;
+    	/**
+    	 * Indicates if the signer certificate of a signature is revoked.  The revocation manager is only consulted the first time 
+    	 * a signature is checked.
+    	 * @param signature The signature to check.
+    	 * @return True if the signer certificate is revoked.  False otherwise.
+    	 */
+    	public boolean isRevoked(DefaultMessageSignatureImpl signature)
+    	{
+    		Boolean retVal = revocationStatus.get(signature);
+    		if (retVal == null)
+    		{
+    			retVal = revocationManager.isRevoked(signature.getSignerCert());
+    			revocationStatus.put(signature, retVal);
+    		}
+    		
+    		return retVal;
+    	}
+    	
+    	/**
+    	 * Verifies the cryptographic validity of a signature.  The signature is only verified the first time it is checked.
+    	 * @param signature The signature to check.
+    	 * @return True if the signature is valid.  False otherwise.
+    	 */
+    	public boolean checkSignature(DefaultMessageSignatureImpl signature)
+    	{
+    		Boolean retVal = signatureStatus.get(signature);
+    		if (retVal == null)
+    		{
+    			retVal = signature.checkSignature();
+    			signatureStatus.put(signature, retVal);
+    		}
+    		
+    		return retVal;
+    	}
     }
 }
@@ -0,0 +1,41 @@
+package org.nhindirect.stagent;
+
+import junit.framework.TestCase;
+
+import org.nhindirect.stagent.cert.ConcurrentCertificateResolver;
+import org.nhindirect.stagent.cert.impl.KeyStoreCertificateStore;
+import org.nhindirect.stagent.options.OptionsManager;
+import org.nhindirect.stagent.options.OptionsParameter;
+import org.nhindirect.stagent.trust.DefaultTrustAnchorResolver;
+
+public class DefaultNHINDAgent_getConcurrentPublicCertResolverTest extends TestCase
+{
+	@Override
+	public void tearDown()
+	{
+		OptionsManager.getInstance().setOptionsParameter(new OptionsParameter(OptionsParameter.PUBLIC_CERT_RESOLVER_THREADS, null));
+	}
+	
+	protected DefaultNHINDAgent createAgent()
+	{
+		return new DefaultNHINDAgent("", new KeyStoreCertificateStore(), new KeyStoreCertificateStore(), new DefaultTrustAnchorResolver());
+	}
+	
+	public void testGetConcurrentPublicCertResolver_notConfigured_assertSerialResolution()
+	{
+		OptionsManager.getInstance().setOptionsParameter(new OptionsParameter(OptionsParameter.PUBLIC_CERT_RESOLVER_THREADS, null));
+		
+		assertNull(createAgent().getConcurrentPublicCertResolver());
+	}
+	
+	public void testGetConcurrentPublicCertResolver_threadsConfigured_assertConcurrentResolver()
+	{
+		OptionsManager.getInstance().setOptionsParameter(new OptionsParameter(OptionsParameter.PUBLIC_CERT_RESOLVER_THREADS, "4"));
+		
+		final ConcurrentCertificateResolver resolver = createAgent().getConcurrentPublicCertResolver();
+		assertNotNull(resolver);
+		assertFalse(resolver.isRaceResolvers());
+		
+		resolver.shutdown();
+	}
+}
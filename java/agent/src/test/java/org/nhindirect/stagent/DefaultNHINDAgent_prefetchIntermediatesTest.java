@@ -0,0 +1,118 @@
+package org.nhindirect.stagent;
+
+import java.security.cert.X509Certificate;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.mail.internet.MimeMessage;
+
+import junit.framework.TestCase;
+
+import org.nhindirect.stagent.cert.AIACertificateCache;
+import org.nhindirect.stagent.cert.CertCacheFactory;
+import org.nhindirect.stagent.cert.impl.UniformCertificateStore;
+import org.nhindirect.stagent.mail.Message;
+import org.nhindirect.stagent.trust.DefaultTrustAnchorResolver;
+import org.nhindirect.stagent.utils.SecondaryMimeMessage;
+import org.nhindirect.stagent.utils.TestUtils;
+
+public class DefaultNHINDAgent_prefetchIntermediatesTest extends TestCase
+{
+	protected static final String INTERMEDIATE_URL = "http://sandboxcernerdirect.com/professional/public/subordinate.der";
+	
+	protected final AtomicInteger downloadCount = new AtomicInteger();
+	protected final AtomicReference<Future<Integer>> prefetchResult = new AtomicReference<Future<Integer>>();
+	protected AIACertificateCache aiaCache;
+	
+	@Override
+	public void setUp() throws Exception
+	{
+		CertCacheFactory.getInstance().flushAll();
+	}
+	
+	@Override
+	public void tearDown() throws Exception
+	{
+		if (aiaCache != null)
+			aiaCache.shutdown();
+		
+		CertCacheFactory.getInstance().flushAll();
+	}
+	
+	protected AIACertificateCache createCache(final X509Certificate intermediate) throws Exception
+	{
+		return new AIACertificateCache(new AIACertificateCache.DefaultAIACachePolicy(), 60, null)
+		{
+			@Override
+			protected Collection<X509Certificate> download(String url) throws Exception
+			{
+				downloadCount.incrementAndGet();
+				return Arrays.asList(intermediate);
+			}
+			
+			@Override
+			public Future<Integer> prefetch(Collection<X509Certificate> certificates)
+			{
+				final Future<Integer> retVal = super.prefetch(certificates);
+				prefetchResult.set(retVal);
+				return retVal;
+			}
+		};
+	}
+	
+	protected OutgoingMessage createMessage(String recipient) throws Exception
+	{
+		final MimeMessage mimeMsg = new SecondaryMimeMessage();
+		mimeMsg.setText("");
+		
+		final NHINDAddressCollection recipients = new NHINDAddressCollection();
+		recipients.add(new NHINDAddress(recipient));
+		
+		return new OutgoingMessage(new Message(mimeMsg), recipients, new NHINDAddress("sender@domain.com"));
+	}
+	
+	public void testBindAddresses_selfSignedAnchor_recipientIntermediateLoaded() throws Exception
+	{
+		final X509Certificate anchor = TestUtils.loadCertificate("CernerRoot.der");
+		final X509Certificate intermediate = TestUtils.loadCertificate("CernerDirect Cert Professional Community CA.der");
+		final X509Certificate leaf = TestUtils.loadCertificate("demo.sandboxcernerdirect.com.der");
+		
+		final UniformCertificateStore anchorStore = new UniformCertificateStore(anchor);
+		final UniformCertificateStore certStore = new UniformCertificateStore(leaf);
+		final DefaultNHINDAgent agent = new DefaultNHINDAgent("domain.com", certStore, certStore, 
+				new DefaultTrustAnchorResolver(anchorStore, anchorStore));
+		
+		aiaCache = createCache(intermediate);
+		agent.getTrustModel().getCertChainValidator().setAIACertificateCache(aiaCache);
+		
+		agent.bindAddresses(createMessage("demo@sandboxcernerdirect.com"));
+		
+		assertNotNull(prefetchResult.get());
+		assertTrue(prefetchResult.get().get(10, TimeUnit.SECONDS) > 0);
+		
+		// chain building finds the recipient's intermediate in memory
+		final int downloads = downloadCount.get();
+		assertEquals(intermediate, aiaCache.getCertificates(INTERMEDIATE_URL).iterator().next());
+		assertEquals(downloads, downloadCount.get());
+	}
+	
+	public void testPrefetchIntermediates_noResolvedCerts_assertNoPrefetch() throws Exception
+	{
+		final X509Certificate anchor = TestUtils.loadCertificate("CernerRoot.der");
+		final UniformCertificateStore anchorStore = new UniformCertificateStore(anchor);
+		final DefaultNHINDAgent agent = new DefaultNHINDAgent("domain.com", anchorStore, anchorStore, 
+				new DefaultTrustAnchorResolver(anchorStore, anchorStore));
+		
+		aiaCache = createCache(anchor);
+		agent.getTrustModel().getCertChainValidator().setAIACertificateCache(aiaCache);
+		
+		final Collection<X509Certificate> none = null;
+		agent.prefetchIntermediates(Arrays.asList(none));
+		
+		assertNull(prefetchResult.get());
+	}
+}
@@ -0,0 +1,255 @@
+package org.nhindirect.stagent.cert;
+
+import java.io.File;
+import java.security.cert.X509Certificate;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import junit.framework.TestCase;
+
+import org.apache.commons.io.FileUtils;
+import org.nhindirect.stagent.NHINDException;
+import org.nhindirect.stagent.utils.TestUtils;
+
+public class AIACertificateCache_getCertificatesTest extends TestCase
+{
+	protected static final String URL = "http://sandboxcernerdirect.com/professional/public/subordinate.der";
+	
+	protected final AtomicInteger downloadCount = new AtomicInteger();
+	protected File cacheLocation;
+	protected AIACertificateCache cache;
+	
+	@Override
+	public void setUp() throws Exception
+	{
+		CertCacheFactory.getInstance().flushAll();
+		
+		cacheLocation = new File(System.getProperty("java.io.tmpdir"), "aiaCacheTest");
+		FileUtils.deleteDirectory(cacheLocation);
+	}
+	
+	@Override
+	public void tearDown() throws Exception
+	{
+		if (cache != null)
+			cache.shutdown();
+		
+		CertCacheFactory.getInstance().flushAll();
+		FileUtils.deleteDirectory(cacheLocation);
+	}
+	
+	protected AIACertificateCache createCache(int negativeTTL, File location, final Collection<X509Certificate> certs, 
+			final CountDownLatch gate) throws Exception
+	{
+		return new AIACertificateCache(new AIACertificateCache.DefaultAIACachePolicy(), negativeTTL, location)
+		{
+			@Override
+			protected Collection<X509Certificate> download(String url) throws Exception
+			{
+				downloadCount.incrementAndGet();
+				
+				if (gate != null)
+					gate.await(10, TimeUnit.SECONDS);
+				
+				if (certs == null)
+					throw new NHINDException("Failed to download certificates from AIA extension (URL: " + url + ")");
+				
+				return certs;
+			}
+		};
+	}
+	
+	public void testGetCertificates_secondRequestFromMemory() throws Exception
+	{
+		final X509Certificate intermediate = TestUtils.loadCertificate("CernerDirect Cert Professional Community CA.der");
+		cache = createCache(60, null, Arrays.asList(intermediate), null);
+		
+		Collection<X509Certificate> certs = cache.getCertificates(URL);
+		assertEquals(1, certs.size());
+		assertEquals(intermediate, certs.iterator().next());
+		
+		certs = cache.getCertificates(URL);
+		assertEquals(1, certs.size());
+		assertEquals(1, downloadCount.get());
+		assertEquals(1, cache.getHitCount());
+		assertEquals(1, cache.getMissCount());
+	}
+	
+	public void testGetCertificates_downloadFails_negativeCached() throws Exception
+	{
+		cache = createCache(60, null, null, null);
+		
+		assertTrue(cache.getCertificates(URL).isEmpty());
+		assertTrue(cache.getCertificates(URL).isEmpty());
+		assertEquals(1, downloadCount.get());
+	}
+	
+	public void testGetCertificates_downloadFails_negativeTTLZero_assertRetried() throws Exception
+	{
+		cache = createCache(0, null, null, null);
+		
+		assertTrue(cache.getCertificates(URL).isEmpty());
+		assertTrue(cache.getCertificates(URL).isEmpty());
+		assertEquals(2, downloadCount.get());
+	}
+	
+	public void testGetCertificates_callerDownloader_assertUsedOnMiss() throws Exception
+	{
+		final X509Certificate intermediate = TestUtils.loadCertificate("CernerDirect Cert Professional Community CA.der");
+		cache = createCache(60, null, null, null);
+		
+		final AtomicInteger callerDownloads = new AtomicInteger();
+		final AIACertificateCache.CertificateDownloader downloader = new AIACertificateCache.CertificateDownloader()
+		{
+			public Collection<X509Certificate> download(String url) throws Exception
+			{
+				callerDownloads.incrementAndGet();
+				return Arrays.asList(intermediate);
+			}
+		};
+		
+		assertEquals(intermediate, cache.getCertificates(URL, downloader).iterator().next());
+		assertEquals(intermediate, cache.getCertificates(URL, downloader).iterator().next());
+		assertEquals(1, callerDownloads.get());
+		assertEquals(0, downloadCount.get());
+	}
+	
+	public void testGetCertificates_concurrentMisses_downloadsCoalesced() throws Exception
+	{
+		final X509Certificate intermediate = TestUtils.loadCertificate("CernerDirect Cert Professional Community CA.der");
+		final CountDownLatch gate = new CountDownLatch(1);
+		cache = createCache(60, null, Arrays.asList(intermediate), gate);
+		
+		final AtomicReference<Collection<X509Certificate>> firstResult = new AtomicReference<Collection<X509Certificate>>();
+		final AtomicReference<Collection<X509Certificate>> secondResult = new AtomicReference<Collection<X509Certificate>>();
+		
+		final Thread first = new Thread(new Runnable()
+		{
+			public void run()
+			{
+				firstResult.set(cache.getCertificates(URL));
+			}
+		});
+		
+		final Thread second = new Thread(new Runnable()
+		{
+			public void run()
+			{
+				secondResult.set(cache.getCertificates(URL));
+			}
+		});
+		
+		first.start();
+		
+		// wait for the first download to be in flight
+		for (int i = 0; i < 100 && !cache.inflightDownloads.containsKey(URL); ++i)
+			Thread.sleep(50);
+		assertTrue(cache.inflightDownloads.containsKey(URL));
+		
+		second.start();
+		for (int i = 0; i < 100 && cache.getCoalescedCount() == 0; ++i)
+			Thread.sleep(50);
+		
+		gate.countDown();
+		first.join(10000);
+		second.join(10000);
+		
+		assertEquals(1, downloadCount.get());
+		assertEquals(1, cache.getCoalescedCount());
+		assertEquals(1, firstResult.get().size());
+		assertEquals(1, secondResult.get().size());
+		assertTrue(cache.inflightDownloads.isEmpty());
+	}
+	
+	public void testGetCertificates_diskTier_assertLoadedFromDiskAfterRestart() throws Exception
+	{
+		final X509Certificate intermediate = TestUtils.loadCertificate("CernerDirect Cert Professional Community CA.der");
+		cache = createCache(60, cacheLocation, Arrays.asList(intermediate), null);
+		
+		cache.getCertificates(URL);
+		assertEquals(1, downloadCount.get());
+		assertTrue(cache.getCacheFile(URL).exists());
+		
+		// simulate a restart
+		cache.shutdown();
+		CertCacheFactory.getInstance().flushAll();
+		cache = createCache(60, cacheLocation, null, null);
+		
+		final Collection<X509Certificate> certs = cache.getCertificates(URL);
+		assertEquals(1, certs.size());
+		assertEquals(intermediate, certs.iterator().next());
+		assertEquals(1, downloadCount.get());
+	}
+	
+	public void testGetCertificates_diskTierStale_downloadFails_assertStaleCertsUsed() throws Exception
+	{
+		final X509Certificate intermediate = TestUtils.loadCertificate("CernerDirect Cert Professional Community CA.der");
+		cache = createCache(60, cacheLocation, Arrays.asList(intermediate), null);
+		
+		cache.getCertificates(URL);
+		
+		cache.shutdown();
+		CertCacheFactory.getInstance().flushAll();
+		cache.getCacheFile(URL).setLastModified(System.currentTimeMillis() - 7L * 86400000L);
+		cache = createCache(60, cacheLocation, null, null);
+		
+		final Collection<X509Certificate> certs = cache.getCertificates(URL);
+		assertEquals(1, certs.size());
+		assertEquals(intermediate, certs.iterator().next());
+		
+		// the stale copy triggered a download attempt
+		assertEquals(2, downloadCount.get());
+	}
+	
+	public void testPrefetch_anchorWithAIA_assertIntermediatesCached() throws Exception
+	{
+		final X509Certificate intermediate = TestUtils.loadCertificate("CernerDirect Cert Professional Community CA.der");
+		cache = createCache(60, null, Arrays.asList(intermediate), null);
+		
+		final X509Certificate anchor = TestUtils.loadCertificate("demo.sandboxcernerdirect.com.der");
+		final int loaded = cache.prefetch(Arrays.asList(anchor)).get(10, TimeUnit.SECONDS);
+		assertTrue(loaded > 0);
+		
+		final int downloads = downloadCount.get();
+		for (String url : AIACertificateCache.getCAIssuerURLs(anchor))
+			assertEquals(1, cache.getCertificates(url).size());
+		
+		// served from memory
+		assertEquals(downloads, downloadCount.get());
+	}
+	
+	public void testPrefetch_selfSignedAnchorOnly_assertNothingLoaded() throws Exception
+	{
+		final X509Certificate intermediate = TestUtils.loadCertificate("CernerDirect Cert Professional Community CA.der");
+		cache = createCache(60, null, Arrays.asList(intermediate), null);
+		
+		final X509Certificate anchor = TestUtils.loadCertificate("CernerRoot.der");
+		assertEquals(anchor.getSubjectX500Principal(), anchor.getIssuerX500Principal());
+		
+		assertEquals(0, cache.prefetch(Arrays.asList(anchor)).get(10, TimeUnit.SECONDS).intValue());
+		assertEquals(0, downloadCount.get());
+	}
+	
+	public void testPrefetch_selfSignedAnchorAndResolvedLeaf_assertIntermediateLoaded() throws Exception
+	{
+		final X509Certificate intermediate = TestUtils.loadCertificate("CernerDirect Cert Professional Community CA.der");
+		cache = createCache(60, null, Arrays.asList(intermediate), null);
+		
+		final X509Certificate anchor = TestUtils.loadCertificate("CernerRoot.der");
+		final X509Certificate leaf = TestUtils.loadCertificate("demo.sandboxcernerdirect.com.der");
+		
+		final int loaded = cache.prefetch(Arrays.asList(anchor, leaf)).get(10, TimeUnit.SECONDS);
+		assertTrue(loaded > 0);
+		
+		// the leaf's intermediate is served from memory
+		final int downloads = downloadCount.get();
+		final Collection<X509Certificate> certs = cache.getCertificates(URL);
+		assertEquals(1, certs.size());
+		assertEquals(intermediate, certs.iterator().next());
+		assertEquals(downloads, downloadCount.get());
+	}
+}
@@ -0,0 +1,192 @@
+package org.nhindirect.stagent.cert;
+
+import java.io.File;
+import java.math.BigInteger;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+
+import javax.security.auth.x500.X500Principal;
+
+import junit.framework.TestCase;
+
+import org.bouncycastle.asn1.x509.GeneralName;
+import org.bouncycastle.asn1.x509.GeneralNames;
+import org.bouncycastle.asn1.x509.X509Extensions;
+import org.bouncycastle.x509.X509V3CertificateGenerator;
+import org.nhindirect.stagent.CryptoExtensions;
+import org.nhindirect.stagent.cert.impl.KeyStoreCertificateStore;
+import org.nhindirect.stagent.utils.TestUtils;
+
+public class CertificateSubjectIndex_getCertificatesTest extends TestCase
+{
+	@Override
+	public void setUp()
+	{
+		CryptoExtensions.registerJCEProviders();
+	}
+	
+	protected static Collection<X509Certificate> scan(Collection<X509Certificate> certs, String subjectName)
+	{
+		final Collection<X509Certificate> retVal = new ArrayList<X509Certificate>();
+		for (X509Certificate cert : certs)
+			if (CryptoExtensions.certSubjectContainsName(cert, subjectName))
+				retVal.add(cert);
+		
+		return retVal;
+	}
+	
+	protected static List<X509Certificate> createCerts(int count) throws Exception
+	{
+		final KeyPairGenerator kpGen = KeyPairGenerator.getInstance("RSA", "BC");
+		kpGen.initialize(1024);
+		final KeyPair pair = kpGen.generateKeyPair();
+		
+		final List<X509Certificate> retVal = new ArrayList<X509Certificate>();
+		for (int i = 0; i < count; ++i)
+		{
+			final X509V3CertificateGenerator certGen = new X509V3CertificateGenerator();
+			certGen.setSerialNumber(BigInteger.valueOf(i + 1));
+			certGen.setIssuerDN(new X500Principal("CN=Index Test CA"));
+			certGen.setSubjectDN(new X500Principal("CN=user" + i));
+			certGen.setNotBefore(new Date(System.currentTimeMillis() - 3600000L));
+			certGen.setNotAfter(new Date(System.currentTimeMillis() + 86400000L));
+			certGen.setPublicKey(pair.getPublic());
+			certGen.setSignatureAlgorithm("SHA256WithRSAEncryption");
+			
+			// alternate between address and domain bound certificates
+			final GeneralName name = (i % 2 == 0) ? new GeneralName(GeneralName.rfc822Name, "User" + i + "@Domain" + (i % 50) + ".com") :
+				new GeneralName(GeneralName.dNSName, "domain" + (i % 50) + ".com");
+			certGen.addExtension(X509Extensions.SubjectAlternativeName, false, new GeneralNames(name));
+			
+			retVal.add(certGen.generate(pair.getPrivate(), "BC"));
+		}
+		
+		return retVal;
+	}
+	
+	public void testGetCertificates_testCerts_assertSameAsScan() throws Exception
+	{
+		final Collection<X509Certificate> certs = new ArrayList<X509Certificate>();
+		final File certDir = new File(getClass().getClassLoader().getResource("certs").getPath().replaceAll("%20", " "));
+		for (File certFile : certDir.listFiles())
+			if (certFile.getName().endsWith(".der"))
+			{
+				try
+				{
+					certs.add(TestUtils.loadCertificate(certFile.getName()));
+				}
+				catch (Exception e) {/* not a certificate */}
+			}
+		assertTrue(certs.size() > 10);
+		
+		final CertificateSubjectIndex index = new CertificateSubjectIndex();
+		index.add(certs);
+		
+		for (X509Certificate cert : certs)
+		{
+			final String address = CryptoExtensions.getSubjectAddress(cert);
+			if (address == null || address.isEmpty())
+				continue;
+			
+			for (String name : new String[] {address, address.toUpperCase(), "EMAILADDRESS=" + address, "emailaddress=" + address.toUpperCase()})
+				assertEquals(new HashSet<X509Certificate>(scan(certs, name)), new HashSet<X509Certificate>(index.getCertificates(name)));
+		}
+		
+		assertTrue(index.getCertificates("nobody@nowhere.com").isEmpty());
+	}
+	
+	public void testGetCertificates_addAndRemove_assertConsistent() throws Exception
+	{
+		final List<X509Certificate> certs = createCerts(4);
+		
+		final CertificateSubjectIndex index = new CertificateSubjectIndex();
+		index.add(certs);
+		index.add(certs.get(1)); // duplicate add
+		
+		assertEquals(1, index.getCertificates("USER0@domain0.com").size());
+		assertEquals(1, index.getCertificates("EMAILADDRESS=domain1.com").size());
+		
+		index.remove(certs.get(0));
+		assertTrue(index.getCertificates("user0@domain0.com").isEmpty());
+		assertEquals(certs.get(2), index.getCertificates("user2@domain2.com").iterator().next());
+		
+		index.clear();
+		assertEquals(0, index.size());
+	}
+	
+	public void testGetCertificates_keyStoreStore_assertIndexFollowsAddRemoveUpdate() throws Exception
+	{
+		final File keyStoreFile = new File(System.getProperty("java.io.tmpdir"), "subjectIndexTest.keystore");
+		keyStoreFile.delete();
+		
+		try
+		{
+			final List<X509Certificate> certs = createCerts(3);
+			final KeyStoreCertificateStore store = new KeyStoreCertificateStore(keyStoreFile, "password", "password");
+			
+			store.add(certs.get(0), "cert0");
+			store.add(certs.get(1), "cert1");
+			assertEquals(certs.get(0), store.getCertificates("EMAILADDRESS=user0@domain0.com").iterator().next());
+			assertEquals(certs.get(1), store.getCertificates("domain1.com").iterator().next());
+			
+			store.remove(certs.get(0));
+			assertTrue(store.getCertificates("user0@domain0.com").isEmpty());
+			
+			store.update(certs.get(1));
+			assertEquals(1, store.getCertificates("domain1.com").size());
+			
+			store.remove("domain1.com");
+			assertTrue(store.getCertificates("domain1.com").isEmpty());
+			
+			// index is rebuilt when the keystore is loaded
+			store.add(certs.get(2), "cert2");
+			final KeyStoreCertificateStore reloaded = new KeyStoreCertificateStore(keyStoreFile, "password", "password");
+			assertEquals(certs.get(2), reloaded.getCertificates("user2@domain2.com").iterator().next());
+		}
+		finally
+		{
+			keyStoreFile.delete();
+		}
+	}
+	
+	public void testGetCertificates_manyCerts_assertSameAsScanAndIndexed() throws Exception
+	{
+		final List<X509Certificate> certs = createCerts(1000);
+		
+		final CertificateSubjectIndex index = new CertificateSubjectIndex();
+		index.add(certs);
+		
+		final List<String> names = new ArrayList<String>();
+		for (int i = 0; i < 100; ++i)
+			names.add((i % 2 == 0) ? "EMAILADDRESS=user" + i + "@domain" + (i % 50) + ".com" : "domain" + (i % 50) + ".com");
+		
+		int scanVisits = 0;
+		int indexVisits = 0;
+		for (String name : names)
+		{
+			final Collection<X509Certificate> scanned = scan(certs, name);
+			scanVisits += certs.size();
+			
+			final Collection<X509Certificate> indexed = index.getCertificates(name);
+			
+			// the lookup is answered from the bucket of the subject name without visiting any other certificate
+			final X509Certificate[] bucket = index.index.get(CertificateSubjectIndex.getLookupKey(name));
+			assertNotNull(bucket);
+			assertEquals(new HashSet<X509Certificate>(Arrays.asList(bucket)), new HashSet<X509Certificate>(indexed));
+			indexVisits += bucket.length;
+			
+			assertFalse(scanned.isEmpty());
+			assertEquals(new HashSet<X509Certificate>(scanned), new HashSet<X509Certificate>(indexed));
+		}
+		
+		// 100 lookups each visit all 1000 certificates when scanning, but only the matching certificates when indexed
+		assertTrue(indexVisits < scanVisits / 10);
+	}
+}
@@ -0,0 +1,249 @@
+package org.nhindirect.stagent.cert;
+
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.mail.internet.InternetAddress;
+
+import org.nhindirect.stagent.AgentError;
+import org.nhindirect.stagent.AgentException;
+import org.nhindirect.stagent.NHINDException;
+import org.nhindirect.stagent.utils.TestUtils;
+
+import junit.framework.TestCase;
+
+public class ConcurrentCertificateResolver_resolveTest extends TestCase
+{
+	protected ConcurrentCertificateResolver resolver;
+
+	@Override
+	public void tearDown()
+	{
+		if (resolver != null)
+			resolver.shutdown();
+	}
+
+	protected static CertificateResolver createResolver(final Collection<X509Certificate> certs, final long delay, final AtomicInteger callCount)
+	{
+		return new CertificateResolver()
+		{
+			public Collection<X509Certificate> getCertificates(InternetAddress address)
+			{
+				if (callCount != null)
+					callCount.incrementAndGet();
+
+				if (delay > 0)
+				{
+					try
+					{
+						Thread.sleep(delay);
+					}
+					catch (InterruptedException e) {/* no-op */}
+				}
+				return certs;
+			}
+		};
+	}
+
+	protected static CertificateResolver createErrorResolver(final AgentError error, final AtomicInteger callCount)
+	{
+		return new CertificateResolver()
+		{
+			public Collection<X509Certificate> getCertificates(InternetAddress address)
+			{
+				if (callCount != null)
+					callCount.incrementAndGet();
+
+				throw new NHINDException(error);
+			}
+		};
+	}
+
+	public void testResolve_inOrder_firstResolverNotFound_assertSecondResolverCerts() throws Exception
+	{
+		final Collection<X509Certificate> certs = Arrays.asList(TestUtils.loadCertificate("certCheckA.der"));
+
+		resolver = new ConcurrentCertificateResolver(4, 10000, false);
+
+		final List<Collection<X509Certificate>> resolved = resolver.resolve(Arrays.asList(createResolver(null, 0, null), createResolver(certs, 0, null)),
+				Arrays.asList(new InternetAddress("user1@domain.com"), new InternetAddress("user2@domain2.com")));
+
+		assertEquals(2, resolved.size());
+		assertEquals(certs, resolved.get(0));
+		assertEquals(certs, resolved.get(1));
+	}
+
+	public void testResolve_inOrder_allCertsInvalid_assertNoCertsAndSecondResolverNotCalled() throws Exception
+	{
+		final Collection<X509Certificate> certs = Arrays.asList(TestUtils.loadCertificate("certCheckA.der"));
+		final AtomicInteger secondCallCount = new AtomicInteger();
+
+		resolver = new ConcurrentCertificateResolver(4, 10000, false);
+
+		final List<Collection<X509Certificate>> resolved = resolver.resolve(
+				Arrays.asList(createErrorResolver(AgentError.AllCertsInResolverInvalid, null), createResolver(certs, 0, secondCallCount)),
+				Arrays.asList(new InternetAddress("user1@domain.com"), new InternetAddress("user2@domain2.com")));
+
+		assertEquals(2, resolved.size());
+		assertNull(resolved.get(0));
+		assertNull(resolved.get(1));
+		assertEquals(0, secondCallCount.get());
+	}
+
+	public void testResolve_inOrder_resolverError_assertException() throws Exception
+	{
+		resolver = new ConcurrentCertificateResolver(4, 10000, false);
+
+		boolean exceptionOccured = false;
+		try
+		{
+			resolver.resolve(Arrays.asList(createErrorResolver(AgentError.Unexpected, null)),
+					Arrays.asList(new InternetAddress("user1@domain.com"), new InternetAddress("user2@domain2.com")));
+		}
+		catch (NHINDException e)
+		{
+			assertEquals(AgentError.Unexpected, e.getError());
+			exceptionOccured = true;
+		}
+
+		assertTrue(exceptionOccured);
+	}
+
+	public void testResolve_manyAddresses_resolvedConcurrentlyInAddressOrder() throws Exception
+	{
+		final X509Certificate certA = TestUtils.loadCertificate("certCheckA.der");
+		final X509Certificate certB = TestUtils.loadCertificate("certCheckB.der");
+
+		final CertificateResolver certResolver = new CertificateResolver()
+		{
+			public Collection<X509Certificate> getCertificates(InternetAddress address)
+			{
+				try
+				{
+					Thread.sleep(200);
+				}
+				catch (InterruptedException e) {/* no-op */}
+
+				return address.getAddress().startsWith("a") ? Arrays.asList(certA) : Arrays.asList(certB);
+			}
+		};
+
+		final List<InternetAddress> addresses = new ArrayList<InternetAddress>();
+		for (int i = 0; i < 10; ++i)
+			addresses.add(new InternetAddress((i % 2 == 0 ? "a" : "b") + i + "@domain" + i + ".com"));
+
+		resolver = new ConcurrentCertificateResolver(10, 10000, false);
+
+		final long start = System.currentTimeMillis();
+		final List<Collection<X509Certificate>> resolved = resolver.resolve(Arrays.asList(certResolver), addresses);
+		final long elapsed = System.currentTimeMillis() - start;
+
+		assertEquals(10, resolved.size());
+		for (int i = 0; i < 10; ++i)
+			assertEquals(i % 2 == 0 ? certA : certB, resolved.get(i).iterator().next());
+
+		// serial resolution would take at least 2 seconds
+		assertTrue(elapsed < 2000);
+	}
+
+	public void testResolve_deadlineExceeded_assertNoCerts() throws Exception
+	{
+		final Collection<X509Certificate> certs = Arrays.asList(TestUtils.loadCertificate("certCheckA.der"));
+
+		resolver = new ConcurrentCertificateResolver(4, 200, false);
+
+		final List<Collection<X509Certificate>> resolved = resolver.resolve(Arrays.asList(createResolver(certs, 5000, null)),
+				Arrays.asList(new InternetAddress("user1@domain.com"), new InternetAddress("user2@domain2.com")));
+
+		assertEquals(2, resolved.size());
+		assertNull(resolved.get(0));
+		assertNull(resolved.get(1));
+	}
+
+	public void testResolve_raceResolvers_assertFastestResolverWins() throws Exception
+	{
+		final Collection<X509Certificate> slowCerts = Arrays.asList(TestUtils.loadCertificate("certCheckA.der"));
+		final Collection<X509Certificate> fastCerts = Arrays.asList(TestUtils.loadCertificate("certCheckB.der"));
+
+		resolver = new ConcurrentCertificateResolver(4, 10000, true);
+
+		final long start = System.currentTimeMillis();
+		final List<Collection<X509Certificate>> resolved = resolver.resolve(Arrays.asList(createResolver(slowCerts, 3000, null),
+				createResolver(fastCerts, 0, null)), Arrays.asList(new InternetAddress("user1@domain.com")));
+		final long elapsed = System.currentTimeMillis() - start;
+
+		assertEquals(1, resolved.size());
+		assertEquals(fastCerts, resolved.get(0));
+		assertTrue(elapsed < 3000);
+	}
+
+	public void testResolve_raceResolvers_notFoundInFastest_assertSlowerResolverCerts() throws Exception
+	{
+		final Collection<X509Certificate> slowCerts = Arrays.asList(TestUtils.loadCertificate("certCheckA.der"));
+
+		resolver = new ConcurrentCertificateResolver(4, 10000, true);
+
+		final List<Collection<X509Certificate>> resolved = resolver.resolve(Arrays.asList(createResolver(slowCerts, 200, null),
+				createResolver(null, 0, null)), Arrays.asList(new InternetAddress("user1@domain.com")));
+
+		assertEquals(1, resolved.size());
+		assertEquals(slowCerts, resolved.get(0));
+	}
+
+	public void testResolve_raceResolvers_allCertsInvalidAnswersFirst_assertNoCerts() throws Exception
+	{
+		final Collection<X509Certificate> slowCerts = Arrays.asList(TestUtils.loadCertificate("certCheckA.der"));
+
+		resolver = new ConcurrentCertificateResolver(4, 10000, true);
+
+		final List<Collection<X509Certificate>> resolved = resolver.resolve(Arrays.asList(createResolver(slowCerts, 1000, null),
+				createErrorResolver(AgentError.AllCertsInResolverInvalid, null)), Arrays.asList(new InternetAddress("user1@domain.com")));
+
+		assertEquals(1, resolved.size());
+		assertNull(resolved.get(0));
+	}
+
+	public void testResolve_raceResolvers_manyAddressesAndResolvers_assertAllResolved() throws Exception
+	{
+		final Collection<X509Certificate> slowCerts = Arrays.asList(TestUtils.loadCertificate("certCheckA.der"));
+		final Collection<X509Certificate> fastCerts = Arrays.asList(TestUtils.loadCertificate("certCheckB.der"));
+
+		final List<InternetAddress> addresses = new ArrayList<InternetAddress>();
+		for (int i = 0; i < 10; ++i)
+			addresses.add(new InternetAddress("user" + i + "@domain" + i + ".com"));
+
+		resolver = new ConcurrentCertificateResolver(4, 10000, true);
+
+		// the slower resolvers lose every race and are cancelled
+		final List<Collection<X509Certificate>> resolved = resolver.resolve(Arrays.asList(createResolver(slowCerts, 200, null),
+				createResolver(fastCerts, 0, null), createResolver(slowCerts, 100, null)), addresses);
+
+		assertEquals(10, resolved.size());
+		for (Collection<X509Certificate> certs : resolved)
+			assertEquals(fastCerts, certs);
+	}
+
+	public void testResolve_agentException_assertNoCertsAndNoException() throws Exception
+	{
+		final CertificateResolver agentErrorResolver = new CertificateResolver()
+		{
+			public Collection<X509Certificate> getCertificates(InternetAddress address)
+			{
+				throw new AgentException(AgentError.Unexpected);
+			}
+		};
+
+		resolver = new ConcurrentCertificateResolver(4, 10000, false);
+
+		final List<Collection<X509Certificate>> resolved = resolver.resolve(Arrays.asList(agentErrorResolver),
+				Arrays.asList(new InternetAddress("user1@domain.com"), new InternetAddress("user2@domain2.com")));
+
+		assertEquals(2, resolved.size());
+		assertNull(resolved.get(0));
+		assertNull(resolved.get(1));
+	}
+}
@@ -0,0 +1,45 @@
+package org.nhindirect.stagent.cert;
+
+import junit.framework.TestCase;
+
+import org.nhindirect.stagent.cert.impl.CRLRevocationManager;
+import org.nhindirect.stagent.cert.impl.OCSPRevocationManager;
+import org.nhindirect.stagent.cert.impl.RefreshingCRLRevocationManager;
+import org.nhindirect.stagent.options.OptionsManager;
+import org.nhindirect.stagent.options.OptionsParameter;
+
+public class RevocationManagerFactory_getInstanceTest extends TestCase
+{
+	@Override
+	public void tearDown()
+	{
+		OptionsManager.getInstance().setOptionsParameter(new OptionsParameter(OptionsParameter.OCSP_ENABLED, null));
+		OptionsManager.getInstance().setOptionsParameter(new OptionsParameter(OptionsParameter.CRL_REFRESH_ENABLED, null));
+	}
+	
+	public void testGetInstance_notConfigured_assertCRLRevocationManager()
+	{
+		assertSame(CRLRevocationManager.getInstance(), RevocationManagerFactory.getInstance());
+	}
+	
+	public void testGetInstance_crlRefreshEnabled_assertRefreshingCRLRevocationManager()
+	{
+		OptionsManager.getInstance().setOptionsParameter(new OptionsParameter(OptionsParameter.CRL_REFRESH_ENABLED, "true"));
+		
+		assertSame(RefreshingCRLRevocationManager.getInstance(), RevocationManagerFactory.getInstance());
+	}
+	
+	public void testGetInstance_ocspEnabled_assertOCSPRevocationManager()
+	{
+		OptionsManager.getInstance().setOptionsParameter(new OptionsParameter(OptionsParameter.OCSP_ENABLED, "true"));
+		
+		assertSame(OCSPRevocationManager.getInstance(), RevocationManagerFactory.getInstance());
+	}
+	
+	public void testGetCRLInstance_crlRefreshDisabled_assertCRLRevocationManager()
+	{
+		OptionsManager.getInstance().setOptionsParameter(new OptionsParameter(OptionsParameter.CRL_REFRESH_ENABLED, "false"));
+		
+		assertSame(CRLRevocationManager.getInstance(), RevocationManagerFactory.getCRLInstance());
+	}
+}
@@ -0,0 +1,76 @@
+package org.nhindirect.stagent.cert.impl;
+
+import java.math.BigInteger;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.cert.X509CRL;
+import java.security.cert.X509CRLEntry;
+import java.util.Calendar;
+import java.util.Date;
+
+import javax.security.auth.x500.X500Principal;
+
+import junit.framework.TestCase;
+
+import org.bouncycastle.asn1.x509.CRLReason;
+import org.bouncycastle.x509.X509V2CRLGenerator;
+import org.nhindirect.stagent.CryptoExtensions;
+import org.nhindirect.stagent.utils.TestUtils;
+
+public class CRLSerialIndex_isRevokedTest extends TestCase
+{
+	@Override
+	public void setUp()
+	{
+		CryptoExtensions.registerJCEProviders();
+	}
+	
+	public void testIsRevoked_existingCRL_assertMatchesCRL() throws Exception
+	{
+		final X509CRL crl = (X509CRL)TestUtils.loadCRL("certs.crl");
+		
+		final CRLSerialIndex index = CRLSerialIndex.create(crl);
+		
+		assertEquals(crl.getRevokedCertificates().size(), index.size());
+		assertEquals(crl.getThisUpdate(), index.getThisUpdate());
+		assertEquals(crl.getNextUpdate(), index.getNextUpdate());
+		assertEquals(crl.getIssuerX500Principal(), index.getIssuer());
+		
+		for (X509CRLEntry entry : crl.getRevokedCertificates())
+			assertTrue(index.isRevoked(entry.getSerialNumber()));
+		
+		assertFalse(index.isRevoked(BigInteger.valueOf(Long.MAX_VALUE)));
+		assertFalse(index.isRevoked(null));
+	}
+	
+	public void testIsRevoked_largeAndSmallSerials_assertFound() throws Exception
+	{
+		final BigInteger large = new BigInteger("123456789012345678901234567890");
+		final BigInteger boundary = BigInteger.valueOf(Long.MAX_VALUE).add(BigInteger.ONE);
+		final BigInteger small = BigInteger.valueOf(42);
+		
+		final KeyPair pair = KeyPairGenerator.getInstance("RSA", "BC").generateKeyPair();
+		final Calendar cal = Calendar.getInstance();
+		cal.add(Calendar.DAY_OF_MONTH, 1);
+		
+		final X509V2CRLGenerator crlGen = new X509V2CRLGenerator();
+    	crlGen.setIssuerDN(new X500Principal("CN=Test CRL"));
+    	crlGen.setNextUpdate(cal.getTime());
+    	crlGen.setSignatureAlgorithm("SHA256withRSAEncryption");
+    	crlGen.setThisUpdate(new Date());
+    	crlGen.addCRLEntry(large, new Date(), CRLReason.keyCompromise);
+    	crlGen.addCRLEntry(boundary, new Date(), CRLReason.keyCompromise);
+    	crlGen.addCRLEntry(small, new Date(), CRLReason.keyCompromise);
+		
+		final CRLSerialIndex index = CRLSerialIndex.create(crlGen.generate(pair.getPrivate(), "BC"));
+		
+		assertEquals(3, index.size());
+		assertTrue(index.isRevoked(large));
+		assertTrue(index.isRevoked(boundary));
+		assertTrue(index.isRevoked(small));
+		assertFalse(index.isRevoked(BigInteger.valueOf(43)));
+		assertFalse(index.isRevoked(large.add(BigInteger.ONE)));
+		assertFalse(index.isExpired(new Date()));
+		assertTrue(index.isExpired(new Date(cal.getTimeInMillis() + 1000)));
+	}
+}
@@ -0,0 +1,214 @@
+package org.nhindirect.stagent.cert.impl;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.mockito.Matchers.any;
+
+import java.security.cert.X509Certificate;
+import java.util.Collection;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.nhindirect.stagent.cert.CertCacheFactory;
+import org.nhindirect.stagent.utils.TestUtils;
+import org.xbill.DNS.CERTRecord;
+import org.xbill.DNS.DClass;
+import org.xbill.DNS.ExtendedResolver;
+import org.xbill.DNS.Flags;
+import org.xbill.DNS.Lookup;
+import org.xbill.DNS.Message;
+import org.xbill.DNS.Rcode;
+import org.xbill.DNS.Section;
+
+import junit.framework.TestCase;
+
+public class DNSCertificateStore_getCertificatesTest extends TestCase
+{
+	@Override
+	public void setUp()
+	{
+		CertCacheFactory.getInstance().flushAll();
+		Lookup.getDefaultCache(DClass.IN).clearCache();
+	}
+
+	@Override
+	public void tearDown()
+	{
+		CertCacheFactory.getInstance().flushAll();
+		Lookup.getDefaultCache(DClass.IN).clearCache();
+	}
+
+	protected Answer<Message> getPKIXAnswer(final byte[] certData, final long ttl, final CountDownLatch gate)
+	{
+		final Answer<Message> retVal = new Answer<Message>()
+		{
+			public Message answer(InvocationOnMock invocation) throws Throwable
+			{
+				if (gate != null)
+					gate.await(10, TimeUnit.SECONDS);
+
+				final Message request = (Message)invocation.getArguments()[0];
+				final Message response = new Message(request.getHeader().getID());
+		        response.getHeader().setFlag(Flags.QR);
+		    	if (request.getHeader().getFlag(Flags.RD))
+		    		response.getHeader().setFlag(Flags.RD);
+		    	response.addRecord(request.getQuestion(), Section.QUESTION);
+
+		    	if (certData != null)
+		    	{
+					final CERTRecord rec = new CERTRecord(request.getQuestion().getName(), DClass.IN, ttl, CERTRecord.PKIX, 0,
+							5 /*public key alg, RFC 4034*/, certData);
+					response.addRecord(rec, Section.ANSWER);
+		    	}
+		    	else
+		    	{
+		    		response.getHeader().setRcode(Rcode.NXDOMAIN);
+		    	}
+
+		    	// we are authoritative only
+		    	response.getHeader().setFlag(Flags.AA);
+
+		    	return response;
+		    }
+		};
+
+		return retVal;
+	}
+
+	protected DNSCertificateStore createStore(final ExtendedResolver resolver)
+	{
+		return new DNSCertificateStore()
+		{
+			protected ExtendedResolver createExResolver(String[] servers, int retries, int timeout)
+			{
+				return resolver;
+			}
+		};
+	}
+
+	public void testGetCertificates_certInDNS_secondRequestFromCache() throws Exception
+	{
+		final X509Certificate cert = (X509Certificate)TestUtils.loadCertificate("certCheckA.der");
+
+		final ExtendedResolver resolver = mock(ExtendedResolver.class);
+		when(resolver.send((Message )any())).thenAnswer(getPKIXAnswer(cert.getEncoded(), 86400L, null));
+
+		final DNSCertificateStore store = createStore(resolver);
+
+		Collection<X509Certificate> certs = store.getCertificates("cachehit.com");
+		assertEquals(1, certs.size());
+		assertEquals(cert, certs.iterator().next());
+		assertEquals(1, store.getCacheMissCount());
+		assertEquals(0, store.getCacheHitCount());
+
+		certs = store.getCertificates("CacheHit.com");
+		assertEquals(1, certs.size());
+		assertEquals(cert, certs.iterator().next());
+		assertEquals(1, store.getCacheMissCount());
+		assertEquals(1, store.getCacheHitCount());
+	}
+
+	public void testGetCertificates_certInDNS_usesRecordTTL() throws Exception
+	{
+		final X509Certificate cert = (X509Certificate)TestUtils.loadCertificate("certCheckA.der");
+
+		final ExtendedResolver resolver = mock(ExtendedResolver.class);
+		when(resolver.send((Message )any())).thenAnswer(getPKIXAnswer(cert.getEncoded(), 60L, null));
+
+		final DNSCertificateStore store = createStore(resolver);
+
+		store.getCertificates("recordttl.com");
+
+		assertEquals(60, store.cache.getElementAttributes("recordttl.com").getMaxLifeSeconds());
+	}
+
+	public void testGetCertificates_certInDNS_recordTTLLimitedByPolicy() throws Exception
+	{
+		final X509Certificate cert = (X509Certificate)TestUtils.loadCertificate("certCheckA.der");
+
+		final ExtendedResolver resolver = mock(ExtendedResolver.class);
+		when(resolver.send((Message )any())).thenAnswer(getPKIXAnswer(cert.getEncoded(), Integer.MAX_VALUE, null));
+
+		final DNSCertificateStore store = createStore(resolver);
+
+		store.getCertificates("policyttl.com");
+
+		assertEquals(store.cachePolicy.getSubjectTTL(), store.cache.getElementAttributes("policyttl.com").getMaxLifeSeconds());
+	}
+
+	public void testGetCertificates_nameDoesNotExist_negativeCacheHit() throws Exception
+	{
+		final ExtendedResolver resolver = mock(ExtendedResolver.class);
+		when(resolver.send((Message )any())).thenAnswer(getPKIXAnswer(null, 0, null));
+
+		final DNSCertificateStore store = createStore(resolver);
+
+		Collection<X509Certificate> certs = store.getCertificates("user@doesnotexist.com");
+		assertNotNull(certs);
+		assertTrue(certs.isEmpty());
+		assertEquals(1, store.getCacheMissCount());
+		assertEquals(0, store.getNegativeCacheHitCount());
+
+		certs = store.getCertificates("user@doesnotexist.com");
+		assertNotNull(certs);
+		assertTrue(certs.isEmpty());
+		assertEquals(1, store.getCacheMissCount());
+		assertEquals(1, store.getNegativeCacheHitCount());
+		assertEquals(1, store.getCacheHitCount());
+	}
+
+	public void testGetCertificates_concurrentMisses_lookupsCoalesced() throws Exception
+	{
+		final X509Certificate cert = (X509Certificate)TestUtils.loadCertificate("certCheckA.der");
+		final CountDownLatch gate = new CountDownLatch(1);
+
+		final ExtendedResolver resolver = mock(ExtendedResolver.class);
+		when(resolver.send((Message )any())).thenAnswer(getPKIXAnswer(cert.getEncoded(), 86400L, gate));
+
+		final DNSCertificateStore store = createStore(resolver);
+
+		final AtomicReference<Collection<X509Certificate>> firstResult = new AtomicReference<Collection<X509Certificate>>();
+		final AtomicReference<Collection<X509Certificate>> secondResult = new AtomicReference<Collection<X509Certificate>>();
+
+		final Thread first = new Thread(new Runnable()
+		{
+			public void run()
+			{
+				firstResult.set(store.getCertificates("coalesced.com"));
+			}
+		});
+
+		final Thread second = new Thread(new Runnable()
+		{
+			public void run()
+			{
+				secondResult.set(store.getCertificates("coalesced.com"));
+			}
+		});
+
+		first.start();
+
+		// wait for the first lookup to be in flight
+		for (int i = 0; i < 100 && !store.inflightLookups.containsKey("coalesced.com"); ++i)
+			Thread.sleep(50);
+		assertTrue(store.inflightLookups.containsKey("coalesced.com"));
+
+		second.start();
+		for (int i = 0; i < 100 && store.getCoalescedLookupCount() == 0; ++i)
+			Thread.sleep(50);
+
+		gate.countDown();
+		first.join(10000);
+		second.join(10000);
+
+		assertEquals(1, store.getCoalescedLookupCount());
+		assertEquals(2, store.getCacheMissCount());
+		assertEquals(1, firstResult.get().size());
+		assertEquals(1, secondResult.get().size());
+		assertSame(firstResult.get(), secondResult.get());
+		assertTrue(store.inflightLookups.isEmpty());
+	}
+}
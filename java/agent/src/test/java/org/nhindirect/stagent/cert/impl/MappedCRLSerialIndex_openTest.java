@@ -0,0 +1,149 @@
+package org.nhindirect.stagent.cert.impl;
+
+import java.io.File;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.cert.X509CRL;
+import java.security.cert.X509CRLEntry;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Date;
+
+import javax.security.auth.x500.X500Principal;
+
+import junit.framework.TestCase;
+
+import org.apache.commons.io.FileUtils;
+import org.bouncycastle.asn1.x509.CRLReason;
+import org.bouncycastle.x509.X509V2CRLGenerator;
+import org.nhindirect.stagent.CryptoExtensions;
+import org.nhindirect.stagent.utils.TestUtils;
+
+public class MappedCRLSerialIndex_openTest extends TestCase
+{
+	protected File indexFile;
+	
+	@Override
+	public void setUp()
+	{
+		CryptoExtensions.registerJCEProviders();
+		
+		indexFile = new File(System.getProperty("java.io.tmpdir"), "MappedCRLSerialIndex_openTest" + MappedCRLSerialIndex.INDEX_FILE_EXTENSION);
+		FileUtils.deleteQuietly(indexFile);
+	}
+	
+	@Override
+	public void tearDown()
+	{
+		FileUtils.deleteQuietly(indexFile);
+	}
+	
+	public void testOpen_existingCRL_assertMatchesCRL() throws Exception
+	{
+		final X509CRL crl = (X509CRL)TestUtils.loadCRL("certs.crl");
+		final CRLSerialIndex heapIndex = CRLSerialIndex.create(crl);
+		
+		MappedCRLSerialIndex.write(indexFile, heapIndex);
+		
+		final MappedCRLSerialIndex index = MappedCRLSerialIndex.open(indexFile);
+		
+		assertEquals(heapIndex.size(), index.size());
+		assertEquals(crl.getThisUpdate(), index.getThisUpdate());
+		assertEquals(crl.getNextUpdate(), index.getNextUpdate());
+		assertEquals(crl.getIssuerX500Principal(), index.getIssuer());
+		assertTrue(Arrays.equals(heapIndex.getIssuerKeyId(), index.getIssuerKeyId()));
+		assertTrue(Arrays.equals(heapIndex.getSerials(), index.getSerials()));
+		
+		for (X509CRLEntry entry : crl.getRevokedCertificates())
+			assertTrue(index.isRevoked(entry.getSerialNumber()));
+		
+		assertFalse(index.isRevoked(BigInteger.valueOf(Long.MAX_VALUE)));
+		assertFalse(index.isRevoked(null));
+	}
+	
+	public void testOpen_largeSerialsAndKeyId_assertFound() throws Exception
+	{
+		final BigInteger[] large = new BigInteger[] {new BigInteger("123456789012345678901234567890"), 
+				BigInteger.valueOf(Long.MAX_VALUE).add(BigInteger.ONE), new BigInteger("-98765432109876543210")};
+		
+		final Calendar cal = Calendar.getInstance();
+		cal.add(Calendar.DAY_OF_MONTH, 1);
+		
+		final BigInteger[] sortedLarge = large.clone();
+		Arrays.sort(sortedLarge);
+		
+		final CRLSerialIndex heapIndex = new CRLSerialIndex(new long[] {-5, 7, 42}, sortedLarge, new Date(), null, 
+				new X500Principal("CN=Test CRL"), new byte[] {1, 2, 3, 4});
+		
+		MappedCRLSerialIndex.write(indexFile, heapIndex);
+		
+		final MappedCRLSerialIndex index = MappedCRLSerialIndex.open(indexFile);
+		
+		assertEquals(6, index.size());
+		assertNull(index.getNextUpdate());
+		assertFalse(index.isExpired(cal.getTime()));
+		assertTrue(Arrays.equals(new byte[] {1, 2, 3, 4}, index.getIssuerKeyId()));
+		assertTrue(Arrays.equals(heapIndex.getLargeSerials(), index.getLargeSerials()));
+		
+		for (BigInteger serial : large)
+		{
+			assertTrue(index.isRevoked(serial));
+			assertFalse(index.isRevoked(serial.add(BigInteger.ONE)));
+		}
+		
+		assertTrue(index.isRevoked(BigInteger.valueOf(-5)));
+		assertTrue(index.isRevoked(BigInteger.valueOf(7)));
+		assertTrue(index.isRevoked(BigInteger.valueOf(42)));
+		assertFalse(index.isRevoked(BigInteger.valueOf(8)));
+	}
+	
+	public void testOpen_generatedCRL_rewriteIndex_assertNewIndex() throws Exception
+	{
+		final KeyPair pair = KeyPairGenerator.getInstance("RSA", "BC").generateKeyPair();
+		final Calendar cal = Calendar.getInstance();
+		cal.add(Calendar.DAY_OF_MONTH, 1);
+		
+		final X509V2CRLGenerator crlGen = new X509V2CRLGenerator();
+    	crlGen.setIssuerDN(new X500Principal("CN=Test CRL"));
+    	crlGen.setNextUpdate(cal.getTime());
+    	crlGen.setSignatureAlgorithm("SHA256withRSAEncryption");
+    	crlGen.setThisUpdate(new Date());
+    	crlGen.addCRLEntry(BigInteger.valueOf(100), new Date(), CRLReason.keyCompromise);
+    	
+		MappedCRLSerialIndex.write(indexFile, CRLSerialIndex.create(crlGen.generate(pair.getPrivate(), "BC")));
+		assertTrue(MappedCRLSerialIndex.open(indexFile).isRevoked(BigInteger.valueOf(100)));
+		
+    	crlGen.addCRLEntry(BigInteger.valueOf(200), new Date(), CRLReason.keyCompromise);
+		MappedCRLSerialIndex.write(indexFile, CRLSerialIndex.create(crlGen.generate(pair.getPrivate(), "BC")));
+		
+		final MappedCRLSerialIndex index = MappedCRLSerialIndex.open(indexFile);
+		assertEquals(2, index.size());
+		assertTrue(index.isRevoked(BigInteger.valueOf(200)));
+	}
+	
+	public void testOpen_corruptFile_assertException() throws Exception
+	{
+		FileUtils.writeByteArrayToFile(indexFile, new byte[] {9, 6, 4});
+		
+		boolean exceptionOccured = false;
+		try
+		{
+			MappedCRLSerialIndex.open(indexFile);
+		}
+		catch (IOException e)
+		{
+			exceptionOccured = true;
+		}
+		
+		assertTrue(exceptionOccured);
+	}
+	
+	public void testGetIndexFile_cacheFile_assertIndexFileName()
+	{
+		final File cacheFile = new File("CrlCache", "abcdef.cache");
+		
+		assertEquals(new File("CrlCache", "abcdef.idx"), MappedCRLSerialIndex.getIndexFile(cacheFile));
+	}
+}
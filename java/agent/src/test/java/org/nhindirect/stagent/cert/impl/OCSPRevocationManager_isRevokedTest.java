@@ -0,0 +1,319 @@
+package org.nhindirect.stagent.cert.impl;
+
+import java.math.BigInteger;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.PrivateKey;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.security.auth.x500.X500Principal;
+
+import junit.framework.TestCase;
+
+import org.bouncycastle.asn1.x509.AuthorityInformationAccess;
+import org.bouncycastle.asn1.x509.ExtendedKeyUsage;
+import org.bouncycastle.asn1.x509.GeneralName;
+import org.bouncycastle.asn1.x509.KeyPurposeId;
+import org.bouncycastle.asn1.x509.X509Extensions;
+import org.bouncycastle.asn1.x509.X509ObjectIdentifiers;
+import org.bouncycastle.ocsp.BasicOCSPResp;
+import org.bouncycastle.ocsp.BasicOCSPRespGenerator;
+import org.bouncycastle.ocsp.CertificateID;
+import org.bouncycastle.ocsp.CertificateStatus;
+import org.bouncycastle.ocsp.OCSPReq;
+import org.bouncycastle.ocsp.OCSPRespGenerator;
+import org.bouncycastle.ocsp.Req;
+import org.bouncycastle.ocsp.RevokedStatus;
+import org.bouncycastle.ocsp.UnknownStatus;
+import org.bouncycastle.x509.X509V3CertificateGenerator;
+import org.nhindirect.stagent.CryptoExtensions;
+import org.nhindirect.stagent.cert.CertCacheFactory;
+import org.nhindirect.stagent.cert.RevocationManager;
+import org.nhindirect.stagent.options.OptionsManager;
+import org.nhindirect.stagent.options.OptionsParameter;
+
+public class OCSPRevocationManager_isRevokedTest extends TestCase
+{
+	private static final String RESPONDER_URL = "http://localhost/ocsp";
+	
+	protected KeyPair caKeyPair;
+	protected X509Certificate caCert;
+	protected KeyPair eeKeyPair;
+	
+	protected final Set<BigInteger> revokedSerials = new HashSet<BigInteger>();
+	protected final Set<BigInteger> unknownSerials = new HashSet<BigInteger>();
+	protected final AtomicInteger fallbackCalls = new AtomicInteger();
+	protected final AtomicInteger responderCalls = new AtomicInteger();
+	protected final AtomicInteger lastRequestSize = new AtomicInteger();
+	
+	protected PrivateKey responderSigningKey;
+	protected X509Certificate[] responderChain;
+	protected Date thisUpdate;
+	
+	@Override
+	public void setUp() throws Exception
+	{
+		CryptoExtensions.registerJCEProviders();
+		CertCacheFactory.getInstance().flushAll();
+		
+		final KeyPairGenerator kpGen = KeyPairGenerator.getInstance("RSA", "BC");
+		kpGen.initialize(1024);
+		caKeyPair = kpGen.generateKeyPair();
+		eeKeyPair = kpGen.generateKeyPair();
+		
+		caCert = createCert(new X500Principal("CN=OCSP Test CA"), caKeyPair.getPublic(), 1, null, null);
+		
+		responderSigningKey = caKeyPair.getPrivate();
+		responderChain = null;
+		thisUpdate = null;
+	}
+	
+	@Override
+	public void tearDown()
+	{
+		CertCacheFactory.getInstance().flushAll();
+		OptionsManager.getInstance().setOptionsParameter(new OptionsParameter(OptionsParameter.OCSP_MAX_RESPONSE_AGE, null));
+	}
+	
+	protected X509Certificate createCert(X500Principal subject, java.security.PublicKey publicKey, long serial, String ocspURL, 
+			KeyPurposeId eku) throws Exception
+	{
+		final X509V3CertificateGenerator certGen = new X509V3CertificateGenerator();
+		certGen.setSerialNumber(BigInteger.valueOf(serial));
+		certGen.setIssuerDN(new X500Principal("CN=OCSP Test CA"));
+		certGen.setSubjectDN(subject);
+		certGen.setNotBefore(new Date(System.currentTimeMillis() - 3600000L));
+		certGen.setNotAfter(new Date(System.currentTimeMillis() + 86400000L));
+		certGen.setPublicKey(publicKey);
+		certGen.setSignatureAlgorithm("SHA256WithRSAEncryption");
+		
+		if (ocspURL != null)
+			certGen.addExtension(X509Extensions.AuthorityInfoAccess, false, new AuthorityInformationAccess(X509ObjectIdentifiers.ocspAccessMethod,
+					new GeneralName(GeneralName.uniformResourceIdentifier, ocspURL)));
+		
+		if (eku != null)
+			certGen.addExtension(X509Extensions.ExtendedKeyUsage, false, new ExtendedKeyUsage(eku));
+		
+		return certGen.generate(caKeyPair.getPrivate(), "BC");
+	}
+	
+	protected X509Certificate createEndEntityCert(long serial, String ocspURL) throws Exception
+	{
+		return createCert(new X500Principal("CN=user" + serial + "@domain.com"), eeKeyPair.getPublic(), serial, ocspURL, null);
+	}
+	
+	protected OCSPRevocationManager createManager()
+	{
+		final RevocationManager fallback = new RevocationManager()
+		{
+			public boolean isRevoked(X509Certificate certificate)
+			{
+				fallbackCalls.incrementAndGet();
+				return false;
+			}
+		};
+		
+		final OCSPRevocationManager retVal = new OCSPRevocationManager(fallback)
+		{
+			@Override
+			protected byte[] sendRequest(String responderURL, byte[] request) throws Exception
+			{
+				assertEquals(RESPONDER_URL, responderURL);
+				responderCalls.incrementAndGet();
+				
+				final Req[] reqs = new OCSPReq(request).getRequestList();
+				lastRequestSize.set(reqs.length);
+				
+				final BasicOCSPRespGenerator respGen = new BasicOCSPRespGenerator(caKeyPair.getPublic());
+				for (Req req : reqs)
+				{
+					final CertificateID certId = req.getCertID();
+					CertificateStatus status = CertificateStatus.GOOD;
+					if (revokedSerials.contains(certId.getSerialNumber()))
+						status = new RevokedStatus(new Date(), 0);
+					else if (unknownSerials.contains(certId.getSerialNumber()))
+						status = new UnknownStatus();
+					
+					respGen.addResponse(certId, status, (thisUpdate != null) ? thisUpdate : new Date(), new Date(System.currentTimeMillis() + 600000L), null);
+				}
+				
+				final BasicOCSPResp basicResp = respGen.generate("SHA256WithRSA", responderSigningKey, responderChain, new Date(), "BC");
+				return new OCSPRespGenerator().generate(OCSPRespGenerator.SUCCESSFUL, basicResp).getEncoded();
+			}
+		};
+		retVal.addIssuerCertificates(Arrays.asList(caCert));
+		
+		return retVal;
+	}
+	
+	public void testIsRevoked_goodAndRevoked_assertStatusAndCached() throws Exception
+	{
+		final X509Certificate good = createEndEntityCert(100, RESPONDER_URL);
+		final X509Certificate revoked = createEndEntityCert(101, RESPONDER_URL);
+		revokedSerials.add(revoked.getSerialNumber());
+		
+		final OCSPRevocationManager manager = createManager();
+		
+		assertFalse(manager.isRevoked((X509Certificate)null));
+		assertFalse(manager.isRevoked(good));
+		assertTrue(manager.isRevoked(revoked));
+		assertEquals(2, responderCalls.get());
+		
+		// served from the cache
+		assertFalse(manager.isRevoked(good));
+		assertTrue(manager.isRevoked(revoked));
+		assertEquals(2, responderCalls.get());
+		assertEquals(2, manager.getCacheHitCount());
+		assertEquals(0, fallbackCalls.get());
+	}
+	
+	public void testIsRevoked_batch_assertSingleRequest() throws Exception
+	{
+		final Collection<X509Certificate> certs = new ArrayList<X509Certificate>();
+		for (int i = 0; i < 20; ++i)
+			certs.add(createEndEntityCert(200 + i, RESPONDER_URL));
+		
+		final X509Certificate revoked = certs.iterator().next();
+		revokedSerials.add(revoked.getSerialNumber());
+		
+		final OCSPRevocationManager manager = createManager();
+		
+		final Map<X509Certificate, Boolean> statuses = manager.isRevoked(certs);
+		assertEquals(20, statuses.size());
+		for (X509Certificate cert : certs)
+			assertEquals(cert == revoked, statuses.get(cert).booleanValue());
+		
+		assertEquals(1, responderCalls.get());
+		assertEquals(20, lastRequestSize.get());
+		
+		// only the new certificate is requested
+		final X509Certificate newCert = createEndEntityCert(300, RESPONDER_URL);
+		certs.add(newCert);
+		assertFalse(manager.isRevoked(certs).get(newCert));
+		assertEquals(2, responderCalls.get());
+		assertEquals(1, lastRequestSize.get());
+	}
+	
+	public void testIsRevoked_thisUpdateOlderThanMaxAge_assertFallbackAndNotCached() throws Exception
+	{
+		final X509Certificate cert = createEndEntityCert(900, RESPONDER_URL);
+		revokedSerials.add(cert.getSerialNumber());
+		thisUpdate = new Date(System.currentTimeMillis() - 8 * 86400000L);
+		
+		final OCSPRevocationManager manager = createManager();
+		
+		assertFalse(manager.isRevoked(cert));
+		assertFalse(manager.isRevoked(cert));
+		assertEquals(2, responderCalls.get());
+		assertEquals(2, fallbackCalls.get());
+	}
+	
+	public void testIsRevoked_thisUpdateWithinConfiguredMaxAge_assertStatus() throws Exception
+	{
+		OptionsManager.getInstance().setOptionsParameter(new OptionsParameter(OptionsParameter.OCSP_MAX_RESPONSE_AGE, "3600"));
+		
+		final X509Certificate cert = createEndEntityCert(901, RESPONDER_URL);
+		revokedSerials.add(cert.getSerialNumber());
+		thisUpdate = new Date(System.currentTimeMillis() - 1800000L);
+		
+		final OCSPRevocationManager manager = createManager();
+		
+		assertTrue(manager.isRevoked(cert));
+		assertEquals(0, fallbackCalls.get());
+		
+		// older than the configured maximum age
+		thisUpdate = new Date(System.currentTimeMillis() - 7200000L);
+		
+		assertFalse(manager.isRevoked(createEndEntityCert(902, RESPONDER_URL)));
+		assertEquals(1, fallbackCalls.get());
+	}
+	
+	public void testIsRevoked_thisUpdateInFuture_assertFallback() throws Exception
+	{
+		final X509Certificate cert = createEndEntityCert(903, RESPONDER_URL);
+		revokedSerials.add(cert.getSerialNumber());
+		thisUpdate = new Date(System.currentTimeMillis() + 300000L);
+		
+		final OCSPRevocationManager manager = createManager();
+		
+		assertFalse(manager.isRevoked(cert));
+		assertEquals(1, responderCalls.get());
+		assertEquals(1, fallbackCalls.get());
+	}
+	
+	public void testIsRevoked_noResponder_assertFallback() throws Exception
+	{
+		final OCSPRevocationManager manager = createManager();
+		
+		assertFalse(manager.isRevoked(createEndEntityCert(400, null)));
+		assertEquals(0, responderCalls.get());
+		assertEquals(1, fallbackCalls.get());
+	}
+	
+	public void testIsRevoked_unknownStatus_assertFallbackAndNotCached() throws Exception
+	{
+		final X509Certificate cert = createEndEntityCert(500, RESPONDER_URL);
+		unknownSerials.add(cert.getSerialNumber());
+		
+		final OCSPRevocationManager manager = createManager();
+		
+		assertFalse(manager.isRevoked(cert));
+		assertFalse(manager.isRevoked(cert));
+		assertEquals(2, responderCalls.get());
+		assertEquals(2, fallbackCalls.get());
+	}
+	
+	public void testIsRevoked_unknownIssuer_assertFallback() throws Exception
+	{
+		final X509Certificate cert = createEndEntityCert(600, RESPONDER_URL);
+		
+		final OCSPRevocationManager manager = createManager();
+		manager.knownIssuers.clear();
+		
+		assertFalse(manager.isRevoked(cert));
+		assertEquals(0, responderCalls.get());
+		assertEquals(1, fallbackCalls.get());
+	}
+	
+	public void testIsRevoked_responseSignedByUnauthorizedKey_assertFallback() throws Exception
+	{
+		final X509Certificate cert = createEndEntityCert(700, RESPONDER_URL);
+		revokedSerials.add(cert.getSerialNumber());
+		
+		// responder cert issued by the CA, but not authorized for OCSP signing
+		final KeyPair responderKeyPair = KeyPairGenerator.getInstance("RSA", "BC").generateKeyPair();
+		responderSigningKey = responderKeyPair.getPrivate();
+		responderChain = new X509Certificate[] {createCert(new X500Principal("CN=OCSP Responder"), responderKeyPair.getPublic(), 2, null, null)};
+		
+		final OCSPRevocationManager manager = createManager();
+		
+		assertFalse(manager.isRevoked(cert));
+		assertEquals(1, responderCalls.get());
+		assertEquals(1, fallbackCalls.get());
+	}
+	
+	public void testIsRevoked_responseSignedByDelegatedResponder_assertStatus() throws Exception
+	{
+		final X509Certificate cert = createEndEntityCert(800, RESPONDER_URL);
+		revokedSerials.add(cert.getSerialNumber());
+		
+		final KeyPair responderKeyPair = KeyPairGenerator.getInstance("RSA", "BC").generateKeyPair();
+		responderSigningKey = responderKeyPair.getPrivate();
+		responderChain = new X509Certificate[] {createCert(new X500Principal("CN=OCSP Responder"), responderKeyPair.getPublic(), 3, null, 
+				KeyPurposeId.id_kp_OCSPSigning)};
+		
+		final OCSPRevocationManager manager = createManager();
+		
+		assertTrue(manager.isRevoked(cert));
+		assertEquals(1, responderCalls.get());
+		assertEquals(0, fallbackCalls.get());
+	}
+}
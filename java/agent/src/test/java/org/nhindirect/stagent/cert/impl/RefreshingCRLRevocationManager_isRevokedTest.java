@@ -0,0 +1,289 @@
+package org.nhindirect.stagent.cert.impl;
+
+import java.io.File;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.cert.X509CRL;
+import java.util.Calendar;
+import java.util.Date;
+
+import javax.security.auth.x500.X500Principal;
+
+import junit.framework.TestCase;
+
+import org.apache.commons.io.FileUtils;
+import org.bouncycastle.x509.X509V2CRLGenerator;
+import org.nhindirect.stagent.CryptoExtensions;
+import org.nhindirect.stagent.utils.TestUtils;
+
+public class RefreshingCRLRevocationManager_isRevokedTest extends TestCase
+{
+	private static final String KEY_STORE_PASSWORD = "h3||0 wor|d";
+	private static final String PRIVATE_KEY_PASSWORD = "pKpa$$wd";
+	
+	protected String workingDir;
+	protected RefreshingCRLRevocationManager manager;
+	
+	@Override
+	public void setUp()
+	{
+		CryptoExtensions.registerJCEProviders();
+		
+		CRLRevocationManager.initCRLCacheLocation();
+		CRLRevocationManager.getInstance().flush();
+		
+		final String tmp = this.getClass().getClassLoader().getResource("crl/certs.crl").getPath();
+		workingDir = tmp.substring(0, tmp.lastIndexOf("/") + 1).replaceAll("%20", " ");
+	}
+	
+	@Override
+	public void tearDown()
+	{
+		if (manager != null)
+			manager.shutdown();
+		
+		CRLRevocationManager.getInstance().flush();
+		CRLRevocationManager.initCRLCacheLocation();
+	}
+	
+	protected RefreshingCRLRevocationManager createManager(int maxCacheSize)
+	{
+		return createManager(maxCacheSize, workingDir);
+	}
+	
+	protected RefreshingCRLRevocationManager createManager(int maxCacheSize, final String crlDir)
+	{
+		return new RefreshingCRLRevocationManager(300, 60, maxCacheSize)
+		{
+			@Override
+			protected String getNameString(String generalNameString) 
+			{
+				final String s = super.getNameString(generalNameString);
+				return s.replace("http://JUNIT", "file://" + crlDir);
+			}
+		};
+	}
+	
+	protected X509CRL createCRL(int yearOffset) throws Exception
+	{
+		final KeyPairGenerator kpGen = KeyPairGenerator.getInstance("RSA", "BC");
+		final KeyPair pair = kpGen.generateKeyPair();
+		final Calendar cal = Calendar.getInstance();
+		cal.set(Calendar.YEAR, cal.get(Calendar.YEAR) + yearOffset);
+		
+		final X509V2CRLGenerator crlGen = new X509V2CRLGenerator();
+    	crlGen.setIssuerDN(new X500Principal("CN=Test CRL"));
+    	crlGen.setNextUpdate(cal.getTime());
+    	crlGen.setSignatureAlgorithm("SHA256withRSAEncryption");
+    	crlGen.setThisUpdate(Calendar.getInstance().getTime());
+		crlGen.addCRL((X509CRL)TestUtils.loadCRL("certs.crl"));
+		
+		return crlGen.generate(pair.getPrivate(), "BC");
+	}
+	
+	public void testIsRevoked_certsFromKeystore_assertRevocationStatus() throws Exception
+	{
+		final KeyStoreCertificateStore service = new KeyStoreCertificateStore(workingDir + "keystore", KEY_STORE_PASSWORD, PRIVATE_KEY_PASSWORD);
+		
+		manager = createManager(10);
+		
+		assertFalse(manager.isRevoked(null));
+		assertFalse(manager.isRevoked(service.getByAlias("valid")));
+		assertTrue(manager.isRevoked(service.getByAlias("revoked")));
+		assertFalse(manager.isRevoked(service.getByAlias("gm2552")));
+		assertFalse(manager.isRevoked(service.getByAlias("missing")));
+	}
+	
+	public void testIsRevoked_currentCRL_assertServedFromMemory() throws Exception
+	{
+		final KeyStoreCertificateStore service = new KeyStoreCertificateStore(workingDir + "keystore", KEY_STORE_PASSWORD, PRIVATE_KEY_PASSWORD);
+		
+		final File crlDir = new File(System.getProperty("java.io.tmpdir"), "refreshingCRLCurrent");
+		FileUtils.writeByteArrayToFile(new File(crlDir, "certs.crl"), createCRL(10).getEncoded());
+		
+		try
+		{
+			manager = createManager(10, crlDir.getAbsolutePath() + "/");
+			
+			assertFalse(manager.isRevoked(service.getByAlias("valid")));
+			assertTrue(manager.isRevoked(service.getByAlias("revoked")));
+			
+			final CRLSerialIndex index = manager.getCRLIndexes().values().iterator().next();
+			
+			assertFalse(manager.isRevoked(service.getByAlias("valid")));
+			assertTrue(manager.isRevoked(service.getByAlias("revoked")));
+			assertEquals(1, manager.getCRLIndexes().size());
+			assertSame(index, manager.getCRLIndexes().values().iterator().next());
+		}
+		finally
+		{
+			FileUtils.deleteQuietly(crlDir);
+		}
+	}
+	
+	public void testGetCRLIndex_expiredInMemory_assertDownloadedAgain() throws Exception
+	{
+		final File crlFile = new File(System.getProperty("java.io.tmpdir"), "refreshingCRLExpired.crl");
+		FileUtils.writeByteArrayToFile(crlFile, createCRL(-10).getEncoded());
+		
+		try
+		{
+			final String url = "file://" + crlFile.getAbsolutePath();
+			
+			manager = createManager(10);
+			
+			final CRLSerialIndex expired = manager.getCRLIndex(url);
+			assertNotNull(expired);
+			assertTrue(expired.isExpired(new Date()));
+			
+			FileUtils.writeByteArrayToFile(crlFile, createCRL(10).getEncoded());
+			
+			final CRLSerialIndex current = manager.getCRLIndex(url);
+			assertNotNull(current);
+			assertNotSame(expired, current);
+			assertFalse(current.isExpired(new Date()));
+		}
+		finally
+		{
+			FileUtils.deleteQuietly(crlFile);
+		}
+	}
+	
+	public void testGetCRLIndex_expiredInMemory_notAvailable_assertNull() throws Exception
+	{
+		final File crlFile = new File(System.getProperty("java.io.tmpdir"), "refreshingCRLExpired.crl");
+		FileUtils.writeByteArrayToFile(crlFile, createCRL(-10).getEncoded());
+		
+		try
+		{
+			final String url = "file://" + crlFile.getAbsolutePath();
+			
+			manager = createManager(10);
+			
+			assertNotNull(manager.getCRLIndex(url));
+			
+			assertTrue(crlFile.delete());
+			
+			// the expired index is not served even though it was just fetched
+			assertNull(manager.getCRLIndex(url));
+		}
+		finally
+		{
+			FileUtils.deleteQuietly(crlFile);
+		}
+	}
+	
+	public void testGetCRLIndex_expiredInMemory_notModified_assertNull() throws Exception
+	{
+		final File crlFile = new File(System.getProperty("java.io.tmpdir"), "refreshingCRLExpired.crl");
+		FileUtils.writeByteArrayToFile(crlFile, createCRL(-10).getEncoded());
+		
+		try
+		{
+			final String url = "file://" + crlFile.getAbsolutePath();
+			
+			manager = new RefreshingCRLRevocationManager(300, 60, 10)
+			{
+				@Override
+				protected CRLSerialIndex fetchCoalesced(String distPointURL, boolean conditional) 
+				{
+					// simulate joining an in flight background refresh that found the CRL unmodified
+					return super.fetchCoalesced(distPointURL, getCRLIndexes().isEmpty() ? conditional : true);
+				}
+			};
+			
+			final CRLSerialIndex expired = manager.getCRLIndex(url);
+			assertNotNull(expired);
+			
+			assertNull(manager.getCRLIndex(url));
+		}
+		finally
+		{
+			FileUtils.deleteQuietly(crlFile);
+		}
+	}
+	
+	public void testFetchCoalesced_conditional_notModified_assertSameIndex() throws Exception
+	{
+		final String url = "file://" + workingDir + "certs.crl";
+		
+		manager = createManager(10);
+		
+		final CRLSerialIndex index = manager.getCRLIndex(url);
+		assertNotNull(index);
+		
+		assertSame(index, manager.fetchCoalesced(url, true));
+		assertNotSame(index, manager.fetchCoalesced(url, false));
+	}
+	
+	public void testGetCRLIndex_cacheFull_assertLeastRecentlyUsedEvicted() throws Exception
+	{
+		final File crlFile = new File(workingDir + "certs.crl");
+		final File copy = new File(System.getProperty("java.io.tmpdir"), "refreshingCRLCopy.crl");
+		FileUtils.copyFile(crlFile, copy);
+		
+		try
+		{
+			final String firstURL = "file://" + crlFile.getAbsolutePath();
+			final String secondURL = "file://" + copy.getAbsolutePath();
+			
+			manager = createManager(1);
+			
+			assertNotNull(manager.getCRLIndex(firstURL));
+			assertNotNull(manager.getCRLIndex(secondURL));
+			
+			assertEquals(1, manager.getCRLIndexes().size());
+			assertTrue(manager.getCRLIndexes().containsKey(secondURL));
+		}
+		finally
+		{
+			FileUtils.deleteQuietly(copy);
+		}
+	}
+	
+	public void testGetCRLIndex_notInMemory_loadFromCacheFile_assertIndexFound() throws Exception
+	{
+		final String url = "http://localhost:8080/refreshing.crl";
+		final X509CRL crl = createCRL(10);
+		
+		CRLRevocationManager.getInstance().writeCRLCacheFile(url, crl);
+		
+		manager = createManager(10);
+		
+		final CRLSerialIndex index = manager.getCRLIndex(url);
+		assertNotNull(index);
+		assertTrue(index instanceof MappedCRLSerialIndex);
+		assertEquals(crl.getRevokedCertificates().size(), index.size());
+		assertEquals(crl.getNextUpdate(), index.getNextUpdate());
+	}
+	
+	public void testGetCRLIndex_notInMemory_indexFileMissing_assertIndexRebuilt() throws Exception
+	{
+		final String url = "http://localhost:8080/refreshing.crl";
+		final X509CRL crl = createCRL(10);
+		
+		CRLRevocationManager.getInstance().writeCRLCacheFile(url, crl);
+		
+		final File indexFile = MappedCRLSerialIndex.getIndexFile(new File(CRLRevocationManager.getCacheFileName(url)));
+		assertTrue(indexFile.delete());
+		
+		manager = createManager(10);
+		
+		final CRLSerialIndex index = manager.getCRLIndex(url);
+		assertNotNull(index);
+		assertFalse(index instanceof MappedCRLSerialIndex);
+		assertEquals(crl.getRevokedCertificates().size(), index.size());
+		assertTrue(indexFile.exists());
+	}
+	
+	public void testGetCRLIndex_notInMemory_expiredCacheFile_notAvailable_assertNull() throws Exception
+	{
+		final String url = "http://localhost:8080/refreshing.crl";
+		
+		CRLRevocationManager.getInstance().writeCRLCacheFile(url, createCRL(-10));
+		
+		manager = createManager(10);
+		
+		assertNull(manager.getCRLIndex(url));
+	}
+}
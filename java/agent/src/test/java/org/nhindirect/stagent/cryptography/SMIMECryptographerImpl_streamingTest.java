@@ -0,0 +1,232 @@
+package org.nhindirect.stagent.cryptography;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.cert.X509Certificate;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Random;
+
+import javax.mail.internet.InternetHeaders;
+import javax.mail.internet.MimeMultipart;
+import javax.mail.internet.MimeUtility;
+import javax.mail.util.ByteArrayDataSource;
+import javax.mail.util.SharedByteArrayInputStream;
+import javax.mail.util.SharedFileInputStream;
+
+import junit.framework.TestCase;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.bouncycastle.cms.CMSSignedData;
+import org.bouncycastle.cms.SignerInformation;
+import org.nhindirect.stagent.CryptoExtensions;
+import org.nhindirect.stagent.cert.X509CertificateEx;
+import org.nhindirect.stagent.mail.MimeEntity;
+import org.nhindirect.stagent.mail.MimeStandard;
+import org.nhindirect.stagent.parser.EntitySerializer;
+import org.nhindirect.stagent.utils.TestUtils;
+
+public class SMIMECryptographerImpl_streamingTest extends TestCase
+{
+	protected File streamingDir;
+	protected File payloadFile;
+	
+	@Override
+	public void setUp() throws Exception
+	{
+		CryptoExtensions.registerJCEProviders();
+		
+		streamingDir = new File("./target/tempFiles/smimeStreaming");
+		FileUtils.deleteDirectory(streamingDir);
+		streamingDir.mkdirs();
+		
+		payloadFile = new File("./target/tempFiles/smimeStreamingPayload.txt");
+		payloadFile.delete();
+	}
+	
+	@Override
+	public void tearDown() throws Exception
+	{
+		FileUtils.deleteDirectory(streamingDir);
+		payloadFile.delete();
+	}
+	
+	protected SMIMECryptographerImpl createStreamingCryptographer(int threshold)
+	{
+		final SMIMECryptographerImpl retVal = new SMIMECryptographerImpl();
+		retVal.setStreamingEnabled(true);
+		retVal.setStreamingThreshold(threshold);
+		retVal.setStreamingLocation(streamingDir);
+		
+		return retVal;
+	}
+	
+	/*
+	 * Writes a base64 encoded entity with random content to the payload file and returns the SHA-1 digest of the content
+	 */
+	protected byte[] writePayload(int size) throws Exception
+	{
+		final MessageDigest digest = MessageDigest.getInstance("SHA-1");
+		final Random random = new Random(size);
+		
+		final OutputStream fileStream = new BufferedOutputStream(new FileOutputStream(payloadFile));
+		try
+		{
+			fileStream.write(("Content-Type: application/octet-stream\r\n" + 
+					"Content-Transfer-Encoding: base64\r\n\r\n").getBytes("ASCII"));
+			
+			final OutputStream encodedStream = MimeUtility.encode(fileStream, "base64");
+			final byte[] chunk = new byte[8192];
+			for (int written = 0; written < size; written += chunk.length)
+			{
+				random.nextBytes(chunk);
+				final int len = Math.min(chunk.length, size - written);
+				digest.update(chunk, 0, len);
+				encodedStream.write(chunk, 0, len);
+			}
+			encodedStream.flush();
+		}
+		finally
+		{
+			fileStream.close();
+		}
+		
+		return digest.digest();
+	}
+	
+	protected byte[] digestContent(MimeEntity entity) throws Exception
+	{
+		final MessageDigest digest = MessageDigest.getInstance("SHA-1");
+		final InputStream stream = entity.getInputStream();
+		try
+		{
+			final byte[] chunk = new byte[8192];
+			int read;
+			while ((read = stream.read(chunk)) > 0)
+				digest.update(chunk, 0, read);
+		}
+		finally
+		{
+			IOUtils.closeQuietly(stream);
+		}
+		
+		return digest.digest();
+	}
+	
+	protected SignedEntity decryptAndVerify(MimeEntity encEntity) throws Exception
+	{
+		final SMIMECryptographerImpl cryptographer = new SMIMECryptographerImpl();
+		final X509CertificateEx certex = TestUtils.getInternalCert("user1");
+		final X509Certificate cert = TestUtils.getExternalCert("user1");
+		
+		final MimeEntity decryEntity = cryptographer.decrypt(encEntity, certex);
+		
+		final ByteArrayDataSource dataSource = new ByteArrayDataSource(decryEntity.getRawInputStream(), decryEntity.getContentType());
+		final SignedEntity signedEntity = SignedEntity.load(new MimeMultipart(dataSource));
+		
+		verifySignature(cryptographer, signedEntity, cert);
+		
+		return signedEntity;
+	}
+	
+	@SuppressWarnings("unchecked")
+	protected void verifySignature(SMIMECryptographerImpl cryptographer, SignedEntity signedEntity, X509Certificate signerCert) throws Exception
+	{
+		// the test certificates are expired, so verify the signature with the signer's key only
+		final CMSSignedData signedData = cryptographer.deserializeSignatureEnvelope(signedEntity);
+		assertEquals(1, signedData.getSignerInfos().getSigners().size());
+		for (SignerInformation sigInfo : (Collection<SignerInformation>)signedData.getSignerInfos().getSigners())
+			assertTrue(sigInfo.verify(signerCert.getPublicKey(), CryptoExtensions.getJCEProviderName()));
+	}
+	
+	protected void signAndEncryptLargePayload(int size) throws Exception
+	{
+		final byte[] payloadDigest = writePayload(size);
+		final SharedFileInputStream payloadStream = new SharedFileInputStream(payloadFile);
+		try
+		{
+			final MimeEntity entity = new MimeEntity(payloadStream);
+			
+			final SMIMECryptographerImpl cryptographer = createStreamingCryptographer(64 * 1024);
+			
+			final SignedEntity signedEnt = cryptographer.sign(entity, TestUtils.getInternalCert("user1"));
+			final MimeEntity encEntity = cryptographer.encrypt(signedEnt.getMimeMultipart(), TestUtils.getExternalCert("user1"));
+			
+			// encrypted content is held on disk, not in memory, and the buffer files are already unlinked
+			assertTrue(encEntity.getRawInputStream() instanceof SpillableOutputStream.SpilledInputStream);
+			assertEquals(0, streamingDir.list().length);
+			
+			final SignedEntity decryptedSignedEntity = decryptAndVerify(encEntity);
+			assertTrue(Arrays.equals(payloadDigest, digestContent(decryptedSignedEntity.getContent())));
+		}
+		finally
+		{
+			payloadStream.close();
+		}
+	}
+	
+	public void testSignAndEncrypt_smallEntity_bufferedInMemory_matchesNonStreamingResults() throws Exception
+	{
+		final SMIMECryptographerImpl cryptographer = createStreamingCryptographer(SMIMECryptographerImpl.DEFAULT_STREAMING_THRESHOLD);
+		
+		final MimeEntity entity = new MimeEntity();
+		entity.setText("Hello world.");
+		entity.setHeader(MimeStandard.ContentTypeHeader, "text/plain");
+		entity.setHeader(MimeStandard.ContentTransferEncodingHeader, "7bit");
+		
+		final SignedEntity signedEnt = cryptographer.sign(entity, TestUtils.getInternalCert("user1"));
+		assertTrue(Arrays.equals(EntitySerializer.Default.serializeToBytes(entity), 
+				EntitySerializer.Default.serializeToBytes(signedEnt.getContent())));
+		verifySignature(cryptographer, signedEnt, TestUtils.getExternalCert("user1"));
+		
+		final MimeEntity encEntity = cryptographer.encrypt(signedEnt.getMimeMultipart(), TestUtils.getExternalCert("user1"));
+		assertTrue(encEntity.getRawInputStream() instanceof SharedByteArrayInputStream);
+		assertEquals(SMIMEStandard.EncryptedContentTypeHeaderValue, encEntity.getContentType());
+		assertEquals(MimeStandard.TransferEncodingBase64, encEntity.getEncoding());
+		assertEquals(0, streamingDir.list().length);
+		
+		// the decrypted entity is the same entity that is encrypted when streaming is disabled
+		final ByteArrayOutputStream oStream = new ByteArrayOutputStream();
+		signedEnt.getMimeMultipart().writeTo(oStream);
+		final InternetHeaders hdrs = new InternetHeaders();
+		hdrs.addHeader(MimeStandard.ContentTypeHeader, signedEnt.getMimeMultipart().getContentType());
+		final MimeEntity orgEntity = new MimeEntity(hdrs, oStream.toByteArray());
+		
+		final MimeEntity decryEntity = new SMIMECryptographerImpl().decrypt(encEntity, TestUtils.getInternalCert("user1"));
+		assertTrue(Arrays.equals(EntitySerializer.Default.serializeToBytes(orgEntity), EntitySerializer.Default.serializeToBytes(decryEntity)));
+		
+		decryptAndVerify(encEntity);
+	}
+	
+	public void testEncrypt_streamingEntity_decryptedByNonStreamingCryptographer() throws Exception
+	{
+		final SMIMECryptographerImpl cryptographer = createStreamingCryptographer(16);
+		
+		final MimeEntity entity = new MimeEntity();
+		entity.setText("Hello world.  This entity is larger than the streaming threshold.");
+		entity.setHeader(MimeStandard.ContentTypeHeader, "text/plain");
+		entity.setHeader(MimeStandard.ContentTransferEncodingHeader, "7bit");
+		
+		final MimeEntity encEntity = cryptographer.encrypt(entity, TestUtils.getExternalCert("user1"));
+		assertTrue(encEntity.getRawInputStream() instanceof SpillableOutputStream.SpilledInputStream);
+		
+		final MimeEntity decryEntity = new SMIMECryptographerImpl().decrypt(encEntity, TestUtils.getInternalCert("user1"));
+		assertTrue(Arrays.equals(EntitySerializer.Default.serializeToBytes(entity), EntitySerializer.Default.serializeToBytes(decryEntity)));
+	}
+	
+	public void testSignAndEncrypt_1MBPayload_spilledToDisk() throws Exception
+	{
+		signAndEncryptLargePayload(1024 * 1024);
+	}
+	
+	public void testSignAndEncrypt_20MBPayload_spilledToDisk() throws Exception
+	{
+		signAndEncryptLargePayload(20 * 1024 * 1024);
+	}
+}
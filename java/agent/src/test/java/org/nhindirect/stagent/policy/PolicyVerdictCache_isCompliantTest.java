@@ -0,0 +1,190 @@
+package org.nhindirect.stagent.policy;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.security.cert.X509Certificate;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.nhindirect.policy.PolicyExpression;
+import org.nhindirect.policy.PolicyExpressionType;
+import org.nhindirect.policy.PolicyFilter;
+import org.nhindirect.policy.PolicyFilterFactory;
+import org.nhindirect.policy.PolicyLexicon;
+import org.nhindirect.policy.PolicyProcessException;
+import org.nhindirect.policy.impl.SimpleTextV1LexiconPolicyParser;
+import org.nhindirect.stagent.policy.impl.DomainPolicyResolver;
+import org.nhindirect.stagent.utils.TestUtils;
+
+import junit.framework.TestCase;
+
+public class PolicyVerdictCache_isCompliantTest extends TestCase
+{
+	protected final AtomicInteger evaluations = new AtomicInteger();
+	
+	protected PolicyFilter createFilter() throws Exception
+	{
+		final PolicyFilter delegate = PolicyFilterFactory.getInstance();
+		
+		return new PolicyFilter()
+		{
+			public boolean isCompliant(X509Certificate cert, InputStream policyStream, PolicyLexicon lexicon) throws PolicyProcessException
+			{
+				return delegate.isCompliant(cert, policyStream, lexicon);
+			}
+			
+			public boolean isCompliant(X509Certificate cert, PolicyExpression expression) throws PolicyProcessException
+			{
+				evaluations.incrementAndGet();
+				return delegate.isCompliant(cert, expression);
+			}
+		};
+	}
+	
+	protected static PolicyExpression parse(String policy) throws Exception
+	{
+		return new SimpleTextV1LexiconPolicyParser().parse(new ByteArrayInputStream(policy.getBytes("ASCII")));
+	}
+	
+	public void testIsCompliant_sameCertAndPolicy_assertCachedVerdict() throws Exception
+	{
+		final X509Certificate cert = TestUtils.loadCertificate("certCheckA.der");
+		final Collection<PolicyExpression> expressions = Arrays.asList(parse("(1 = 1) && (2 != 1)"));
+		
+		final PolicyVerdictCache cache = new PolicyVerdictCache(100);
+		final PolicyFilter filter = createFilter();
+		final String scope = PolicyVerdictCache.createScope();
+		
+		assertTrue(cache.isCompliant(scope, filter, cert, expressions));
+		assertEquals(1, evaluations.get());
+		assertEquals(1, cache.getMissCount().longValue());
+		assertEquals(0, cache.getHitCount().longValue());
+		
+		assertTrue(cache.isCompliant(scope, filter, TestUtils.loadCertificate("certCheckA.der"), expressions));
+		assertEquals(1, evaluations.get());
+		assertEquals(1, cache.getMissCount().longValue());
+		assertEquals(1, cache.getHitCount().longValue());
+		
+		// a re-parsed copy of the policy has the same digest
+		assertTrue(cache.isCompliant(scope, filter, cert, Arrays.asList(parse("(1 = 1) && (2 != 1)"))));
+		assertEquals(1, evaluations.get());
+		assertEquals(2, cache.getHitCount().longValue());
+		
+		// a different scope does not share verdicts
+		assertTrue(cache.isCompliant(PolicyVerdictCache.createScope(), filter, cert, expressions));
+		assertEquals(2, evaluations.get());
+	}
+	
+	public void testIsCompliant_differentCertsAndPolicies_assertVerdictsMatchUncached() throws Exception
+	{
+		final Collection<X509Certificate> certs = Arrays.asList(TestUtils.loadCertificate("certCheckA.der"), 
+				TestUtils.loadCertificate("certCheckB.der"), TestUtils.loadCertificate("cert-a.der"));
+		final Collection<PolicyExpression> expressions = Arrays.asList(parse("X509.Algorithm = 1.2.840.113549.1.1.11"), 
+				parse("X509.Algorithm = 1.2.840.113549.1.1.5"), parse("X509.TBS.EXTENSION.KeyUsage = 1"), parse("(1 = 2) && (2 != 1)"));
+		
+		final PolicyVerdictCache cache = new PolicyVerdictCache(100);
+		final PolicyFilter filter = createFilter();
+		final String scope = PolicyVerdictCache.createScope();
+		
+		for (int i = 0; i < 2; ++i)
+			for (X509Certificate cert : certs)
+				for (PolicyExpression expression : expressions)
+				{
+					final Collection<PolicyExpression> single = Arrays.asList(expression);
+					assertEquals(PolicyVerdictCache.isCompliant(filter, cert, single), cache.isCompliant(scope, filter, cert, single));
+				}
+		
+		assertEquals(12, cache.getMissCount().longValue());
+		assertEquals(12, cache.getHitCount().longValue());
+		assertEquals(12, cache.getVerdictCount().intValue());
+	}
+	
+	public void testIsCompliant_cacheFull_assertEvicted() throws Exception
+	{
+		final X509Certificate cert = TestUtils.loadCertificate("certCheckA.der");
+		
+		final PolicyVerdictCache cache = new PolicyVerdictCache(10);
+		final PolicyFilter filter = createFilter();
+		final String scope = PolicyVerdictCache.createScope();
+		
+		for (int i = 0; i < 25; ++i)
+			cache.isCompliant(scope, filter, cert, Arrays.asList(parse(i + " = " + i)));
+		
+		assertTrue(cache.getVerdictCount() <= 10);
+		assertTrue(cache.getEvictionCount() > 0);
+		assertEquals(25, cache.getMissCount().longValue());
+	}
+	
+	public void testIsCompliant_cacheDisabled_assertEvaluated() throws Exception
+	{
+		final X509Certificate cert = TestUtils.loadCertificate("certCheckA.der");
+		final Collection<PolicyExpression> expressions = Arrays.asList(parse("1 = 1"));
+		
+		final PolicyVerdictCache cache = new PolicyVerdictCache(0);
+		final PolicyFilter filter = createFilter();
+		final String scope = PolicyVerdictCache.createScope();
+		
+		assertTrue(cache.isCompliant(scope, filter, cert, expressions));
+		assertTrue(cache.isCompliant(scope, filter, cert, expressions));
+		assertEquals(2, evaluations.get());
+		assertEquals(0, cache.getVerdictCount().intValue());
+	}
+	
+	public void testIsCompliant_expressionCannotBeDigested_assertEvaluated() throws Exception
+	{
+		final X509Certificate cert = TestUtils.loadCertificate("certCheckA.der");
+		// anonymous expressions hold a reference to the non serializable test case
+		final PolicyExpression expression = new PolicyExpression()
+		{
+			static final long serialVersionUID = 1L;
+			
+			public PolicyExpressionType getExpressionType()
+			{
+				return PolicyExpressionType.LITERAL;
+			}
+		};
+		
+		final PolicyVerdictCache cache = new PolicyVerdictCache(100);
+		final PolicyFilter filter = new PolicyFilter()
+		{
+			public boolean isCompliant(X509Certificate cert, InputStream policyStream, PolicyLexicon lexicon)
+			{
+				return false;
+			}
+			
+			public boolean isCompliant(X509Certificate cert, PolicyExpression expression)
+			{
+				evaluations.incrementAndGet();
+				return true;
+			}
+		};
+		
+		final String scope = PolicyVerdictCache.createScope();
+		
+		assertNull(cache.getExpressionDigest(expression));
+		assertTrue(cache.isCompliant(scope, filter, cert, Arrays.asList(expression)));
+		assertTrue(cache.isCompliant(scope, filter, cert, Arrays.asList(expression)));
+		assertEquals(2, evaluations.get());
+		assertEquals(0, cache.getVerdictCount().intValue());
+	}
+	
+	public void testIsCompliant_policiesReplaced_assertFlushed() throws Exception
+	{
+		final X509Certificate cert = TestUtils.loadCertificate("certCheckA.der");
+		final PolicyExpression expression = parse("1 = 1");
+		
+		final Map<String, Collection<PolicyExpression>> policies = new HashMap<String, Collection<PolicyExpression>>();
+		policies.put("test.com", Arrays.asList(expression));
+		final DomainPolicyResolver resolver = new DomainPolicyResolver(policies);
+		
+		final PolicyVerdictCache cache = PolicyVerdictCache.getInstance();
+		cache.isCompliant(PolicyVerdictCache.createScope(), createFilter(), cert, Arrays.asList(expression));
+		assertTrue(cache.getVerdictCount() > 0);
+		
+		resolver.setPolicies(policies, true);
+		assertEquals(0, cache.getVerdictCount().intValue());
+	}
+}
@@ -11,6 +11,7 @@ import java.util.Arrays;
 import java.util.Collection;
 
 import org.nhindirect.stagent.NHINDException;
+import org.nhindirect.stagent.cert.AIACertificateCache;
 import org.nhindirect.stagent.utils.TestUtils;
 
 import junit.framework.TestCase;
@@ -22,6 +23,13 @@ public class TrustChainValidator_getIntermediateCertsByAIATest extends TestCase
 		public String retrievedURL;
 	}
 	
+	@Override
+	public void setUp()
+	{
+		// downloads are cached by URL, so start each test with an empty cache
+		AIACertificateCache.getInstance().flush();
+	}
+	
 	public void testGetIntermediateCertsByAIA_AIAExists_validateResolved() throws Exception
 	{
 	
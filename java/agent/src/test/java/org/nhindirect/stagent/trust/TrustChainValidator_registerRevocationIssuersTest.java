@@ -0,0 +1,90 @@
+package org.nhindirect.stagent.trust;
+
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+
+import org.nhindirect.stagent.CryptoExtensions;
+import org.nhindirect.stagent.cert.RevocationManager;
+import org.nhindirect.stagent.cert.impl.OCSPRevocationManager;
+import org.nhindirect.stagent.utils.TestUtils;
+
+import junit.framework.TestCase;
+
+public class TrustChainValidator_registerRevocationIssuersTest extends TestCase
+{
+	protected final Collection<X509Certificate> registeredIssuers = new ArrayList<X509Certificate>();
+	
+	@Override
+	public void setUp()
+	{
+		CryptoExtensions.registerJCEProviders();
+		TrustChainValidationCache.getInstance().flush();
+		registeredIssuers.clear();
+	}
+	
+	@Override
+	public void tearDown()
+	{
+		TrustChainValidationCache.getInstance().flush();
+	}
+	
+	protected TrustChainValidator createValidator(final RevocationManager revocationManager)
+	{
+		return new TrustChainValidator()
+		{
+			@Override
+			protected RevocationManager getRevocationManager()
+			{
+				return revocationManager;
+			}
+		};
+	}
+	
+	protected OCSPRevocationManager createOCSPManager()
+	{
+		return new OCSPRevocationManager(null)
+		{
+			@Override
+			public void addIssuerCertificates(Collection<X509Certificate> issuers)
+			{
+				registeredIssuers.addAll(issuers);
+				super.addIssuerCertificates(issuers);
+			}
+		};
+	}
+	
+	public void testIsTrusted_ocspEnabled_assertAnchorRegistered() throws Exception
+	{
+		final X509Certificate anchor = TestUtils.loadCertificate("cert-b.der");
+		final X509Certificate certToValidate = TestUtils.loadCertificate("cert-a.der");
+		
+		final TrustChainValidator validator = createValidator(createOCSPManager());
+		
+		assertTrue(validator.isTrusted(certToValidate, Arrays.asList(anchor)));
+		assertEquals(1, registeredIssuers.size());
+		assertEquals(anchor, registeredIssuers.iterator().next());
+	}
+	
+	public void testIsTrusted_notTrusted_assertNothingRegistered() throws Exception
+	{
+		final X509Certificate anchor = TestUtils.loadCertificate("certCheckA.der");
+		final X509Certificate certToValidate = TestUtils.loadCertificate("cert-a.der");
+		
+		final TrustChainValidator validator = createValidator(createOCSPManager());
+		
+		assertFalse(validator.isTrusted(certToValidate, Arrays.asList(anchor)));
+		assertTrue(registeredIssuers.isEmpty());
+	}
+	
+	public void testIsTrusted_certIsAnchor_assertNothingRegistered() throws Exception
+	{
+		final X509Certificate anchor = TestUtils.loadCertificate("cert-b.der");
+		
+		final TrustChainValidator validator = createValidator(createOCSPManager());
+		
+		assertTrue(validator.isTrusted(anchor, Arrays.asList(anchor)));
+		assertTrue(registeredIssuers.isEmpty());
+	}
+}
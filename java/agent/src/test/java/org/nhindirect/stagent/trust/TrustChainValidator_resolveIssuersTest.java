@@ -12,6 +12,7 @@ import java.util.Collection;
 import java.util.Iterator;
 
 import org.nhindirect.stagent.NHINDException;
+import org.nhindirect.stagent.cert.AIACertificateCache;
 import org.nhindirect.stagent.cert.CertificateResolver;
 import org.nhindirect.stagent.trust.TrustChainValidator_getIntermediateCertsByAIATest.TrustChainValidatorWrapper;
 import org.nhindirect.stagent.utils.TestUtils;
@@ -20,6 +21,13 @@ import junit.framework.TestCase;
 
 public class TrustChainValidator_resolveIssuersTest extends TestCase
 {
+	@Override
+	public void setUp()
+	{
+		// downloads are cached by URL, so start each test with an empty cache
+		AIACertificateCache.getInstance().flush();
+	}
+	
 	public void testResolveIssuers_AIAExists_validateResolved() throws Exception
 	{
 	
@@ -0,0 +1,121 @@
+package org.nhindirect.stagent.trust;
+
+import java.security.cert.X509Certificate;
+import java.util.Arrays;
+
+import org.nhindirect.stagent.CryptoExtensions;
+import org.nhindirect.stagent.cert.CertificateResolver;
+import org.nhindirect.stagent.cert.impl.UniformCertificateStore;
+import org.nhindirect.stagent.utils.TestUtils;
+
+import junit.framework.TestCase;
+
+public class TrustChainValidator_validationCacheTest extends TestCase
+{
+	@Override
+	public void setUp()
+	{
+		CryptoExtensions.registerJCEProviders();
+		TrustChainValidationCache.getInstance().flush();
+	}
+
+	@Override
+	public void tearDown()
+	{
+		TrustChainValidationCache.getInstance().flush();
+	}
+
+	public void testIsTrusted_sameCertAndAnchors_assertCacheHit() throws Exception
+	{
+		final X509Certificate anchor = TestUtils.loadCertificate("cert-b.der");
+		final X509Certificate certToValidate = TestUtils.loadCertificate("cert-a.der");
+
+		final TrustChainValidationCache cache = TrustChainValidationCache.getInstance();
+		final TrustChainValidator validator = new TrustChainValidator();
+		validator.setCertificateResolver(Arrays.asList((CertificateResolver)new UniformCertificateStore(anchor)));
+
+		final long hits = cache.getHitCount();
+		final long misses = cache.getMissCount();
+
+		assertTrue(validator.isTrusted(certToValidate, Arrays.asList(anchor)));
+		assertEquals(misses + 1, cache.getMissCount().longValue());
+		assertEquals(hits, cache.getHitCount().longValue());
+
+		assertTrue(validator.isTrusted(certToValidate, Arrays.asList(anchor)));
+		assertEquals(misses + 1, cache.getMissCount().longValue());
+		assertEquals(hits + 1, cache.getHitCount().longValue());
+	}
+
+	public void testIsTrusted_anchorSetChanged_assertCacheMiss() throws Exception
+	{
+		final X509Certificate anchor = TestUtils.loadCertificate("cert-b.der");
+		final X509Certificate otherAnchor = TestUtils.loadCertificate("certCheckA.der");
+		final X509Certificate certToValidate = TestUtils.loadCertificate("cert-a.der");
+
+		final TrustChainValidationCache cache = TrustChainValidationCache.getInstance();
+		final TrustChainValidator validator = new TrustChainValidator();
+
+		final long misses = cache.getMissCount();
+
+		assertTrue(validator.isTrusted(certToValidate, Arrays.asList(anchor)));
+		assertTrue(validator.isTrusted(certToValidate, Arrays.asList(anchor, otherAnchor)));
+		assertEquals(misses + 2, cache.getMissCount().longValue());
+
+		// anchor order does not change the anchor set
+		assertTrue(validator.isTrusted(certToValidate, Arrays.asList(otherAnchor, anchor)));
+		assertEquals(misses + 2, cache.getMissCount().longValue());
+	}
+
+	public void testIsTrusted_untrustedThenResolverChanged_assertRevalidated() throws Exception
+	{
+		final X509Certificate anchor = TestUtils.loadCertificate("cert-c.der");
+		final X509Certificate intermediate = TestUtils.loadCertificate("cert-b.der");
+		final X509Certificate certToValidate = TestUtils.loadCertificate("cert-a.der");
+
+		final TrustChainValidator validator = new TrustChainValidator();
+
+		// missing intermediate... not trusted and the negative result is cached
+		assertFalse(validator.isTrusted(certToValidate, Arrays.asList(anchor)));
+		assertFalse(validator.isTrusted(certToValidate, Arrays.asList(anchor)));
+
+		validator.setCertificateResolver(Arrays.asList((CertificateResolver)new UniformCertificateStore(intermediate)));
+		assertTrue(validator.isTrusted(certToValidate, Arrays.asList(anchor)));
+	}
+
+	public void testIsTrusted_trustAnchorSet_assertFingerprintComputedOnce() throws Exception
+	{
+		final X509Certificate anchor = TestUtils.loadCertificate("cert-b.der");
+		final X509Certificate otherAnchor = TestUtils.loadCertificate("certCheckA.der");
+		final X509Certificate certToValidate = TestUtils.loadCertificate("cert-a.der");
+
+		final TrustChainValidationCache cache = TrustChainValidationCache.getInstance();
+		final TrustChainValidator validator = new TrustChainValidator();
+
+		final TrustAnchorSet anchors = new TrustAnchorSet(Arrays.asList(anchor, otherAnchor));
+		assertNull(anchors.fingerprint);
+
+		assertTrue(validator.isTrusted(certToValidate, anchors));
+		final String fingerprint = anchors.fingerprint;
+		assertEquals(TrustChainValidationCache.createAnchorSetFingerprint(Arrays.asList(otherAnchor, anchor)), fingerprint);
+
+		final long hits = cache.getHitCount();
+		assertTrue(validator.isTrusted(certToValidate, anchors));
+		assertSame(fingerprint, cache.getAnchorSetFingerprint(anchors));
+		assertEquals(hits + 1, cache.getHitCount().longValue());
+	}
+
+	public void testIsTrusted_cacheDisabled_assertValidated() throws Exception
+	{
+		final X509Certificate anchor = TestUtils.loadCertificate("cert-b.der");
+		final X509Certificate certToValidate = TestUtils.loadCertificate("cert-a.der");
+
+		final TrustChainValidationCache cache = TrustChainValidationCache.getInstance();
+		final TrustChainValidator validator = new TrustChainValidator();
+		validator.setValidationCache(null);
+
+		final long misses = cache.getMissCount();
+
+		assertTrue(validator.isTrusted(certToValidate, Arrays.asList(anchor)));
+		assertEquals(misses, cache.getMissCount().longValue());
+	}
+}
@@ -0,0 +1,212 @@
+package org.nhindirect.stagent.trust;
+
+import static org.mockito.Mockito.mock;
+
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.mail.internet.MimeMessage;
+
+import junit.framework.TestCase;
+
+import org.bouncycastle.cms.SignerInformation;
+import org.nhindirect.stagent.DefaultMessageSignatureImpl;
+import org.nhindirect.stagent.IncomingMessage;
+import org.nhindirect.stagent.NHINDAddress;
+import org.nhindirect.stagent.NHINDAddressCollection;
+import org.nhindirect.stagent.cert.RevocationManager;
+import org.nhindirect.stagent.cert.impl.OCSPRevocationManager;
+import org.nhindirect.stagent.mail.Message;
+import org.nhindirect.stagent.utils.SecondaryMimeMessage;
+import org.nhindirect.stagent.utils.TestUtils;
+
+public class TrustModel_enforceSignatureReuseTest extends TestCase
+{
+	protected X509Certificate signerCert;
+	protected X509Certificate trustedAnchor;
+	protected X509Certificate untrustedAnchor;
+
+	protected final AtomicInteger isTrustedCalls = new AtomicInteger();
+	protected final AtomicInteger checkSignatureCalls = new AtomicInteger();
+	protected final AtomicInteger revocationCalls = new AtomicInteger();
+	protected RevocationManager revocationManager;
+
+	@Override
+	public void setUp() throws Exception
+	{
+		signerCert = TestUtils.loadCertificate("certCheckA.der");
+		trustedAnchor = TestUtils.loadCertificate("cert-b.der");
+		untrustedAnchor = TestUtils.loadCertificate("cert-c.der");
+	}
+
+	protected TrustModel createTrustModel()
+	{
+		final TrustChainValidator validator = new TrustChainValidator()
+		{
+			@Override
+			public boolean isTrusted(X509Certificate certificate, Collection<X509Certificate> anchors)
+			{
+				isTrustedCalls.incrementAndGet();
+				return anchors.contains(trustedAnchor);
+			}
+		};
+
+		return new TrustModel(validator)
+		{
+			@Override
+			protected RevocationManager getRevocationManager()
+			{
+				return (revocationManager != null) ? revocationManager : super.getRevocationManager();
+			}
+			
+			@Override
+			protected void findSenderSignatures(IncomingMessage message)
+			{
+				final Collection<DefaultMessageSignatureImpl> signatures = new ArrayList<DefaultMessageSignatureImpl>();
+				for (int i = 0; i < 2; ++i)
+				{
+					signatures.add(new DefaultMessageSignatureImpl(mock(SignerInformation.class), false, signerCert)
+					{
+						@Override
+						public boolean checkSignature()
+						{
+							checkSignatureCalls.incrementAndGet();
+							return true;
+						}
+					});
+				}
+				message.setSenderSignatures(signatures);
+			}
+		};
+	}
+
+	protected IncomingMessage createMessage(final NHINDAddressCollection recipients) throws Exception
+	{
+		final MimeMessage mimeMsg = new SecondaryMimeMessage();
+		mimeMsg.setText("");
+
+		return new IncomingMessage(new Message(mimeMsg), recipients, new NHINDAddress("sender@domain.com"))
+		{
+			@Override
+			public boolean hasSignatures()
+			{
+				return true;
+			}
+
+			@Override
+			public NHINDAddressCollection getDomainRecipients()
+			{
+				return recipients;
+			}
+		};
+	}
+
+	protected NHINDAddress createRecipient(int index, X509Certificate... anchors)
+	{
+		final NHINDAddress recipient = new NHINDAddress("recip" + index + "@domain.com");
+		recipient.setCertificates(Arrays.asList(signerCert));
+		recipient.setTrustAnchors(Arrays.asList(anchors));
+
+		return recipient;
+	}
+
+	public void testEnforce_manyRecipients_signaturesVerifiedOncePerMessage() throws Exception
+	{
+		final NHINDAddressCollection recipients = new NHINDAddressCollection();
+		for (int i = 0; i < 25; ++i)
+			recipients.add(createRecipient(i, trustedAnchor));
+
+		createTrustModel().enforce(createMessage(recipients));
+
+		for (NHINDAddress recipient : recipients)
+			assertEquals(TrustEnforcementStatus.Success_ThumbprintMismatch, recipient.getStatus());
+
+		// one anchor set, two signatures
+		assertEquals(2, isTrustedCalls.get());
+		assertEquals(2, checkSignatureCalls.get());
+	}
+
+	public void testEnforce_recipientsWithDifferentAnchorSets_chainValidatedPerAnchorSet() throws Exception
+	{
+		final NHINDAddressCollection recipients = new NHINDAddressCollection();
+		for (int i = 0; i < 10; ++i)
+			recipients.add(createRecipient(i, trustedAnchor, untrustedAnchor));
+		for (int i = 10; i < 20; ++i)
+			recipients.add(createRecipient(i, untrustedAnchor, trustedAnchor)); // same anchor set, different order
+		for (int i = 20; i < 30; ++i)
+			recipients.add(createRecipient(i, untrustedAnchor));
+
+		createTrustModel().enforce(createMessage(recipients));
+
+		int i = 0;
+		for (NHINDAddress recipient : recipients)
+		{
+			assertEquals(i < 20 ? TrustEnforcementStatus.Success_ThumbprintMismatch : TrustEnforcementStatus.Failed, recipient.getStatus());
+			++i;
+		}
+
+		// two distinct anchor sets, two signatures
+		assertEquals(4, isTrustedCalls.get());
+		// signatures are only verified once per message and not at all if the chain is not trusted
+		assertEquals(2, checkSignatureCalls.get());
+	}
+
+	public void testEnforce_ocspRevocation_checkedOnceAfterChainValidation() throws Exception
+	{
+		revocationManager = new OCSPRevocationManager(null)
+		{
+			@Override
+			public Map<X509Certificate, Boolean> isRevoked(Collection<X509Certificate> certificates)
+			{
+				revocationCalls.incrementAndGet();
+				
+				// the chains are validated before revocation is checked so the chain's issuers are registered with the manager
+				assertEquals(2, isTrustedCalls.get());
+				assertEquals(0, checkSignatureCalls.get());
+				
+				final Map<X509Certificate, Boolean> retVal = new HashMap<X509Certificate, Boolean>();
+				for (X509Certificate certificate : certificates)
+					retVal.put(certificate, Boolean.FALSE);
+				
+				return retVal;
+			}
+		};
+		
+		final NHINDAddressCollection recipients = new NHINDAddressCollection();
+		for (int i = 0; i < 5; ++i)
+			recipients.add(createRecipient(i, trustedAnchor));
+
+		createTrustModel().enforce(createMessage(recipients));
+
+		for (NHINDAddress recipient : recipients)
+			assertEquals(TrustEnforcementStatus.Success_ThumbprintMismatch, recipient.getStatus());
+		
+		assertEquals(1, revocationCalls.get());
+		assertEquals(2, checkSignatureCalls.get());
+	}
+	
+	public void testEnforce_untrustedChain_revocationNotChecked() throws Exception
+	{
+		revocationManager = new RevocationManager()
+		{
+			public boolean isRevoked(X509Certificate certificate)
+			{
+				revocationCalls.incrementAndGet();
+				return false;
+			}
+		};
+		
+		final NHINDAddressCollection recipients = new NHINDAddressCollection();
+		recipients.add(createRecipient(0, untrustedAnchor));
+
+		createTrustModel().enforce(createMessage(recipients));
+
+		assertEquals(TrustEnforcementStatus.Failed, recipients.iterator().next().getStatus());
+		assertEquals(0, revocationCalls.get());
+	}
+}
@@ -5,18 +5,26 @@ import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 import static org.mockito.Matchers.any;
 
+import java.lang.reflect.Field;
 import java.security.cert.X509Certificate;
 import java.util.ArrayList;
 import java.util.Arrays;
 
 import javax.mail.internet.InternetAddress;
 
+import org.apache.commons.io.IOUtils;
 import org.nhindirect.policy.PolicyExpression;
 import org.nhindirect.policy.PolicyFilter;
+import org.nhindirect.policy.PolicyLexicon;
+import org.nhindirect.policy.PolicyLexiconParser;
+import org.nhindirect.policy.PolicyLexiconParserFactory;
 import org.nhindirect.policy.PolicyProcessException;
 import org.nhindirect.policy.PolicyRequiredException;
+import org.nhindirect.policy.impl.DefaultPolicyFilter;
+import org.nhindirect.policy.impl.program.PolicyProgramEngine;
 import org.nhindirect.stagent.AgentException;
 import org.nhindirect.stagent.policy.PolicyResolver;
+import org.nhindirect.stagent.utils.TestUtils;
 
 import junit.framework.TestCase;
 
@@ -142,4 +150,30 @@ public class TrustModel_isCertPolicyCompliantTest extends TestCase
 		
 		assertTrue(exceptionOccured);
 	}		
+	
+	public void testIsCertPolicyCompliant_defaultPolicyFilter_assertCompiledPolicyEvaluated() throws Exception
+	{
+		final TrustModel model = new TrustModel();
+		
+		// the default filter compiles each expression into a policy program
+		final Field engineField = DefaultPolicyFilter.class.getDeclaredField("executionEngine");
+		engineField.setAccessible(true);
+		assertTrue(engineField.get(model.getPolicyFilter()) instanceof PolicyProgramEngine);
+		
+		final PolicyLexiconParser parser = PolicyLexiconParserFactory.getInstance(PolicyLexicon.SIMPLE_TEXT_V1);
+		final PolicyExpression compliant = parser.parse(IOUtils.toInputStream("X509.Algorithm = 1.2.840.113549.1.1.5"));
+		final PolicyExpression nonCompliant = parser.parse(IOUtils.toInputStream("X509.Algorithm = 1.2.840.113549.1.1.11"));
+		
+		final PolicyResolver resolver = mock(PolicyResolver.class);
+		when(resolver.getIncomingPolicy((InternetAddress)any())).thenReturn(Arrays.asList(compliant));
+		model.setTrustPolicyResolver(resolver);
+		
+		final X509Certificate cert = TestUtils.loadCertificate("umesh.der");
+		
+		assertTrue(model.isCertPolicyCompliant(new InternetAddress("me@test.com"), cert));
+		
+		when(resolver.getIncomingPolicy((InternetAddress)any())).thenReturn(Arrays.asList(nonCompliant));
+		
+		assertFalse(model.isCertPolicyCompliant(new InternetAddress("you@test.com"), cert));
+	}
 }